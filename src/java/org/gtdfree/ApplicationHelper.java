@@ -65,6 +65,9 @@ public final class ApplicationHelper {
 	public static final String DATA_PROPERTY= "gtd-free.data";
 	public static final String LOCK_FILE_NAME= "gtd-free.lock";
 	public static final String DEFAULT_DATA_FILE_NAME= "gtd-free-data.xml";
+	public static final String CHANGE_LOG_FILE_NAME= "gtd-free-data.log";
+	public static final String TEMP_DATA_FILE_NAME= "gtd-free-data.tmp";
+	public static final String JOURNAL_FOLDER_NAME= "journal";
 	public static final String SHUTDOWN_EMERGENCY_BACKUP_DATA_FILE_NAME= "gtd-free-data.shutdown_backup.xml";
 	public static final String BACKUP_DATA_FILE_NAME_PART= "gtd-free-data.backup";
 	public static final String DEFAULT_DATA_FOLDER_NAME= ".gtd-free";
@@ -196,6 +199,17 @@ public final class ApplicationHelper {
 		return dataFile;
 	}
 	
+	public static File getChangeLogFile() {
+		return new File(getDataFolder(),CHANGE_LOG_FILE_NAME);
+	}
+	
+	/**
+	 * @return file, into which new data file is written, before it replaces old one
+	 */
+	public static File getTempDataFile() {
+		return new File(getDataFolder(),TEMP_DATA_FILE_NAME);
+	}
+	
 	public static File createBackupDataFile(int i) {
 		return new File(getDataFolder(),BACKUP_DATA_FILE_NAME_PART+i+".xml");
 	}
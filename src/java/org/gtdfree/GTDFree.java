@@ -84,6 +84,8 @@ import org.gtdfree.gui.JournalPane;
 import org.gtdfree.gui.OrganizePane;
 import org.gtdfree.gui.ProcessPane;
 import org.gtdfree.gui.QuickCollectPanel;
+import org.gtdfree.model.ChangeSetEvent;
+import org.gtdfree.model.ChangeSetListener;
 import org.gtdfree.model.ConsistencyException;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
@@ -123,7 +125,7 @@ public class GTDFree {
 		}
 	}
 	
-	class SummaryBean implements GTDModelListener {
+	class SummaryBean implements GTDModelListener, ChangeSetListener {
 		
 		private PropertyChangeSupport supp= new PropertyChangeSupport(this);
 		private int inbucketCount;
@@ -135,6 +137,13 @@ public class GTDFree {
 		
 		public SummaryBean() {
 			getEngine().getGTDModel().addGTDModelListener(this);
+			getEngine().getReminderScheduler().addReminderListener(new ReminderListener() {
+				@Override
+				public void reminderDue(ReminderEvent e) {
+					// reminders for today became past
+					updateReminders();
+				}
+			});
 			updateInBucket();
 			updateQueue();
 			updateReminders();
@@ -175,7 +184,7 @@ public class GTDFree {
 			} else if (a.getAction().getFolder().isInBucket()) {
 				updateInBucket();
 			} else if (a.getProperty().equals(org.gtdfree.model.Action.REMIND_PROPERTY_NAME) 
-					|| (a.getAction().getRemind()!=null && a.getProperty().equals(org.gtdfree.model.Action.RESOLUTION_PROPERTY_NAME))) {
+					|| (a.getAction().getRemindTime()!=org.gtdfree.model.Action.UNSET_DATE && a.getProperty().equals(org.gtdfree.model.Action.RESOLUTION_PROPERTY_NAME))) {
 				updateReminders();
 			}
 		}
@@ -197,6 +206,14 @@ public class GTDFree {
 			// 
 		}
 		
+		@Override
+		public void changeSetCommitted(ChangeSetEvent e) {
+			updateInBucket();
+			updateQueue();
+			updateReminders();
+			updateMainCounts();
+		}
+		
 		private void updateInBucket() {
 			int n= getEngine().getGTDModel().getInBucketFolder().getOpenCount();
 			if (n!=inbucketCount) {
@@ -234,8 +251,8 @@ public class GTDFree {
 			int today=0;
 			long time= Utils.today();
 			for (org.gtdfree.model.Action a : getEngine().getGTDModel().getRemindFolder()) {
-				if (a.getRemind()!=null && a.isOpen()) {
-					long t= a.getRemind().getTime();
+				long t= a.getRemindTime();
+				if (t!=org.gtdfree.model.Action.UNSET_DATE && a.isOpen()) {
 					if (t<time) {
 						past++;
 					} else if ((t>=time) && (t<(time+Utils.MILLISECONDS_IN_DAY))) {
@@ -1146,11 +1163,7 @@ public class GTDFree {
 			saveMenuItem.addActionListener(new ActionListener() {
 			
 				public void actionPerformed(ActionEvent e) {
-					try {
-						getEngine().save();
-					} catch (Exception ex) {
-						ex.printStackTrace();
-					}
+					getEngine().saveLater();
 				}
 			
 			});
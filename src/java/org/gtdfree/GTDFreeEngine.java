@@ -23,56 +23,57 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.ActionMap;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamException;
 
 import org.gtdfree.gui.StateMachine;
 import org.gtdfree.journal.JournalModel;
+import org.gtdfree.journal.JournalStore;
 import org.gtdfree.model.ActionEvent;
+import org.gtdfree.model.ChangeLog;
+import org.gtdfree.model.ChangeSetEvent;
+import org.gtdfree.model.ChangeSetListener;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
 import org.gtdfree.model.GTDModel;
 import org.gtdfree.model.GTDModelListener;
+import org.gtdfree.model.ModelSnapshot;
+import org.gtdfree.model.ModelEventDispatcher.Delivery;
 import org.gtdfree.model.GTDModel.DataHeader;
 
 
 public class GTDFreeEngine {
 	
-	class SaveThread extends Thread implements GTDModelListener {
-		boolean destroyed= false;
+	class SaveThread extends SaveScheduler implements GTDModelListener, ChangeSetListener {
 		public SaveThread() {
+			super("GTD-Free autosave");
 		}
 		@Override
-		public void run() {
-			while (!destroyed) {
-				if (save) {
-					try {
-						save=false;
-						save();
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-				synchronized (this) {
-					try {
-						wait(60000);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-			}
+		protected void doSave() throws Exception {
+			save=false;
+			save();
 		}
 		public void elementAdded(FolderEvent a) {
 			if (!a.isRecycled()) {
@@ -103,29 +104,39 @@ public class GTDFreeEngine {
 		public void orderChanged(Folder f) {
 			notifySave();
 		}
-		public synchronized void notifySave() {
+		public void changeSetCommitted(ChangeSetEvent e) {
+			if (!e.isRecycled()) {
+				notifySave();
+			}
+		}
+		public void notifySave() {
 			//Thread.dumpStack();
 			save=true;
-			notify();
-		}
-		public synchronized void stopSave() {
-			destroyed=true;
-			notify();
+			changed();
 		}
 	}
 	
 	volatile private GTDModel gtdModel;
-	private SaveThread saveThread;
+	private volatile SaveThread saveThread;
+	private ChangeLog changeLog;
 	private volatile boolean save= false;
+	// changes were made while change log was not listening, only new snapshot stores them
+	private volatile boolean unlogged= false;
 	private boolean autoSave=true;
 	private int i=0;
 	private Properties configuration;
 	private GlobalProperties globalProperties;
 
 	private JournalModel journalModel;
+	private ReminderScheduler reminderScheduler;
 	private StateMachine stateMachine;
 	private ActionMap actionMap;
 	private boolean aborting= false;
+	private ExecutorService writer;
+	private long saveCount;
+	private long lastSaveTime;
+	private long lastSaveDuration;
+	private long lastSaveBytes;
 	
 	public GTDFreeEngine() throws FileNotFoundException, XMLStreamException, FactoryConfigurationError, MalformedURLException {
 	}
@@ -143,6 +154,15 @@ public class GTDFreeEngine {
 			
 			System.out.println("Using "+getDataFile().getAbsolutePath());
 
+			File temp= ApplicationHelper.getTempDataFile();
+			if (!getDataFile().exists() && temp.exists()) {
+				// save was interrupted after old data file was moved to backup, new one is complete
+				System.out.println("Recovering data file from "+temp.getAbsolutePath());
+				if (!temp.renameTo(getDataFile())) {
+					System.err.println("Failed to rename "+temp.getAbsolutePath()+" to "+getDataFile().getAbsolutePath());
+				}
+			}
+
 			if (getDataFile().exists()) {
 				try {
 					gtdModel.load(getDataFile());
@@ -160,6 +180,19 @@ public class GTDFreeEngine {
 					handleFailedLoad(gtdModel, dh, 0, new FileNotFoundException("Missing main data file: '"+getDataFile().getAbsolutePath()+"'."));
 				}
 			}
+			if (!aborting) {
+				// changes saved after data file was written
+				changeLog= new ChangeLog(gtdModel, ApplicationHelper.getChangeLogFile());
+				try {
+					int n= changeLog.replay();
+					if (n>0) {
+						System.out.println("Applied "+n+" changes from "+changeLog.getFile().getAbsolutePath());
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					changeLog=null;
+				}
+			}
 			setAutoSave(getGlobalProperties().getBoolean(GlobalProperties.AUTO_SAVE , true));
 		}
 
@@ -273,9 +306,28 @@ public class GTDFreeEngine {
 		
 	}
 	
+	/**
+	 * Returns scheduler, which notifies when reminders and due times of actions arrive. 
+	 * Scheduler is created and started with first call.
+	 */
+	public synchronized ReminderScheduler getReminderScheduler() {
+		if (reminderScheduler == null) {
+			reminderScheduler= new ReminderScheduler(getGTDModel());
+			getGTDModel().addGTDModelListener(reminderScheduler);
+			reminderScheduler.start();
+		}
+		return reminderScheduler;
+	}
+	
 	public JournalModel getJournalModel() {
 		if (journalModel == null) {
-			journalModel = new JournalModel();
+			try {
+				journalModel = new JournalModel(new JournalStore(new File(getDataFolder(),ApplicationHelper.JOURNAL_FOLDER_NAME), getGTDModel()));
+			} catch (IOException e) {
+				e.printStackTrace();
+				journalModel = new JournalModel();
+			}
+			journalModel.setGTDModel(getGTDModel());
 			/*if (file==null) {
 				file=ApplicationHelper.getDefaultFile();
 			}
@@ -299,20 +351,225 @@ public class GTDFreeEngine {
 		return journalModel;
 	}
 
+	/**
+	 * Saves changes. While auto save is on, changes are appended to change log, 
+	 * data file is rewritten only when change log is due for compaction or misses changes made while auto save was off.
+	 * Returns when changes are on disk.
+	 */
 	public void save() throws IOException, XMLStreamException, FactoryConfigurationError {
 		if (isAborting()) {
 			return;
 		}
 		
-		File backup = ApplicationHelper.createBackupDataFile(i++%10);
+		Future<?> f= submitSave();
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for data file to be written.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			if (e.getCause() instanceof XMLStreamException) {
+				throw (XMLStreamException)e.getCause();
+			}
+			throw new IOException("Failed to write data file: "+e.getCause(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Saves changes like {@link #save()}, but does not wait for them to be written, 
+	 * so it does not block event dispatch thread. Failures are printed.
+	 */
+	public void saveLater() {
+		if (isAborting()) {
+			return;
+		}
+		
+		try {
+			final Future<?> f= submitSave();
+			// writer is single thread, this runs after save is done
+			getWriter().submit(new Runnable() {
+				public void run() {
+					try {
+						f.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Log writes run on writer thread, so they are ordered with data file writes
+	 * and do not touch disk on event dispatch thread.
+	 */
+	private Future<?> submitSave() throws IOException {
+		if (changeLog!=null && isAutoSave() && !unlogged && !changeLog.isCompactionDue()) {
+			return getWriter().submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					changeLog.sync();
+					return null;
+				}
+			});
+		}
+		return saveSnapshot();
+	}
+	
+	/**
+	 * Takes snapshot of model on event dispatch thread and writes it to data file on background writer thread.
+	 * New data file is written to temporary file and forced to disk, only then it replaces old data file, 
+	 * which becomes backup copy, and new change log is started. Interrupted save leaves old data file in place.
+	 * @return future, which completes when data file has been replaced
+	 */
+	public Future<?> saveSnapshot() throws IOException {
+		final boolean u= unlogged;
+		unlogged=false;
+		final ModelSnapshot s;
+		final long[] mark= new long[1];
+		try {
+			s= takeSnapshot(mark);
+		} catch (IOException e) {
+			unlogged|=u;
+			throw e;
+		}
+		return getWriter().submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				try {
+					writeSnapshot(s, mark[0]);
+				} catch (Exception e) {
+					unlogged|=u;
+					throw e;
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * @param mark receives change log position of snapshot
+	 */
+	private ModelSnapshot takeSnapshot(final long[] mark) throws IOException {
+		if (SwingUtilities.isEventDispatchThread()) {
+			return takeSnapshotEDT(mark);
+		}
+		// model is changed on event dispatch thread, snapshot is consistent only if taken there
+		final ModelSnapshot[] s= new ModelSnapshot[1];
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					s[0]= takeSnapshotEDT(mark);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while taking snapshot of data.");
+		} catch (InvocationTargetException e) {
+			throw new IOException("Failed to take snapshot of data: "+e.getCause(), e.getCause());
+		}
+		return s[0];
+	}
+	
+	private ModelSnapshot takeSnapshotEDT(long[] mark) {
+		ModelSnapshot s= gtdModel.snapshot();
+		if (changeLog!=null) {
+			mark[0]= changeLog.mark();
+		}
+		return s;
+	}
+	
+	private synchronized ExecutorService getWriter() {
+		if (writer==null) {
+			writer= Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t= new Thread(r, "GTD-Free data writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return writer;
+	}
+	
+	/**
+	 * Writes snapshot to temporary file, then moves it in place of data file. Runs on writer thread.
+	 */
+	private void writeSnapshot(ModelSnapshot s, long mark) throws IOException, XMLStreamException, FactoryConfigurationError {
+		long t= System.nanoTime();
+		
+		File temp= ApplicationHelper.getTempDataFile();
+		FileOutputStream out= new FileOutputStream(temp);
+		try {
+			// snapshot writes trough file channel with own buffer
+			s.store(out);
+			out.getChannel().force(true);
+		} finally {
+			out.close();
+		}
+		long bytes= temp.length();
+		
+		// new data file is safely on disk, backups can be rotated
+		File backup = ApplicationHelper.createBackupDataFile(i%10);
 		if (backup.exists() && !backup.delete()) {
 			throw new IOException("Failed to remove backup file '"+backup.getAbsolutePath()+"'.");
 		}
 		if (getDataFile().exists() && !getDataFile().renameTo(backup)) {
 			throw new IOException("Failed to make backup copy file '"+backup.getAbsolutePath()+"'.");
 		}
-		gtdModel.store(getDataFile());
-		System.out.println("Saved to "+getDataFile().getAbsolutePath());
+		if (!temp.renameTo(getDataFile())) {
+			backup.renameTo(getDataFile());
+			throw new IOException("Failed to move '"+temp.getAbsolutePath()+"' to data file '"+getDataFile().getAbsolutePath()+"'.");
+		}
+		i++;
+		
+		gtdModel.snapshotStored(s);
+		if (changeLog!=null) {
+			// changes made after snapshot was taken stay in log
+			changeLog.reset(mark);
+		}
+		
+		t= System.nanoTime()-t;
+		synchronized (this) {
+			saveCount++;
+			lastSaveTime= System.currentTimeMillis();
+			lastSaveDuration= t/1000000;
+			lastSaveBytes= bytes;
+		}
+		System.out.println("Saved "+s.getActionCount()+" actions, "+bytes+" bytes to "+getDataFile().getAbsolutePath()+" in "+(t/1000000)+" ms");
+	}
+	
+	/**
+	 * @return number of data files written since start
+	 */
+	public synchronized long getSaveCount() {
+		return saveCount;
+	}
+	
+	/**
+	 * @return time when data file was last written, in milliseconds, or 0 if it was not written since start
+	 */
+	public synchronized long getLastSaveTime() {
+		return lastSaveTime;
+	}
+	
+	/**
+	 * @return duration of last data file write, in milliseconds, including time while it was forced to disk
+	 */
+	public synchronized long getLastSaveDuration() {
+		return lastSaveDuration;
+	}
+	
+	/**
+	 * @return size of last written data file in bytes
+	 */
+	public synchronized long getLastSaveBytes() {
+		return lastSaveBytes;
 	}
 
 	public void emergencySave() {
@@ -342,6 +599,30 @@ public class GTDFreeEngine {
 		return ApplicationHelper.getDataFolder();
 	}
 
+	/**
+	 * @return number of changes waiting for auto save
+	 */
+	public int getPendingChanges() {
+		SaveThread t= saveThread;
+		return t!=null ? t.getPendingChanges() : 0;
+	}
+	
+	/**
+	 * @return time of last auto save in milliseconds, 0 if there was none
+	 */
+	public long getLastAutoSaveTime() {
+		SaveThread t= saveThread;
+		return t!=null ? t.getLastSaveTime() : 0;
+	}
+	
+	/**
+	 * @return duration of last auto save in milliseconds
+	 */
+	public long getLastAutoSaveDuration() {
+		SaveThread t= saveThread;
+		return t!=null ? t.getLastSaveDuration() : 0;
+	}
+
 	/**
 	 * @return the autoSave
 	 */
@@ -355,20 +636,35 @@ public class GTDFreeEngine {
 	public void setAutoSave(boolean autoSave) {
 		this.autoSave = autoSave;
 		if (autoSave) {
+			// events of changes made while auto save was off must set save flag first
+			getGTDModel().flushEvents();
 			if (saveThread!=null) {
 				saveThread.stopSave();
 				getGTDModel().removeGTDModelListener(saveThread);
 			}
 			saveThread=new SaveThread();
 			saveThread.start();
-			getGTDModel().addGTDModelListener(saveThread);
+			if (save) {
+				// changes made while auto save was off are not in change log
+				unlogged|= changeLog!=null;
+				saveThread.changed();
+			}
+			if (changeLog!=null) {
+				// records must be encoded in order of changes, so it listens directly
+				getGTDModel().removeGTDModelListener(changeLog);
+				getGTDModel().addGTDModelListener(changeLog);
+			}
+			getGTDModel().addGTDModelListener(saveThread, Delivery.WORKER);
 		} else {
+			if (changeLog!=null) {
+				getGTDModel().removeGTDModelListener(changeLog);
+			}
 			if (saveThread!=null) {
 				saveThread.stopSave();
 			} else {
 				saveThread=new SaveThread();
 				saveThread.stopSave();
-				getGTDModel().addGTDModelListener(saveThread);
+				getGTDModel().addGTDModelListener(saveThread, Delivery.WORKER);
 			}
 		}
 	}
@@ -416,11 +712,18 @@ public class GTDFreeEngine {
 			return true;
 		}
 		
+		// pending events may still trigger save
+		getGTDModel().flushEvents();
+		
 		if (isAutoSave()) {
 			setAutoSave(false);
-			if (isSaveTriggered()) {
+			// fold change log into data file
+			if (isSaveTriggered() || unlogged || (changeLog!=null && changeLog.getRecordCount()>0)) {
 				save();
 			}
+			if (changeLog!=null) {
+				changeLog.close();
+			}
 		} else if (isSaveTriggered()) {
 			
 			if (terminal) {
@@ -460,6 +763,20 @@ public class GTDFreeEngine {
 			}
 		}
 		
+		synchronized (this) {
+			if (writer!=null) {
+				writer.shutdown();
+			}
+			if (reminderScheduler!=null) {
+				reminderScheduler.stopReminders();
+				getGTDModel().removeGTDModelListener(reminderScheduler);
+			}
+		}
+		
+		if (journalModel!=null) {
+			journalModel.close();
+		}
+		
 		return true;
 		
 	}
@@ -0,0 +1,76 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree;
+
+import java.util.EventObject;
+
+import org.gtdfree.model.Action;
+
+/**
+ * Reminder or due time of action has arrived.
+ * 
+ * @author ikesan
+ *
+ */
+public class ReminderEvent extends EventObject {
+
+	private static final long serialVersionUID = 1L;
+	
+	private Action action;
+	private String property;
+	private long time;
+
+	/**
+	 * @param source scheduler, which fired event
+	 * @param action action with reminder
+	 * @param property {@link Action#REMIND_PROPERTY_NAME} or {@link Action#DUE_PROPERTY_NAME}
+	 * @param time time of reminder in milliseconds
+	 */
+	public ReminderEvent(ReminderScheduler source, Action action, String property, long time) {
+		super(source);
+		this.action=action;
+		this.property=property;
+		this.time=time;
+	}
+	
+	public Action getAction() {
+		return action;
+	}
+	
+	/**
+	 * @return {@link Action#REMIND_PROPERTY_NAME} or {@link Action#DUE_PROPERTY_NAME}
+	 */
+	public String getProperty() {
+		return property;
+	}
+	
+	/**
+	 * @return time of reminder in milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	@Override
+	public String toString() {
+		return "ReminderEvent{"+property+"="+time+", action="+action.getId()+"}";
+	}
+
+}
@@ -0,0 +1,373 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import org.gtdfree.model.Action;
+import org.gtdfree.model.ActionEvent;
+import org.gtdfree.model.Folder;
+import org.gtdfree.model.FolderEvent;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.GTDModelListener;
+
+/**
+ * Thread, which notifies listeners when reminder or due time of an action arrives. 
+ * Pending reminders are kept in min-heap ordered by time, which is updated from model events, 
+ * so thread sleeps until first reminder is due and never scans all actions.
+ * <p>
+ * Changed or removed reminder is not removed from heap, but remembered as stale and skipped 
+ * when it reaches top. Heap is rebuilt without stale reminders when they outnumber valid ones.
+ * </p>
+ * <p>
+ * Reminders, which are already past when scheduler is created or action is added to model, are not fired, 
+ * reminders changed to past time are fired immediately. Reminders of resolved or deleted actions are skipped.
+ * </p>
+ * <p>
+ * Scheduler thread works with action IDs only, actions are looked up and events are fired 
+ * on event dispatch thread, where model is changed.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+public class ReminderScheduler extends Thread implements GTDModelListener {
+
+	private static final int REMIND= 0;
+	private static final int DUE= 1;
+	
+	private static final int MIN_COMPACT_SIZE= 1024;
+
+	private final GTDModel model;
+	private volatile ReminderListener[] listeners= new ReminderListener[0];
+	private boolean destroyed= false;
+	
+	// heap of reminders, time and key of each, key is action ID and type of reminder
+	private long[] times= new long[64];
+	private long[] keys= new long[64];
+	private int size;
+	// current time of each pending reminder, heap entries with other time are stale
+	private final Map<Long, Long> pending= new HashMap<Long, Long>();
+	private volatile long fired;
+
+	/**
+	 * Creates scheduler with reminders and due times of model, which are not past yet.
+	 * Scheduler must be added as listener to model and started.
+	 */
+	public ReminderScheduler(GTDModel model) {
+		super("GTD-Free reminders");
+		setDaemon(true);
+		this.model=model;
+		long now= System.currentTimeMillis();
+		Action[] aa= model.actionsRemindedBetween(now, Long.MAX_VALUE);
+		for (int i = 0; i < aa.length; i++) {
+			schedule(aa[i].getId(), REMIND, aa[i].getRemindTime());
+		}
+		aa= model.actionsDueBetween(now, Long.MAX_VALUE);
+		for (int i = 0; i < aa.length; i++) {
+			schedule(aa[i].getId(), DUE, aa[i].getDueTime());
+		}
+	}
+	
+	private static long key(int id, int type) {
+		return ((long)id<<1)|type;
+	}
+	
+	/**
+	 * Sets time of reminder, {@link Action#UNSET_DATE} cancels it.
+	 */
+	private synchronized void schedule(int id, int type, long time) {
+		Long key= key(id, type);
+		Long old= time==Action.UNSET_DATE ? pending.remove(key) : pending.put(key, time);
+		if (old!=null && old==time) {
+			return;
+		}
+		if (time!=Action.UNSET_DATE) {
+			push(time, key);
+			if (times[0]==time) {
+				notify();
+			}
+		}
+		if (size>MIN_COMPACT_SIZE && size>pending.size()*2) {
+			compact();
+		}
+	}
+	
+	private void push(long time, long key) {
+		if (size==times.length) {
+			times= Arrays.copyOf(times, size*2);
+			keys= Arrays.copyOf(keys, size*2);
+		}
+		int i= size++;
+		while (i>0) {
+			int parent= (i-1)>>>1;
+			if (times[parent]<=time) {
+				break;
+			}
+			times[i]=times[parent];
+			keys[i]=keys[parent];
+			i=parent;
+		}
+		times[i]=time;
+		keys[i]=key;
+	}
+	
+	private void pop() {
+		size--;
+		long time= times[size];
+		long key= keys[size];
+		int i=0;
+		while (true) {
+			int child= i*2+1;
+			if (child>=size) {
+				break;
+			}
+			if (child+1<size && times[child+1]<times[child]) {
+				child++;
+			}
+			if (time<=times[child]) {
+				break;
+			}
+			times[i]=times[child];
+			keys[i]=keys[child];
+			i=child;
+		}
+		times[i]=time;
+		keys[i]=key;
+	}
+	
+	/**
+	 * Rebuilds heap from pending reminders only.
+	 */
+	private void compact() {
+		size=0;
+		for (Map.Entry<Long, Long> e : pending.entrySet()) {
+			times[size]=e.getValue();
+			keys[size]=e.getKey();
+			size++;
+		}
+		for (int i = size/2-1; i >= 0; i--) {
+			long time= times[i];
+			long key= keys[i];
+			int j=i;
+			while (true) {
+				int child= j*2+1;
+				if (child>=size) {
+					break;
+				}
+				if (child+1<size && times[child+1]<times[child]) {
+					child++;
+				}
+				if (time<=times[child]) {
+					break;
+				}
+				times[j]=times[child];
+				keys[j]=keys[child];
+				j=child;
+			}
+			times[j]=time;
+			keys[j]=key;
+		}
+	}
+	
+	@Override
+	public void run() {
+		List<long[]> due= new ArrayList<long[]>();
+		while (true) {
+			synchronized (this) {
+				if (destroyed) {
+					return;
+				}
+				long now= System.currentTimeMillis();
+				while (size>0 && times[0]<=now) {
+					long time= times[0];
+					Long key= keys[0];
+					pop();
+					Long t= pending.get(key);
+					if (t==null || t!=time) {
+						// stale
+						continue;
+					}
+					pending.remove(key);
+					due.add(new long[]{key,time});
+				}
+				if (due.isEmpty()) {
+					try {
+						if (size==0) {
+							wait();
+						} else {
+							wait(times[0]-now);
+						}
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+					continue;
+				}
+			}
+			
+			final List<long[]> d= due;
+			due= new ArrayList<long[]>();
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					fire(d);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Fires events for due reminders, runs on event dispatch thread.
+	 * @param due pairs of reminder key and time
+	 */
+	private void fire(List<long[]> due) {
+		ReminderListener[] l= listeners;
+		for (long[] k : due) {
+			Action a= model.getAction((int)(k[0]>>>1));
+			if (a==null || !a.isOpen()) {
+				continue;
+			}
+			boolean remind= (k[0]&1)==REMIND;
+			if ((remind ? a.getRemindTime() : a.getDueTime())!=k[1]) {
+				// changed after it was taken from heap, new time is scheduled
+				continue;
+			}
+			ReminderEvent e= new ReminderEvent(this, a, remind ? Action.REMIND_PROPERTY_NAME : Action.DUE_PROPERTY_NAME, k[1]);
+			fired++;
+			for (int i = 0; i < l.length; i++) {
+				try {
+					l[i].reminderDue(e);
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stops thread, pending reminders are not fired.
+	 */
+	public synchronized void stopReminders() {
+		destroyed=true;
+		notify();
+	}
+	
+	/**
+	 * @return number of pending reminders and due times
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+	
+	/**
+	 * @return time of first pending reminder in milliseconds, {@link Action#UNSET_DATE} if there is none
+	 */
+	public synchronized long getNextReminderTime() {
+		while (size>0 && !Long.valueOf(times[0]).equals(pending.get(keys[0]))) {
+			pop();
+		}
+		return size>0 ? times[0] : Action.UNSET_DATE;
+	}
+	
+	/**
+	 * @return number of events fired so far
+	 */
+	public long getFiredCount() {
+		return fired;
+	}
+	
+	public synchronized void addReminderListener(ReminderListener l) {
+		if (l==null) {
+			return;
+		}
+		ReminderListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+		ll[ll.length-1]=l;
+		listeners=ll;
+	}
+	
+	public synchronized void removeReminderListener(ReminderListener l) {
+		for (int i = listeners.length-1; i >= 0; i--) {
+			if (listeners[i]==l) {
+				ReminderListener[] ll= new ReminderListener[listeners.length-1];
+				System.arraycopy(listeners, 0, ll, 0, i);
+				System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+				listeners=ll;
+				return;
+			}
+		}
+	}
+	
+	private void added(Action a) {
+		long now= System.currentTimeMillis();
+		if (a.getRemindTime()>=now) {
+			schedule(a.getId(), REMIND, a.getRemindTime());
+		}
+		if (a.getDueTime()>=now) {
+			schedule(a.getId(), DUE, a.getDueTime());
+		}
+	}
+
+	public void elementAdded(FolderEvent a) {
+		if (!a.getFolder().isMeta()) {
+			added(a.getAction());
+		}
+	}
+
+	public void elementModified(ActionEvent a) {
+		if (a.isRecycled()) {
+			// same change repeated by meta folder, reminder might have fired already
+			return;
+		}
+		if (Action.REMIND_PROPERTY_NAME.equals(a.getProperty())) {
+			schedule(a.getAction().getId(), REMIND, a.getAction().getRemindTime());
+		} else if (Action.DUE_PROPERTY_NAME.equals(a.getProperty())) {
+			schedule(a.getAction().getId(), DUE, a.getAction().getDueTime());
+		}
+	}
+
+	public void elementRemoved(FolderEvent a) {
+		if (!a.getFolder().isMeta() && model.getAction(a.getAction().getId())==null) {
+			schedule(a.getAction().getId(), REMIND, Action.UNSET_DATE);
+			schedule(a.getAction().getId(), DUE, Action.UNSET_DATE);
+		}
+	}
+
+	public void folderAdded(Folder folder) {
+		//
+	}
+
+	public void folderModified(FolderEvent folder) {
+		//
+	}
+
+	public void folderRemoved(Folder folder) {
+		//
+	}
+
+	public void orderChanged(Folder f) {
+		//
+	}
+
+}
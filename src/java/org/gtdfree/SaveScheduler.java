@@ -0,0 +1,247 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree;
+
+/**
+ * Thread, which saves changes some time after they were made. Save waits until changes
+ * stop for quiet period, but not longer than maximal staleness after first unsaved change.
+ * Two saves are at least minimal interval apart. When save takes longer than its budget,
+ * minimal interval is doubled for following saves, and halved again when saves are fast.
+ *
+ * @author ikesan
+ *
+ */
+public abstract class SaveScheduler extends Thread {
+
+	public static final long DEFAULT_QUIET_PERIOD= 2000;
+	public static final long DEFAULT_MAX_STALENESS= 30000;
+	public static final long DEFAULT_MIN_INTERVAL= 5000;
+	public static final long DEFAULT_SAVE_BUDGET= 1000;
+
+	/**
+	 * Maximal factor, by which minimal interval is stretched.
+	 */
+	public static final int MAX_BACKOFF= 16;
+
+	private long quietPeriod= DEFAULT_QUIET_PERIOD;
+	private long maxStaleness= DEFAULT_MAX_STALENESS;
+	private long minInterval= DEFAULT_MIN_INTERVAL;
+	private long saveBudget= DEFAULT_SAVE_BUDGET;
+
+	private boolean destroyed= false;
+	private int pending;
+	private long firstChange;
+	private long lastChange;
+	private long lastSaveEnd;
+	private int backoff=1;
+	private long saveCount;
+	private long lastSaveTime;
+	private long lastSaveDuration;
+
+	public SaveScheduler(String name) {
+		super(name);
+	}
+
+	/**
+	 * Saves changes, called on this thread.
+	 */
+	protected abstract void doSave() throws Exception;
+
+	@Override
+	public void run() {
+		while (true) {
+			int count;
+			synchronized (this) {
+				if (destroyed) {
+					return;
+				}
+				if (pending==0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+					continue;
+				}
+				long now= System.currentTimeMillis();
+				long due= getNextSaveTime();
+				if (now<due) {
+					try {
+						wait(due-now);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+					continue;
+				}
+				count= pending;
+				pending=0;
+			}
+
+			long t= System.nanoTime();
+			boolean ok= false;
+			try {
+				doSave();
+				ok=true;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			t= (System.nanoTime()-t)/1000000;
+
+			synchronized (this) {
+				lastSaveEnd= System.currentTimeMillis();
+				if (t>saveBudget) {
+					backoff= Math.min(backoff*2, MAX_BACKOFF);
+				} else if (backoff>1) {
+					backoff/=2;
+				}
+				if (ok) {
+					saveCount++;
+					lastSaveTime= lastSaveEnd;
+					lastSaveDuration= t;
+					if (pending==0) {
+						firstChange=0;
+					} else {
+						// changes made while saving are as old as save
+						firstChange=lastSaveEnd-t;
+					}
+				} else {
+					// failed changes are retried after minimal interval
+					pending+=count;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return time in milliseconds, when pending changes are going to be saved
+	 */
+	public synchronized long getNextSaveTime() {
+		if (pending==0) {
+			return 0;
+		}
+		long interval= minInterval*backoff;
+		long due= Math.min(lastChange+quietPeriod, firstChange+Math.max(maxStaleness, interval));
+		return Math.max(due, lastSaveEnd+interval);
+	}
+
+	/**
+	 * Notifies about change, which should be saved.
+	 */
+	public synchronized void changed() {
+		long now= System.currentTimeMillis();
+		if (pending==0 && firstChange==0) {
+			firstChange=now;
+		}
+		lastChange=now;
+		pending++;
+		notify();
+	}
+
+	/**
+	 * Stops thread, pending changes are not saved.
+	 */
+	public synchronized void stopSave() {
+		destroyed=true;
+		notify();
+	}
+
+	/**
+	 * @return number of changes since last save started
+	 */
+	public synchronized int getPendingChanges() {
+		return pending;
+	}
+
+	/**
+	 * @return time of last successful save in milliseconds, 0 if there was none
+	 */
+	public synchronized long getLastSaveTime() {
+		return lastSaveTime;
+	}
+
+	/**
+	 * @return duration of last successful save in milliseconds
+	 */
+	public synchronized long getLastSaveDuration() {
+		return lastSaveDuration;
+	}
+
+	/**
+	 * @return number of successful saves
+	 */
+	public synchronized long getSaveCount() {
+		return saveCount;
+	}
+
+	/**
+	 * @return factor, by which minimal interval is currently stretched because of slow saves
+	 */
+	public synchronized int getBackoff() {
+		return backoff;
+	}
+
+	/**
+	 * @param quietPeriod time in milliseconds without changes, after which changes are saved
+	 */
+	public synchronized void setQuietPeriod(long quietPeriod) {
+		this.quietPeriod = quietPeriod;
+		notify();
+	}
+
+	public synchronized long getQuietPeriod() {
+		return quietPeriod;
+	}
+
+	/**
+	 * @param maxStaleness time in milliseconds after first unsaved change, after which changes are saved even when changes continue
+	 */
+	public synchronized void setMaxStaleness(long maxStaleness) {
+		this.maxStaleness = maxStaleness;
+		notify();
+	}
+
+	public synchronized long getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	/**
+	 * @param minInterval minimal time in milliseconds between end of one save and start of next one
+	 */
+	public synchronized void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+		notify();
+	}
+
+	public synchronized long getMinInterval() {
+		return minInterval;
+	}
+
+	/**
+	 * @param saveBudget time in milliseconds, which save is expected to take, slower saves are made less often
+	 */
+	public synchronized void setSaveBudget(long saveBudget) {
+		this.saveBudget = saveBudget;
+	}
+
+	public synchronized long getSaveBudget() {
+		return saveBudget;
+	}
+
+}
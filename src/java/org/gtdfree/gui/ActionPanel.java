@@ -31,7 +31,7 @@ import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.net.URL;
+import java.net.URI;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -55,11 +55,17 @@ import javax.swing.event.DocumentListener;
 import org.gtdfree.ApplicationHelper;
 import org.gtdfree.GTDFreeEngine;
 import org.gtdfree.GlobalProperties;
+import org.gtdfree.journal.JournalEntryEvent;
+import org.gtdfree.journal.JournalModel;
+import org.gtdfree.journal.JournalModelListener;
+import org.gtdfree.journal.JournalTools;
 import org.gtdfree.model.Action;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
 import org.gtdfree.model.FolderListener;
 import org.gtdfree.model.Priority;
+import org.gtdfree.model.Project;
+import org.gtdfree.model.Utils;
 import org.gtdfree.model.Action.Resolution;
 
 import de.wannawork.jcalendar.JCalendarComboBox;
@@ -85,6 +91,22 @@ public class ActionPanel extends JPanel implements FolderListener {
 	private JCalendarComboBox datePicker;
 	private ProjectsCombo projectCombo;
 	private GTDFreeEngine engine;
+	private JournalModel journalModel;
+	private JournalModelListener journalHandler= new JournalModelListener() {
+		// totals of shown action change with journal
+		public void journalEntryAdded(JournalEntryEvent e) {
+			updateTracked();
+		}
+		public void journalEntryChanged(JournalEntryEvent e) {
+			updateTracked();
+		}
+		public void journalEntryIntervalAdded(JournalEntryEvent e) {
+			updateTracked();
+		}
+		public void journalEntryIntervalRemoved(JournalEntryEvent e) {
+			updateTracked();
+		}
+	};
 	private AbstractAction reopenAction;
 	private JLabel folderLabel;
 	private AbstractAction queuedAction;
@@ -231,10 +253,10 @@ public class ActionPanel extends JPanel implements FolderListener {
 		urlText= new JTextField();
 		urlText.getDocument().addDocumentListener(new DocumentListener() {
 			private void update() {
-				URL url=null;
+				URI url=null;
 				
 				try {
-					url= new URL(urlText.getText());
+					url= Utils.toURI(urlText.getText());
 				} catch (Exception e) {
 					//
 				}
@@ -565,7 +587,7 @@ public class ActionPanel extends JPanel implements FolderListener {
 				public void actionPerformed(ActionEvent e) {
 					if (action!=null && action.getUrl()!=null) {
 						try {
-							Desktop.getDesktop().browse(action.getUrl().toURI());
+							Desktop.getDesktop().browse(action.getUrl());
 						} catch (Exception e1) {
 							e1.printStackTrace();
 							JOptionPane.showConfirmDialog(ActionPanel.this, Messages.getString("ActionPanel.LinkError.1")+action.getUrl()+Messages.getString("ActionPanel.LinkError.2")+e1.getMessage(), Messages.getString("ActionPanel.LinkError.Title"), JOptionPane.OK_OPTION, JOptionPane.ERROR_MESSAGE); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -752,6 +774,40 @@ public class ActionPanel extends JPanel implements FolderListener {
 				setting=false;
 			}
 		}
+		updateTracked();
+	}
+	
+	/**
+	 * Shows time tracked in journal on action and its project as tooltips.
+	 */
+	private void updateTracked() {
+		Action a=action;
+		if (a==null || engine==null) {
+			idLabel.setToolTipText(null);
+			projectCombo.setToolTipText(null);
+			return;
+		}
+		if (journalModel==null) {
+			journalModel= engine.getJournalModel();
+			journalModel.addJournalModelListener(journalHandler);
+		}
+		JournalModel m= journalModel;
+		boolean ready= m.isIndexReady();
+		if (!ready) {
+			// reading all journal would block, totals are shown when index is built
+			m.buildIndexLater(new Runnable() {
+				public void run() {
+					updateTracked();
+				}
+			});
+		}
+		idLabel.setToolTipText(Messages.getString("ActionPanel.Tracked")+(ready ? JournalTools.toHoursString(m.getActionTotalMinutes(a)) : Messages.getString("ActionPanel.NA"))); //$NON-NLS-1$ //$NON-NLS-2$
+		Project p= a.getProject()!=null ? a.getFolder().getParent().getProject(a.getProject()) : null;
+		if (p!=null) {
+			projectCombo.setToolTipText(Messages.getString("ActionPanel.ProjectTracked")+(ready ? JournalTools.toHoursString(m.getProjectTotalMinutes(p)) : Messages.getString("ActionPanel.NA"))); //$NON-NLS-1$ //$NON-NLS-2$
+		} else {
+			projectCombo.setToolTipText(null);
+		}
 	}
 	
 	public static void main(String[] args) {
@@ -75,10 +75,13 @@ import org.gtdfree.ApplicationHelper;
 import org.gtdfree.GTDFreeEngine;
 import org.gtdfree.model.Action;
 import org.gtdfree.model.ActionFilter;
+import org.gtdfree.model.ChangeSetEvent;
+import org.gtdfree.model.ChangeSetListener;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
 import org.gtdfree.model.FolderListener;
 import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.IndexedActionFilter;
 import org.gtdfree.model.Priority;
 import org.gtdfree.model.Project;
 import org.gtdfree.model.Utils;
@@ -410,7 +413,19 @@ public class ActionTable extends JTable {
 			int width=45;
 			if (f!=null) {
 				
-				if (a!=null) {
+				Action[] selected= a instanceof IndexedActionFilter ? ((IndexedActionFilter)a).select(f) : null;
+				if (selected!=null) {
+					// already filtered by index
+					for (Action note : selected) {
+						if (showAll || note.isOpen()) {
+							data.add(note);
+							if (showFolderColumn) {
+								int i= getFontMetrics(getFont()).stringWidth(note.getFolder().getName());
+								if (i>width) width=i;
+							}
+						}
+					}
+				} else if (a!=null) {
 					for (Action note : f) {
 						if ((showAll || note.isOpen()) && a.isAcceptable(f, note)) {
 							data.add(note);
@@ -785,7 +800,7 @@ public class ActionTable extends JTable {
 	protected Folder folder;
 	private ActionTableModel model;
 	private boolean showAll=false;
-	private FolderListener folderListener = new FolderListener() {
+	private class TableFolderListener implements FolderListener, ChangeSetListener {
 		
 		public void elementRemoved(FolderEvent note) {
 			model.remove(note.getAction());
@@ -825,8 +840,20 @@ public class ActionTable extends JTable {
 			int i= model.indexOf(a);
 			getSelectionModel().setSelectionInterval(i, i);
 		}
+		
+		public void changeSetCommitted(ChangeSetEvent e) {
+			updateIDColumnWidth();
+			Action a= getSelectedAction();
+			model.reload(folder,filter);
+			int i= model.indexOf(a);
+			if (i>-1) {
+				getSelectionModel().setSelectionInterval(i, i);
+			}
+			enableSelectActions();
+		}
 	
-	};
+	}
+	private FolderListener folderListener = new TableFolderListener();
 	private AbstractAction moveUpAction;
 	private AbstractAction moveDownAction;
 	private Action selectedAction;
@@ -1232,6 +1259,7 @@ public class ActionTable extends JTable {
 	}
 
 	private void initialize() {
+		// one action at a time, table has no multi-row operations, which would need GTDModel.batch(Runnable)
 		setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		setShowHorizontalLines(false);
 		setShowVerticalLines(false);
@@ -45,10 +45,13 @@ import javax.swing.tree.TreePath;
 import org.gtdfree.GTDFreeEngine;
 import org.gtdfree.model.Action;
 import org.gtdfree.model.ActionEvent;
+import org.gtdfree.model.ChangeSetEvent;
+import org.gtdfree.model.ChangeSetListener;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
 import org.gtdfree.model.GTDModel;
 import org.gtdfree.model.GTDModelListener;
+import org.gtdfree.model.ModelEventDispatcher.Delivery;
 import org.gtdfree.model.Folder.FolderType;
 
 
@@ -317,66 +320,81 @@ public class FolderTree extends JTree {
 		return gtdModel;
 	}
 
-	/**
-	 * @param gtdModel the gtdModel to set
-	 */
-	private void setGTDModel(GTDModel gtdModel) {
-		this.gtdModel = gtdModel;
-		gtdModel.addGTDModelListener(new GTDModelListener() {
-		
-			public void elementRemoved(FolderEvent note) {
-				model.nodeChanged(folderToNode(note.getFolder()));
-				repaint();
+	private class ModelListener implements GTDModelListener, ChangeSetListener {
+	
+		public void elementRemoved(FolderEvent note) {
+			model.nodeChanged(folderToNode(note.getFolder()));
+			repaint();
+		}
+	
+		public void elementModified(ActionEvent note) {
+			int[] i= new int[meta.getChildCount()];
+			for (int j = 0; j < i.length; j++) {
+				i[j]=j;
 			}
-		
-			public void elementModified(ActionEvent note) {
-				int[] i= new int[meta.getChildCount()];
-				for (int j = 0; j < i.length; j++) {
-					i[j]=j;
+			model.nodesChanged(meta, i);
+			repaint();
+		}
+	
+		public void elementAdded(FolderEvent note) {
+			model.nodeChanged(folderToNode(note.getFolder()));
+			repaint();
+		}
+	
+		public void folderRemoved(Folder folder) {
+			removeFromTree(folder, true);
+		}
+	
+		public void folderModified(FolderEvent f) {
+			if (f.getProperty()=="closed") {
+				if (f.getFolder().isClosed() && !showClosedFolders) {
+					removeFromTree(f.getFolder(), true);
+				} else if (!f.getFolder().isClosed() && folderToNode(f.getFolder())==null) {
+					addToTree(f.getFolder(), true);
+				} 
+			} else if (f.getProperty()=="name") {
+				SortedTreeNode p= folderToParentNode(f.getFolder());
+				if (p!=null) {
+					p.sort();
+					model.nodeStructureChanged(p);
 				}
-				model.nodesChanged(meta, i);
-				repaint();
-			}
-		
-			public void elementAdded(FolderEvent note) {
-				model.nodeChanged(folderToNode(note.getFolder()));
-				repaint();
-			}
-		
-			public void folderRemoved(Folder folder) {
-				removeFromTree(folder, true);
-			}
-		
-			public void folderModified(FolderEvent f) {
-				if (f.getProperty()=="closed") {
-					if (f.getFolder().isClosed() && !showClosedFolders) {
-						removeFromTree(f.getFolder(), true);
-					} else if (!f.getFolder().isClosed() && folderToNode(f.getFolder())==null) {
-						addToTree(f.getFolder(), true);
-					} 
-				} else if (f.getProperty()=="name") {
-					SortedTreeNode p= folderToParentNode(f.getFolder());
-					if (p!=null) {
-						p.sort();
-						model.nodeStructureChanged(p);
-					}
-				} else {
-					DefaultMutableTreeNode p= folderToNode(f.getFolder());
-					if (p!=null) {
-						model.nodeChanged(p);
-					}
+			} else {
+				DefaultMutableTreeNode p= folderToNode(f.getFolder());
+				if (p!=null) {
+					model.nodeChanged(p);
 				}
-				repaint();
 			}
-		
-			public void folderAdded(Folder folder) {
-				addToTree(folder, true);
+			repaint();
+		}
+	
+		public void folderAdded(Folder folder) {
+			addToTree(folder, true);
+		}
+		public void orderChanged(Folder f) {
+			//
+		}
+		public void changeSetCommitted(ChangeSetEvent e) {
+			for (Folder f : e.getFolders()) {
+				DefaultMutableTreeNode n= folderToNode(f);
+				if (n!=null) {
+					model.nodeChanged(n);
+				}
 			}
-			public void orderChanged(Folder f) {
-				//
+			int[] i= new int[meta.getChildCount()];
+			for (int j = 0; j < i.length; j++) {
+				i[j]=j;
 			}
-		
-		});		
+			model.nodesChanged(meta, i);
+			repaint();
+		}
+	}
+
+	/**
+	 * @param gtdModel the gtdModel to set
+	 */
+	private void setGTDModel(GTDModel gtdModel) {
+		this.gtdModel = gtdModel;
+		gtdModel.addGTDModelListener(new ModelListener(), Delivery.EDT);
 		rebuildTree();
 	}
 	
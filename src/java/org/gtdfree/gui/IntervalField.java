@@ -125,6 +125,9 @@ public class IntervalField extends JPanel implements JournalEntryListener {
 	
 	@Override
 	public void journalEntryIntervalRemoved(JournalEntryEvent e) {
+		if (entry==null) {
+			return;
+		}
 		if (e.getIndex()==IntervalField.this.index) {
 			release();
 		} else if (e.getIndex()<IntervalField.this.index) {
@@ -135,19 +138,22 @@ public class IntervalField extends JPanel implements JournalEntryListener {
 
 	@Override
 	public void journalEntryIntervalAdded(JournalEntryEvent e) {
-		//
-
+		if (entry!=null && e.getIndex()<=IntervalField.this.index) {
+			IntervalField.this.index++;
+		}
 	}
 
 	@Override
 	public void journalEntryChanged(JournalEntryEvent e) {
-		if (e.getIndex()==IntervalField.this.index) {
+		if (entry!=null && e.getIndex()==IntervalField.this.index) {
 			updateInterval((Interval)e.getNewValue());
 		}
 	}
 
 	public void release() {
-		
+		if (entry==null) {
+			return;
+		}
 		entry.removeJournalEntryListener(this);
 		entry=null;
 		interval=null;
@@ -181,6 +187,10 @@ public class IntervalField extends JPanel implements JournalEntryListener {
 		return new Interval(t1,t2);
 	}
 	
+	public int getIndex() {
+		return index;
+	}
+	
 	public void setIndex(int index) {
 		this.index = index;
 	}
@@ -191,8 +201,10 @@ public class IntervalField extends JPanel implements JournalEntryListener {
 		}
 		Interval old= interval;
 		interval=i;
-		if (i!=entry.getInterval(index)) {
-			entry.setInterval(index, i);
+		entry.setInterval(index, i);
+		if (entry==null) {
+			// interval was moved and merged, panel made new fields
+			return;
 		}
 		
 		if(!setting) {
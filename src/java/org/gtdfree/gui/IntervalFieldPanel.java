@@ -55,31 +55,41 @@ public class IntervalFieldPanel extends JPanel implements JournalEntryListener {
 		
 	}
 	
+	/**
+	 * Adds interval to entry, fields are updated when entry notifies about change.
+	 */
 	public void addInterval(Interval i) {
-		
 		entry.addInterval(i);
-		
-		IntervalField f= new IntervalField(this,entry,entry.getIntervalCount()-1);
-		
-		fields.add(f);
-		
-		add(f, new GridBagConstraints(0,fields.size()-1,1,1,1,0,GridBagConstraints.CENTER,GridBagConstraints.NONE, new Insets(0,0,0,0),0,0));
-
-		checkLast();
-
-		if (getParent()!=null && getParent().getParent()!=null) {
-			getParent().getParent().validate();
-		}
 	}
 	
 	public void removeField(IntervalField f) {
-		fields.remove(f);
-		remove(f);
-		f.release();
+		entry.removeInterval(entry.getInterval(f.getIndex()));
+	}
+	
+	/**
+	 * Makes one field for each interval of entry, intervals may be merged or reordered by entry.
+	 */
+	private void rebuild() {
+		removeAll();
+		for (IntervalField f : fields) {
+			f.release();
+		}
+		fields.clear();
 		
-		checkLast();
+		for (int i = 0; i < entry.getIntervalCount(); i++) {
+			IntervalField f= new IntervalField(this,entry,i);
+			fields.add(f);
+			add(f, new GridBagConstraints(0,i,1,1,1,0,GridBagConstraints.CENTER,GridBagConstraints.NONE, new Insets(0,0,0,0),0,0));
+		}
 		
+		if (fields.size()>0) {
+			checkLast();
+		}
+
 		validate();
+		if (getParent()!=null && getParent().getParent()!=null) {
+			getParent().getParent().validate();
+		}
 	}
 	
 	public void setEntry(JournalEntry entry) {
@@ -102,24 +112,13 @@ public class IntervalFieldPanel extends JPanel implements JournalEntryListener {
 
 		if (this.entry!=null) {
 			this.entry.addJournalEntryListener(this);
-			removeAll();
 
-			Interval[] ii= entry.getIntervals();
-			
-			if (ii==null || ii.length==0) {
-			
+			if (entry.getIntervalCount()==0) {
 				int i= JournalTools.minutesOfDay();
 				addInterval(new Interval(i,i));
-			
 			} else {
-				
-				for (int i = 0; i < ii.length; i++) {
-					IntervalField f= new IntervalField(this,entry,i);
-					fields.add(f);
-					add(f, new GridBagConstraints(0,i,1,1,1,0,GridBagConstraints.CENTER,GridBagConstraints.NONE, new Insets(0,0,0,0),0,0));
-				}
+				rebuild();
 			}
-			checkLast();
 		}
 		validate();
 	}
@@ -133,19 +132,16 @@ public class IntervalFieldPanel extends JPanel implements JournalEntryListener {
 
 	@Override
 	public void journalEntryChanged(JournalEntryEvent e) {
-		// TODO Auto-generated method stub
-		
+		// fields update themselves
 	}
 
 	@Override
 	public void journalEntryIntervalAdded(JournalEntryEvent e) {
-		// TODO Auto-generated method stub
-		
+		rebuild();
 	}
 
 	@Override
 	public void journalEntryIntervalRemoved(JournalEntryEvent e) {
-		// TODO Auto-generated method stub
-		
+		rebuild();
 	}
 }
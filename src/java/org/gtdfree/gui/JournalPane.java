@@ -151,7 +151,9 @@ public class JournalPane extends JPanel {
 	
 	private void addNewjournalEntry() {
 		JournalEntry en= engine.getJournalModel().addEntry(day);
-		addEntry(en,true);
+		if (en!=null) {
+			addEntry(en,true);
+		}
 	}
 	
 	private void addEntry(JournalEntry en, boolean last) {
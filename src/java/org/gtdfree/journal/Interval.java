@@ -61,4 +61,30 @@ public class Interval implements Comparable<Interval> {
 		return end;
 	}
 	
+	/**
+	 * @return length of interval in minutes, 0 if it ends before it starts
+	 */
+	public int getDuration() {
+		return Math.max(0, end-start);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Interval)) {
+			return false;
+		}
+		Interval o= (Interval)obj;
+		return start==o.start && end==o.end;
+	}
+	
+	@Override
+	public int hashCode() {
+		return start*31+end;
+	}
+	
+	@Override
+	public String toString() {
+		return start+"-"+end;
+	}
+	
 }
@@ -19,11 +19,9 @@
 
 package org.gtdfree.journal;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import javax.swing.event.EventListenerList;
-
 import org.gtdfree.model.Action;
 
 /**
@@ -32,13 +30,17 @@ import org.gtdfree.model.Action;
  */
 public class JournalEntry {
 	
+	private static final int[] EMPTY= new int[0];
+	
 	private int id;
 	private long day;
 	private String comment;
-	private List<Interval> intervals= new ArrayList<Interval>();
+	// sorted, not overlapping intervals, start and end of each one after another
+	private int[] intervals= EMPTY;
+	private int intervalCount;
 	private List<Action> actions;
 	private boolean checked=false;
-	private EventListenerList listeners= new EventListenerList();
+	private volatile JournalEntryListener[] listeners= new JournalEntryListener[0];
 	
 	public JournalEntry(int id) {
 		this.id=id;
@@ -90,17 +92,110 @@ public class JournalEntry {
 	}
 	
 	/**
-	 * @return the intervals
+	 * @return copy of intervals, sorted by start
 	 */
 	public Interval[] getIntervals() {
-		return intervals.toArray(new Interval[intervals.size()]);
+		Interval[] ii= new Interval[intervalCount];
+		for (int i = 0; i < ii.length; i++) {
+			ii[i]= getInterval(i);
+		}
+		return ii;
 	}
 	
 	/**
 	 * @return the intervals
 	 */
 	public int getIntervalCount() {
-		return intervals.size();
+		return intervalCount;
+	}
+	
+	/**
+	 * @return start of interval at index in minutes of day
+	 */
+	public int getIntervalStart(int index) {
+		checkIndex(index);
+		return intervals[index*2];
+	}
+	
+	/**
+	 * @return end of interval at index in minutes of day
+	 */
+	public int getIntervalEnd(int index) {
+		checkIndex(index);
+		return intervals[index*2+1];
+	}
+	
+	private void checkIndex(int index) {
+		if (index<0 || index>=intervalCount) {
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+intervalCount);
+		}
+	}
+	
+	/**
+	 * @return sum of lengths of intervals in minutes
+	 */
+	public int getDuration() {
+		int d=0;
+		for (int i = 0; i < intervalCount*2; i+=2) {
+			d+= intervals[i+1]-intervals[i];
+		}
+		return d;
+	}
+	
+	/**
+	 * @return <code>true</code> if minute of day is within one of intervals, start inclusive, end exclusive
+	 */
+	public boolean isTracked(int minute) {
+		int i= firstEndingAfter(minute);
+		return i<intervalCount && intervals[i*2]<=minute && minute<intervals[i*2+1];
+	}
+	
+	/**
+	 * @return index of first interval, which ends after minute
+	 */
+	private int firstEndingAfter(int minute) {
+		int lo= 0;
+		int hi= intervalCount;
+		while (lo<hi) {
+			int mid= (lo+hi)>>>1;
+			if (intervals[mid*2+1]<=minute) {
+				lo=mid+1;
+			} else {
+				hi=mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @return index of first interval, which does not start before minute
+	 */
+	private int firstStartingFrom(int minute) {
+		int lo= 0;
+		int hi= intervalCount;
+		while (lo<hi) {
+			int mid= (lo+hi)>>>1;
+			if (intervals[mid*2]<minute) {
+				lo=mid+1;
+			} else {
+				hi=mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @return index of interval with same start and end or -1
+	 */
+	private int indexOf(int start, int end) {
+		int i= firstEndingAfter(end-1);
+		while (i<intervalCount && intervals[i*2+1]==end) {
+			if (intervals[i*2]==start) {
+				return i;
+			}
+			i++;
+		}
+		return -1;
 	}
 
 	/**
@@ -114,7 +209,9 @@ public class JournalEntry {
 	 * @param actions the actions to set
 	 */
 	public void setActions(List<Action> actions) {
+		List<Action> old= this.actions;
 		this.actions = actions;
+		fireJournalEntryChanged("actions", actions, old);
 	}
 	
 	/**
@@ -135,61 +232,142 @@ public class JournalEntry {
 		fireJournalEntryChanged("checked", checked);
 	}
 	
-	public void addInterval(Interval interval) {
-		intervals.add(interval);
-		fireJournalEntryIntervalAdded(interval, intervals.size()-1);
+	/**
+	 * Adds interval in order by start. Interval, which overlaps other intervals, 
+	 * is merged with them into first of them, other intervals are removed. Intervals, which only touch, are not merged.
+	 * Interval, which ends before it starts, is turned around.
+	 * @return index of interval, which contains added interval
+	 */
+	public int addInterval(Interval interval) {
+		int start= Math.min(interval.getStart(), interval.getEnd());
+		int end= Math.max(interval.getStart(), interval.getEnd());
+		
+		// intervals from i to j-1 overlap new one
+		int i= firstEndingAfter(start);
+		int j= firstStartingFrom(end);
+		
+		if (j<=i) {
+			if (intervalCount*2==intervals.length) {
+				intervals= Arrays.copyOf(intervals, Math.max(4, intervals.length*2));
+			}
+			System.arraycopy(intervals, i*2, intervals, i*2+2, (intervalCount-i)*2);
+			intervals[i*2]=start;
+			intervals[i*2+1]=end;
+			intervalCount++;
+			fireJournalEntryIntervalAdded(new Interval(start, end), i);
+			return i;
+		}
+		
+		Interval old= getInterval(i);
+		start= Math.min(start, intervals[i*2]);
+		end= Math.max(end, intervals[(j-1)*2+1]);
+		for (int k = j-1; k > i; k--) {
+			Interval r= getInterval(k);
+			removeAt(k);
+			fireJournalEntryIntervalRemoved(r, k);
+		}
+		if (old.getStart()!=start || old.getEnd()!=end) {
+			intervals[i*2]=start;
+			intervals[i*2+1]=end;
+			fireJournalEntryChanged("intervals",new Interval(start, end),old,i);
+		}
+		return i;
+	}
+	
+	private void removeAt(int index) {
+		System.arraycopy(intervals, index*2+2, intervals, index*2, (intervalCount-index-1)*2);
+		intervalCount--;
 	}
 	
+	/**
+	 * Removes stored interval with same start and end, interval, which ends before it starts, 
+	 * is turned around as in {@link #addInterval(Interval)}. Interval, which is not stored, 
+	 * for example because it was merged with others when added, is silently ignored.
+	 */
 	public void removeInterval(Interval interval) {
-		int i= intervals.indexOf(interval);
-		intervals.remove(i);
-		fireJournalEntryIntervalRemoved(interval, i);
+		int start= Math.min(interval.getStart(), interval.getEnd());
+		int end= Math.max(interval.getStart(), interval.getEnd());
+		int i= indexOf(start, end);
+		if (i<0) {
+			return;
+		}
+		Interval r= getInterval(i);
+		removeAt(i);
+		fireJournalEntryIntervalRemoved(r, i);
 	}
 
+	/**
+	 * Replaces interval at index. When new interval stays at same position and does not 
+	 * overlap others, it is changed in place, otherwise old one is removed and new one added
+	 * with {@link #addInterval(Interval)}. If new interval is <code>null</code>, 
+	 * interval at index is removed.
+	 */
 	public void setInterval(int index, Interval interval) {
-		Interval i= intervals.get(index);
-		if ((interval!=null && interval.equals(i)) || interval==null&&i==null) {
+		Interval i= getInterval(index);
+		if (interval==null) {
+			removeAt(index);
+			fireJournalEntryIntervalRemoved(i, index);
 			return;
 		}
-		intervals.set(index, interval);
-		fireJournalEntryChanged(new JournalEntryEvent(this,"intervals",interval,i,index));
-	}
-	
-	public void addJournalEntryListener(JournalEntryListener l) {
-		listeners.add(JournalEntryListener.class, l);
-	}
-
-	public void removeJournalEntryListener(JournalEntryListener l) {
-		listeners.remove(JournalEntryListener.class, l);
+		if (i.equals(interval)) {
+			return;
+		}
+		int start= interval.getStart();
+		int end= interval.getEnd();
+		boolean inPlace= start<=end 
+			&& (index==0 || intervals[index*2-1]<=start) 
+			&& (index==intervalCount-1 || end<=intervals[index*2+2]);
+		if (inPlace) {
+			intervals[index*2]=start;
+			intervals[index*2+1]=end;
+			fireJournalEntryChanged("intervals",interval,i,index);
+			return;
+		}
+		removeAt(index);
+		fireJournalEntryIntervalRemoved(i, index);
+		addInterval(interval);
 	}
 	
-	private void fireJournalEntryChanged(JournalEntryEvent e) {
-		if (e.getNewValue()==e.getOldValue()) {
+	public synchronized void addJournalEntryListener(JournalEntryListener l) {
+		if (l==null) {
 			return;
 		}
-		
-		JournalEntryListener[] l= listeners.getListeners(JournalEntryListener.class);
-		
-		for (int i = 0; i < l.length; i++) {
-			l[i].journalEntryChanged(e);
+		JournalEntryListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+		ll[ll.length-1]=l;
+		listeners=ll;
+	}
+
+	public synchronized void removeJournalEntryListener(JournalEntryListener l) {
+		for (int i = listeners.length-1; i >= 0; i--) {
+			if (listeners[i]==l) {
+				JournalEntryListener[] ll= new JournalEntryListener[listeners.length-1];
+				System.arraycopy(listeners, 0, ll, 0, i);
+				System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+				listeners=ll;
+				return;
+			}
 		}
 	}
 	
 	private void fireJournalEntryIntervalAdded(Interval it, int ix) {
+		JournalEntryListener[] l= listeners;
+		if (l.length==0) {
+			return;
+		}
 		JournalEntryEvent e= new JournalEntryEvent(this,"intervals",it,null,ix);
 		
-		JournalEntryListener[] l= listeners.getListeners(JournalEntryListener.class);
-		
 		for (int i = 0; i < l.length; i++) {
 			l[i].journalEntryIntervalAdded(e);
 		}
 	}
 
 	private void fireJournalEntryIntervalRemoved(Interval it, int ix) {
+		JournalEntryListener[] l= listeners;
+		if (l.length==0) {
+			return;
+		}
 		JournalEntryEvent e= new JournalEntryEvent(this,"intervals",null,it,ix);
 		
-		JournalEntryListener[] l= listeners.getListeners(JournalEntryListener.class);
-		
 		for (int i = 0; i < l.length; i++) {
 			l[i].journalEntryIntervalRemoved(e);
 		}
@@ -197,15 +375,46 @@ public class JournalEntry {
 
 
 	private void fireJournalEntryChanged(String prop, Object newValue, Object oldValue) {
-		fireJournalEntryChanged(new JournalEntryEvent(this,prop,newValue,oldValue,-1));
+		fireJournalEntryChanged(prop, newValue, oldValue, -1);
+	}
+
+	private void fireJournalEntryChanged(String prop, Object newValue, Object oldValue, int index) {
+		if (newValue==oldValue) {
+			return;
+		}
+		
+		JournalEntryListener[] l= listeners;
+		if (l.length==0) {
+			return;
+		}
+		JournalEntryEvent e= new JournalEntryEvent(this,prop,newValue,oldValue,index);
+		
+		for (int i = 0; i < l.length; i++) {
+			l[i].journalEntryChanged(e);
+		}
 	}
 	
+	private void fireJournalEntryChanged(String prop, long newValue, long oldValue) {
+		if (listeners.length==0) {
+			return;
+		}
+		fireJournalEntryChanged(prop,(Long)newValue,(Long)oldValue);
+	}
+
 	private void fireJournalEntryChanged(String prop, boolean b) {
-		fireJournalEntryChanged(new JournalEntryEvent(this,prop,b,!b,-1));
+		if (listeners.length==0) {
+			return;
+		}
+		fireJournalEntryChanged(prop,b,!b);
 	}
 
+	/**
+	 * @return new interval object with values of interval at index, 
+	 * use {@link #getIntervalStart(int)} and {@link #getIntervalEnd(int)} to read intervals without allocation
+	 */
 	public Interval getInterval(int index) {
-		return intervals.get(index);
+		checkIndex(index);
+		return new Interval(intervals[index*2], intervals[index*2+1]);
 	}
 
 }
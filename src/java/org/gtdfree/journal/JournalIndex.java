@@ -0,0 +1,247 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.journal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gtdfree.model.Action;
+import org.gtdfree.model.GTDModel;
+
+/**
+ * Ordered index of journal days with minutes worked, total and per action. Index remembers what 
+ * each entry contributed, so it is updated by replacing contribution of changed entry.
+ * <p>
+ * Index also keeps entries of each action and all time totals of actions and projects, 
+ * action counts to project, in which it currently is.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+final class JournalIndex {
+
+	/**
+	 * Minutes, which entry added to index.
+	 */
+	private static final class Contribution {
+		final long day;
+		final long minutes;
+		final int[] actions;
+
+		Contribution(JournalEntry e) {
+			day= e.getDay();
+			minutes= e.getDuration();
+			List<Action> l= e.getActions();
+			actions= new int[l!=null ? l.size() : 0];
+			for (int i = 0; i < actions.length; i++) {
+				actions[i]= l.get(i).getId();
+			}
+		}
+
+		Contribution(JournalEntry e, int[] actions) {
+			day= e.getDay();
+			minutes= e.getDuration();
+			this.actions= actions;
+		}
+	}
+
+	/**
+	 * All time minutes and entries of one action.
+	 */
+	private static final class ActionTotal {
+		long minutes;
+		Integer project;
+		final Set<Integer> entries= new LinkedHashSet<Integer>();
+	}
+
+	private final PrefixSums days= new PrefixSums();
+	private final Map<Integer, ActionTotal> byActionTotal= new HashMap<Integer, ActionTotal>();
+	private final Map<Integer, long[]> byProject= new HashMap<Integer, long[]>();
+	private final Map<Integer, PrefixSums> byAction= new HashMap<Integer, PrefixSums>();
+	private final Map<Integer, Contribution> entries= new HashMap<Integer, Contribution>();
+
+	/**
+	 * Replaces contribution of entry with its current state.
+	 */
+	public void update(JournalEntry e) {
+		Contribution c= new Contribution(e);
+		add(e.getId(), c);
+		List<Action> l= e.getActions();
+		for (int i = 0; i < c.actions.length; i++) {
+			setProject(c.actions[i], l.get(i).getProject());
+		}
+	}
+
+	/**
+	 * Replaces contribution of entry, which was read without its actions. 
+	 * Actions count to no project until {@link #resolveProjects(GTDModel)}.
+	 * @param actions IDs of entry actions
+	 */
+	public void update(JournalEntry e, int[] actions) {
+		add(e.getId(), new Contribution(e, actions));
+	}
+
+	/**
+	 * Sets project of each indexed action from model, must be called where model is changed.
+	 */
+	public void resolveProjects(GTDModel m) {
+		for (Map.Entry<Integer, ActionTotal> e : byActionTotal.entrySet()) {
+			Action a= m.getAction(e.getKey());
+			setProject(e.getKey(), a!=null ? a.getProject() : null);
+		}
+	}
+
+	private void add(int entryID, Contribution c) {
+		remove(entryID);
+		entries.put(entryID, c);
+		days.add(c.day, c.minutes);
+		for (int id : c.actions) {
+			PrefixSums s= byAction.get(id);
+			if (s==null) {
+				s= new PrefixSums();
+				byAction.put(id, s);
+			}
+			s.add(c.day, c.minutes);
+		}
+		for (int i = 0; i < c.actions.length; i++) {
+			ActionTotal t= getTotal(c.actions[i]);
+			t.minutes+=c.minutes;
+			t.entries.add(entryID);
+			addProject(t.project, c.minutes);
+		}
+	}
+	
+	private ActionTotal getTotal(int action) {
+		ActionTotal t= byActionTotal.get(action);
+		if (t==null) {
+			t= new ActionTotal();
+			byActionTotal.put(action, t);
+		}
+		return t;
+	}
+	
+	private void addProject(Integer project, long minutes) {
+		if (project==null) {
+			return;
+		}
+		long[] m= byProject.get(project);
+		if (m==null) {
+			m= new long[1];
+			byProject.put(project, m);
+		}
+		m[0]+=minutes;
+	}
+	
+	/**
+	 * Moves all time minutes of action to project, in which action is now.
+	 */
+	public void setProject(int action, Integer project) {
+		ActionTotal t= byActionTotal.get(action);
+		if (t==null || (project==null ? t.project==null : project.equals(t.project))) {
+			return;
+		}
+		addProject(t.project, -t.minutes);
+		t.project=project;
+		addProject(t.project, t.minutes);
+	}
+
+	public void remove(int entryID) {
+		Contribution c= entries.remove(entryID);
+		if (c==null) {
+			return;
+		}
+		days.add(c.day, -c.minutes);
+		for (int id : c.actions) {
+			byAction.get(id).add(c.day, -c.minutes);
+			ActionTotal t= byActionTotal.get(id);
+			t.minutes-=c.minutes;
+			t.entries.remove(entryID);
+			addProject(t.project, -c.minutes);
+		}
+	}
+
+	/**
+	 * @return minutes in days from first day inclusive to last day exclusive
+	 */
+	public long getMinutes(long from, long to) {
+		return days.sum(from, to);
+	}
+
+	/**
+	 * @return minutes of entries with action in days from first day inclusive to last day exclusive
+	 */
+	public long getActionMinutes(int action, long from, long to) {
+		PrefixSums s= byAction.get(action);
+		return s!=null ? s.sum(from, to) : 0;
+	}
+
+	/**
+	 * @return all time minutes of entries with action
+	 */
+	public long getActionTotal(int action) {
+		ActionTotal t= byActionTotal.get(action);
+		return t!=null ? t.minutes : 0;
+	}
+
+	/**
+	 * @return all time minutes of entries with actions, which are in project
+	 */
+	public long getProjectTotal(int project) {
+		long[] m= byProject.get(project);
+		return m!=null ? m[0] : 0;
+	}
+
+	/**
+	 * @return IDs of entries with action, in order in which they were indexed
+	 */
+	public int[] getEntryIDs(int action) {
+		ActionTotal t= byActionTotal.get(action);
+		if (t==null) {
+			return new int[0];
+		}
+		int[] ids= new int[t.entries.size()];
+		int i=0;
+		for (Iterator<Integer> it = t.entries.iterator(); it.hasNext();) {
+			ids[i++]= it.next();
+		}
+		return ids;
+	}
+
+	/**
+	 * @return day of indexed entry or {@link Long#MIN_VALUE} if entry is not in index
+	 */
+	public long getDay(int entryID) {
+		Contribution c= entries.get(entryID);
+		return c!=null ? c.day : Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return days with entries in range
+	 */
+	public long[] getDays(long from, long to) {
+		return days.days(from, to);
+	}
+
+}
@@ -19,12 +19,22 @@
 
 package org.gtdfree.journal;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
-import javax.swing.event.EventListenerList;
+import javax.swing.SwingUtilities;
+
+import org.gtdfree.model.Action;
+import org.gtdfree.model.ActionEvent;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.GTDModelAdapter;
+import org.gtdfree.model.Project;
 
 /**
  * @author ikesan
@@ -36,7 +46,9 @@ public class JournalModel {
 		
 		@Override
 		public void journalEntryIntervalRemoved(JournalEntryEvent e) {
-			JournalModelListener[] l= listeners.getListeners(JournalModelListener.class);
+			store(e.getJournalEntry());
+			index(e.getJournalEntry());
+			JournalModelListener[] l= listeners;
 			
 			for (int i = 0; i < l.length; i++) {
 				l[i].journalEntryIntervalRemoved(e);
@@ -45,7 +57,9 @@ public class JournalModel {
 	
 		@Override
 		public void journalEntryIntervalAdded(JournalEntryEvent e) {
-			JournalModelListener[] l= listeners.getListeners(JournalModelListener.class);
+			store(e.getJournalEntry());
+			index(e.getJournalEntry());
+			JournalModelListener[] l= listeners;
 			
 			for (int i = 0; i < l.length; i++) {
 				l[i].journalEntryIntervalAdded(e);
@@ -54,7 +68,14 @@ public class JournalModel {
 	
 		@Override
 		public void journalEntryChanged(JournalEntryEvent e) {
-			JournalModelListener[] l= listeners.getListeners(JournalModelListener.class);
+			if ("day".equals(e.getProperty())) {
+				moved(e.getJournalEntry(), (Long)e.getOldValue());
+			}
+			store(e.getJournalEntry());
+			if ("intervals".equals(e.getProperty()) || "actions".equals(e.getProperty()) || "day".equals(e.getProperty())) {
+				index(e.getJournalEntry());
+			}
+			JournalModelListener[] l= listeners;
 			
 			for (int i = 0; i < l.length; i++) {
 				l[i].journalEntryChanged(e);
@@ -63,7 +84,7 @@ public class JournalModel {
 	
 		@Override
 		public void journalEntryAdded(JournalEntryEvent e) {
-			JournalModelListener[] l= listeners.getListeners(JournalModelListener.class);
+			JournalModelListener[] l= listeners;
 			
 			for (int i = 0; i < l.length; i++) {
 				l[i].journalEntryAdded(e);
@@ -71,36 +92,136 @@ public class JournalModel {
 		}
 
 		public void journalEntryAdded(JournalEntry je) {
+			if (listeners.length==0) {
+				return;
+			}
 			JournalEntryEvent e= new JournalEntryEvent(je,"entries",je,null,-1); 
 			journalEntryAdded(e);
 		}
 	};
 
 	
+	/**
+	 * Default number of days, which are kept in memory, when model has store.
+	 */
+	public static final int DEFAULT_MAX_RESIDENT_DAYS= 62;
+	
 	private int lastEntryID=0; 
 	private Map<Long,List<JournalEntry>> data;
-	private EventListenerList listeners= new EventListenerList();
+	private volatile JournalModelListener[] listeners= new JournalModelListener[0];
 	private EventHandler eventHandler= new EventHandler();
+	private JournalStore store;
+	private int maxResidentDays= DEFAULT_MAX_RESIDENT_DAYS;
+	private JournalIndex index;
+	// entries changed while index is built in background, null when it is not being built
+	private List<JournalEntry> changedWhileIndexing;
+	private List<Runnable> indexCallbacks;
+	private GTDModel gtdModel;
+	private GTDModelAdapter projectHandler= new GTDModelAdapter() {
+		@Override
+		public void elementModified(ActionEvent a) {
+			if (index!=null && Action.PROJECT_PROPERTY_NAME.equals(a.getProperty())) {
+				index.setProject(a.getAction().getId(), a.getAction().getProject());
+			}
+		}
+	};
 
+	/**
+	 * Creates model, which keeps entries only in memory.
+	 */
 	public JournalModel() {
-		data= new HashMap<Long, List<JournalEntry>>();
+		data= new TreeMap<Long, List<JournalEntry>>();
+	}
+	
+	/**
+	 * Creates model, which stores each change to store and loads days from store, when first asked for.
+	 * Only recently used days are kept in memory.
+	 */
+	public JournalModel(JournalStore store) {
+		this.store=store;
+		data= new LinkedHashMap<Long, List<JournalEntry>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, List<JournalEntry>> eldest) {
+				return size()>maxResidentDays;
+			}
+		};
+	}
+	
+	public JournalStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * Sets model with actions, which are listed by entries. Project totals follow actions, 
+	 * which are moved to other project in this model.
+	 */
+	public void setGTDModel(GTDModel m) {
+		if (gtdModel!=null) {
+			gtdModel.removeGTDModelListener(projectHandler);
+		}
+		gtdModel=m;
+		if (gtdModel!=null) {
+			gtdModel.addGTDModelListener(projectHandler);
+		}
+	}
+	
+	public GTDModel getGTDModel() {
+		return gtdModel;
 	}
 	
 	public JournalEntry[] getEntries(long day) {
-		List<JournalEntry> l= data.get(day);
+		List<JournalEntry> l= getDay(day);
 		
-		if (l!=null) {
+		if (l!=null && l.size()>0) {
 			return l.toArray(new JournalEntry[l.size()]);
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * Returns entries of day, loads them from store if day is not in memory.
+	 */
+	private List<JournalEntry> getDay(long day) {
+		List<JournalEntry> l= data.get(day);
+		if (l==null && store!=null) {
+			try {
+				l= store.load(day);
+			} catch (IOException e) {
+				e.printStackTrace();
+				l= new ArrayList<JournalEntry>();
+			}
+			for (JournalEntry e : l) {
+				e.addJournalEntryListener(eventHandler);
+			}
+			data.put(day, l);
+		}
+		return l;
+	}
+	
+	/**
+	 * Adds new entry to day.
+	 * @return new entry or <code>null</code> if store could not reserve ID for it
+	 */
 	public JournalEntry addEntry(long day) {
 		
-		JournalEntry e= new JournalEntry(lastEntryID++);
+		int id;
+		if (store!=null) {
+			try {
+				id= store.nextEntryID();
+			} catch (IOException e) {
+				// ID, which is not stored, could be given again after restart and replace other entry
+				e.printStackTrace();
+				return null;
+			}
+		} else {
+			id= lastEntryID++;
+		}
+		JournalEntry e= new JournalEntry(id);
+		e.setDay(day);
 		
-		List<JournalEntry> l= data.get(day);
+		List<JournalEntry> l= getDay(day);
 		if (l==null) {
 			l= new ArrayList<JournalEntry>();
 			data.put(day, l);
@@ -108,17 +229,326 @@ public class JournalModel {
 		l.add(e);
 		
 		e.addJournalEntryListener(eventHandler);
+		store(e);
+		index(e);
 		eventHandler.journalEntryAdded(e);
 		
 		return e;		
 	}
 	
-	public void addJournalModelListener(JournalModelListener l) {
-		listeners.add(JournalModelListener.class, l);
+	private void store(JournalEntry e) {
+		if (store==null) {
+			return;
+		}
+		try {
+			store.append(e);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+	
+	private void index(JournalEntry e) {
+		if (index!=null) {
+			index.update(e);
+		} else if (changedWhileIndexing!=null) {
+			changedWhileIndexing.add(e);
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if index is built and totals are returned without reading store
+	 */
+	public boolean isIndexReady() {
+		return index!=null;
+	}
+	
+	/**
+	 * Builds index on background thread, if it is not built yet, and runs callback when 
+	 * index is ready. Store is read in background, actions of entries are looked up 
+	 * on event dispatch thread, where journal and model are changed and where this must be called. 
+	 * Entries changed meanwhile are indexed again when index is ready.
+	 * @param ready called on event dispatch thread when index is ready, may be <code>null</code>
+	 */
+	public void buildIndexLater(Runnable ready) {
+		if (index!=null || store==null) {
+			// memory only journal is indexed quickly
+			getIndex();
+			if (ready!=null) {
+				ready.run();
+			}
+			return;
+		}
+		if (changedWhileIndexing!=null) {
+			if (ready!=null) {
+				indexCallbacks.add(ready);
+			}
+			return;
+		}
+		changedWhileIndexing= new ArrayList<JournalEntry>();
+		indexCallbacks= new ArrayList<Runnable>();
+		if (ready!=null) {
+			indexCallbacks.add(ready);
+		}
+		
+		Thread t= new Thread("GTD-Free journal index") {
+			@Override
+			public void run() {
+				final JournalIndex ix= new JournalIndex();
+				Map<Integer, int[]> actions= new HashMap<Integer, int[]>();
+				for (long day : store.days()) {
+					actions.clear();
+					List<JournalEntry> l;
+					try {
+						l= store.loadUnresolved(day, actions);
+					} catch (IOException e) {
+						e.printStackTrace();
+						continue;
+					}
+					for (JournalEntry e : l) {
+						ix.update(e, actions.get(e.getId()));
+					}
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						indexBuilt(ix);
+					}
+				});
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	private void indexBuilt(JournalIndex ix) {
+		List<JournalEntry> changed= changedWhileIndexing;
+		List<Runnable> callbacks= indexCallbacks;
+		changedWhileIndexing=null;
+		indexCallbacks=null;
+		if (index==null) {
+			if (gtdModel!=null) {
+				ix.resolveProjects(gtdModel);
+			}
+			for (JournalEntry e : changed) {
+				ix.update(e);
+			}
+			index=ix;
+		}
+		for (Runnable r : callbacks) {
+			try {
+				r.run();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
-	public void removeJournalModelListener(JournalModelListener l) {
-		listeners.remove(JournalModelListener.class, l);
+	/**
+	 * Returns index of all days, it is built when first needed, from store if model has one.
+	 * Use {@link #buildIndexLater(Runnable)} where reading whole store is too slow.
+	 */
+	private JournalIndex getIndex() {
+		if (index==null) {
+			JournalIndex ix= new JournalIndex();
+			if (store==null) {
+				for (List<JournalEntry> l : data.values()) {
+					for (JournalEntry e : l) {
+						ix.update(e);
+					}
+				}
+			} else {
+				for (long day : store.days()) {
+					// days, which are not in memory, are read without making them resident
+					List<JournalEntry> l= data.containsKey(day) ? data.get(day) : null;
+					if (l==null) {
+						try {
+							l= store.load(day);
+						} catch (IOException e) {
+							e.printStackTrace();
+							continue;
+						}
+					}
+					for (JournalEntry e : l) {
+						ix.update(e);
+					}
+				}
+			}
+			index=ix;
+		}
+		return index;
+	}
+	
+	/**
+	 * @return minutes in journal intervals in days from first day inclusive to last day exclusive
+	 */
+	public long getMinutes(long fromDay, long toDay) {
+		return getIndex().getMinutes(fromDay, toDay);
+	}
+	
+	/**
+	 * @return minutes in journal intervals of day
+	 */
+	public long getDayMinutes(long day) {
+		return getMinutes(day, day+1);
+	}
+	
+	/**
+	 * @return minutes in journal intervals of week, in which day is
+	 */
+	public long getWeekMinutes(long day) {
+		long first= JournalTools.firstDayOfWeek(day);
+		return getMinutes(first, first+7);
+	}
+	
+	/**
+	 * @return minutes in journal intervals of month, in which day is
+	 */
+	public long getMonthMinutes(long day) {
+		return getMinutes(JournalTools.firstDayOfMonth(day), JournalTools.firstDayOfNextMonth(day));
+	}
+	
+	/**
+	 * Returns minutes of entries, which list action. Entry with more actions counts whole to each of them.
+	 * @return minutes in days from first day inclusive to last day exclusive
+	 */
+	public long getActionMinutes(Action a, long fromDay, long toDay) {
+		return getIndex().getActionMinutes(a.getId(), fromDay, toDay);
+	}
+	
+	/**
+	 * Returns minutes of entries, which list actions, which are currently in project. 
+	 * Entry with more actions of same project counts once for each of them.
+	 * @return minutes in days from first day inclusive to last day exclusive
+	 */
+	public long getProjectMinutes(Project p, long fromDay, long toDay) {
+		JournalIndex ix= getIndex();
+		long m=0;
+		Action[] aa= p.actions();
+		for (int i = 0; i < aa.length; i++) {
+			m+= ix.getActionMinutes(aa[i].getId(), fromDay, toDay);
+		}
+		return m;
+	}
+	
+	/**
+	 * @return all time minutes of entries, which list action
+	 */
+	public long getActionTotalMinutes(Action a) {
+		return getIndex().getActionTotal(a.getId());
+	}
+	
+	/**
+	 * @return all time minutes of entries, which list actions currently in project, counted once for each action
+	 */
+	public long getProjectTotalMinutes(Project p) {
+		return getIndex().getProjectTotal(p.getId());
+	}
+	
+	/**
+	 * Returns entries, which list action, days of these entries are loaded from store if needed.
+	 * @return entries of action, empty array if there are none
+	 */
+	public JournalEntry[] getEntries(Action a) {
+		JournalIndex ix= getIndex();
+		int[] ids= ix.getEntryIDs(a.getId());
+		List<JournalEntry> r= new ArrayList<JournalEntry>(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			List<JournalEntry> l= getDay(ix.getDay(ids[i]));
+			if (l==null) {
+				continue;
+			}
+			for (JournalEntry e : l) {
+				if (e.getId()==ids[i]) {
+					r.add(e);
+					break;
+				}
+			}
+		}
+		return r.toArray(new JournalEntry[r.size()]);
+	}
+	
+	/**
+	 * @return days, which have or had journal entries, in range from first day inclusive to last day exclusive, in ascending order
+	 */
+	public long[] getDays(long fromDay, long toDay) {
+		return getIndex().getDays(fromDay, toDay);
+	}
+	
+	/**
+	 * Moves entry, which changed day, to list of new day.
+	 */
+	private void moved(JournalEntry e, long oldDay) {
+		List<JournalEntry> l= data.get(oldDay);
+		if (l!=null) {
+			l.remove(e);
+		}
+		if (store!=null) {
+			try {
+				store.remove(oldDay, e.getId());
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+		l= getDay(e.getDay());
+		if (l==null) {
+			l= new ArrayList<JournalEntry>();
+			data.put(e.getDay(), l);
+		}
+		if (!l.contains(e)) {
+			l.add(e);
+		}
+	}
+	
+	/**
+	 * @param days maximal number of days kept in memory, when model has store
+	 */
+	public void setMaxResidentDays(int days) {
+		maxResidentDays= Math.max(1, days);
+	}
+	
+	public int getMaxResidentDays() {
+		return maxResidentDays;
+	}
+	
+	/**
+	 * @return <code>true</code> if entries of day are in memory
+	 */
+	public boolean isResident(long day) {
+		return data.containsKey(day);
+	}
+	
+	/**
+	 * Closes store, if model has one.
+	 */
+	public void close() {
+		setGTDModel(null);
+		if (store!=null) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	public synchronized void addJournalModelListener(JournalModelListener l) {
+		if (l==null) {
+			return;
+		}
+		JournalModelListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+		ll[ll.length-1]=l;
+		listeners=ll;
+	}
+	
+	public synchronized void removeJournalModelListener(JournalModelListener l) {
+		for (int i = listeners.length-1; i >= 0; i--) {
+			if (listeners[i]==l) {
+				JournalModelListener[] ll= new JournalModelListener[listeners.length-1];
+				System.arraycopy(listeners, 0, ll, 0, i);
+				System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+				listeners=ll;
+				return;
+			}
+		}
 	}
 	
 	
@@ -0,0 +1,468 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gtdfree.model.Action;
+import org.gtdfree.model.GTDModel;
+
+/**
+ * Keeps journal entries in folder, one segment file per day, named by day number from {@link JournalTools#toDay(long)}.
+ * Each change of entry appends whole entry as record to segment of its day, entry moved to other day
+ * is marked removed in old segment. When segment is read, last record of each entry wins.
+ * Segment with many replaced records is rewritten when it is read.
+ *
+ * @author ikesan
+ *
+ */
+public class JournalStore {
+
+	public static final String SEGMENT_SUFFIX= ".journal";
+	public static final String ID_FILE_NAME= "journal.id";
+	/**
+	 * Suffix of file, which is written first, when file is replaced.
+	 */
+	public static final String TEMP_SUFFIX= ".tmp";
+
+	private static final byte ENTRY= 1;
+	private static final byte REMOVED= 2;
+
+	private static final int CHECKED= 1;
+	private static final int COMMENT= 2;
+
+	/**
+	 * Segment is rewritten when it has more than this many records per entry.
+	 */
+	private static final int MAX_RECORDS_PER_ENTRY= 4;
+
+	/**
+	 * Number of entry IDs reserved in ID file at once.
+	 */
+	private static final int ID_BLOCK= 64;
+
+	private final File folder;
+	private final GTDModel model;
+	private int lastEntryID;
+	// IDs below this are reserved in ID file
+	private int reservedEntryID;
+	private long openDay= Long.MIN_VALUE;
+	// days, which segment was checked for torn tail in this session, before appending to it
+	private final Set<Long> checkedDays= new HashSet<Long>();
+	private DataOutputStream out;
+	private final ByteArrayOutputStream record= new ByteArrayOutputStream(256);
+
+	/**
+	 * @param folder folder with segment files, created if it does not exist
+	 * @param model model, which resolves action IDs of loaded entries, may be <code>null</code>
+	 */
+	public JournalStore(File folder, GTDModel model) throws IOException {
+		this.folder=folder;
+		this.model=model;
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Failed to create journal folder '"+folder.getAbsolutePath()+"'.");
+		}
+		File f= new File(folder, ID_FILE_NAME);
+		ByteBuffer b= f.exists() ? ByteBuffer.wrap(read(f)) : null;
+		if (b!=null && b.remaining()>=4) {
+			lastEntryID= b.getInt();
+		} else {
+			// ID file is lost, IDs continue after ones used in segments
+			lastEntryID= maxEntryID()+1;
+		}
+		reservedEntryID= lastEntryID;
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	public File getSegmentFile(long day) {
+		return new File(folder, day+SEGMENT_SUFFIX);
+	}
+
+	private File getTempSegmentFile(long day) {
+		return new File(folder, day+SEGMENT_SUFFIX+TEMP_SUFFIX);
+	}
+
+	/**
+	 * Moves rewritten segment in place, if crash came after old segment was deleted, 
+	 * but before rewritten one replaced it.
+	 */
+	private void recover(long day) throws IOException {
+		File f= getSegmentFile(day);
+		File tmp= getTempSegmentFile(day);
+		if (!f.exists() && tmp.exists() && !tmp.renameTo(f)) {
+			throw new IOException("Failed to recover journal segment '"+f.getAbsolutePath()+"'.");
+		}
+	}
+
+	/**
+	 * Replaces file with its new version, written to temporary file. 
+	 * Rename replaces target at once where platform allows it, 
+	 * otherwise target is deleted first and temporary file is recovered, if rename does not follow.
+	 */
+	private static void replace(File tmp, File f) throws IOException {
+		if (!tmp.renameTo(f) && (!f.delete() || !tmp.renameTo(f))) {
+			throw new IOException("Failed to replace '"+f.getAbsolutePath()+"'.");
+		}
+	}
+
+	/**
+	 * @return days, which have segment file, in ascending order
+	 */
+	public synchronized long[] days() {
+		String[] names= folder.list();
+		long[] days= new long[names!=null ? names.length : 0];
+		int size=0;
+		for (int i = 0; i < days.length; i++) {
+			String n= names[i];
+			boolean temp= n.endsWith(SEGMENT_SUFFIX+TEMP_SUFFIX);
+			if (temp) {
+				n= n.substring(0, n.length()-TEMP_SUFFIX.length());
+			}
+			if (n.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					long day= Long.parseLong(n.substring(0, n.length()-SEGMENT_SUFFIX.length()));
+					if (temp) {
+						if (getSegmentFile(day).exists()) {
+							// listed by its segment
+							continue;
+						}
+						try {
+							recover(day);
+						} catch (IOException e) {
+							e.printStackTrace();
+							continue;
+						}
+					}
+					days[size]= day;
+					size++;
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		days= Arrays.copyOf(days, size);
+		Arrays.sort(days);
+		return days;
+	}
+
+	/**
+	 * Reserves new entry ID, which is not used by any entry in store. IDs are reserved
+	 * in ID file in blocks, file is replaced with new version, so crash never leaves it empty.
+	 * @throws IOException if ID can not be reserved, no ID is given then
+	 */
+	public synchronized int nextEntryID() throws IOException {
+		if (lastEntryID>=reservedEntryID) {
+			ByteBuffer b= ByteBuffer.allocate(4);
+			b.putInt(lastEntryID+ID_BLOCK);
+			File f= new File(folder, ID_FILE_NAME);
+			File tmp= new File(folder, ID_FILE_NAME+TEMP_SUFFIX);
+			FileOutputStream o= new FileOutputStream(tmp);
+			try {
+				o.write(b.array());
+				o.getChannel().force(false);
+			} finally {
+				o.close();
+			}
+			replace(tmp, f);
+			reservedEntryID= lastEntryID+ID_BLOCK;
+		}
+		return lastEntryID++;
+	}
+
+	/**
+	 * Reads all segments for highest entry ID.
+	 * @return highest entry ID or -1 if there are no entries
+	 */
+	private int maxEntryID() throws IOException {
+		int max=-1;
+		long[] days= days();
+		for (int i = 0; i < days.length; i++) {
+			ByteBuffer b= ByteBuffer.wrap(read(getSegmentFile(days[i])));
+			while (b.remaining()>=9) {
+				int len= b.getInt();
+				if (len<5 || len>b.remaining()) {
+					break;
+				}
+				int p= b.position();
+				b.get();
+				max= Math.max(max, b.getInt());
+				b.position(p+len);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Reads entries of one day, in order in which they were first stored.
+	 * @return entries, empty list if day has no entries
+	 */
+	public synchronized List<JournalEntry> load(long day) throws IOException {
+		return load(day, null);
+	}
+
+	/**
+	 * Reads entries of one day without looking up their actions in model, so it can be called 
+	 * on any thread. Returned entries have no actions, IDs of their actions are put to map 
+	 * under entry ID. Segment is not compacted.
+	 * @return entries, empty list if day has no entries
+	 */
+	public synchronized List<JournalEntry> loadUnresolved(long day, Map<Integer, int[]> actions) throws IOException {
+		return load(day, actions);
+	}
+
+	private List<JournalEntry> load(long day, Map<Integer, int[]> actions) throws IOException {
+		recover(day);
+		File f= getSegmentFile(day);
+		if (!f.exists()) {
+			return new ArrayList<JournalEntry>();
+		}
+		ByteBuffer b= ByteBuffer.wrap(read(f));
+		Map<Integer, JournalEntry> entries= new LinkedHashMap<Integer, JournalEntry>();
+		int records=0;
+		boolean truncated= false;
+		try {
+			while (b.remaining()>0) {
+				if (b.remaining()<4 || b.getInt()>b.remaining()) {
+					// last append was interrupted
+					truncated=true;
+					break;
+				}
+				records++;
+				byte type= b.get();
+				int id= b.getInt();
+				if (type==REMOVED) {
+					entries.remove(id);
+					if (actions!=null) {
+						actions.remove(id);
+					}
+					continue;
+				}
+				JournalEntry e= new JournalEntry(id);
+				e.setDay(day);
+				int flags= b.get();
+				e.setChecked((flags&CHECKED)!=0);
+				if ((flags&COMMENT)!=0) {
+					byte[] s= new byte[b.getInt()];
+					b.get(s);
+					e.setComment(new String(s, "UTF-8"));
+				}
+				int n= b.getInt();
+				for (int i = 0; i < n; i++) {
+					e.addInterval(new Interval(b.getInt(), b.getInt()));
+				}
+				n= b.getInt();
+				if (actions!=null) {
+					int[] ids= new int[Math.max(0, n)];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i]= b.getInt();
+					}
+					actions.put(id, ids);
+				} else if (n>=0) {
+					List<Action> l= new ArrayList<Action>(n);
+					for (int i = 0; i < n; i++) {
+						int aid= b.getInt();
+						Action a= model!=null ? model.getAction(aid) : null;
+						if (a!=null) {
+							l.add(a);
+						}
+					}
+					e.setActions(l);
+				}
+				// replaced entry keeps position of its first record
+				entries.put(id, e);
+			}
+		} catch (RuntimeException e) {
+			// broken record, such as negative length or underflow
+			throw new IOException("Journal segment '"+f.getAbsolutePath()+"' is corrupted: "+e, e);
+		}
+		List<JournalEntry> l= new ArrayList<JournalEntry>(entries.values());
+		if (actions==null && (truncated || records>MAX_RECORDS_PER_ENTRY*(l.size()+1))) {
+			compact(day, l);
+		}
+		return l;
+	}
+
+	/**
+	 * Appends current state of entry to segment of its day.
+	 */
+	public synchronized void append(JournalEntry e) throws IOException {
+		record.reset();
+		DataOutputStream d= new DataOutputStream(record);
+		encode(d, e);
+		write(e.getDay());
+	}
+
+	/**
+	 * Marks entry removed from day, when it is moved to other day.
+	 */
+	public synchronized void remove(long day, int id) throws IOException {
+		record.reset();
+		DataOutputStream d= new DataOutputStream(record);
+		d.writeByte(REMOVED);
+		d.writeInt(id);
+		write(day);
+	}
+
+	/**
+	 * Closes open segment file.
+	 */
+	public synchronized void close() throws IOException {
+		if (out!=null) {
+			out.close();
+			out=null;
+			openDay= Long.MIN_VALUE;
+		}
+	}
+
+	private void encode(DataOutputStream d, JournalEntry e) throws IOException {
+		d.writeByte(ENTRY);
+		d.writeInt(e.getId());
+		String c= e.getComment();
+		d.writeByte((e.isChecked() ? CHECKED : 0) | (c!=null ? COMMENT : 0));
+		if (c!=null) {
+			byte[] s= c.getBytes("UTF-8");
+			d.writeInt(s.length);
+			d.write(s);
+		}
+		d.writeInt(e.getIntervalCount());
+		for (int i = 0; i < e.getIntervalCount(); i++) {
+			d.writeInt(e.getIntervalStart(i));
+			d.writeInt(e.getIntervalEnd(i));
+		}
+		List<Action> l= e.getActions();
+		if (l==null) {
+			d.writeInt(-1);
+		} else {
+			d.writeInt(l.size());
+			for (Iterator<Action> it = l.iterator(); it.hasNext();) {
+				d.writeInt(it.next().getId());
+			}
+		}
+		d.flush();
+	}
+
+	/**
+	 * Writes prepared record to segment of day, segment stays open for following records.
+	 */
+	private void write(long day) throws IOException {
+		if (openDay!=day) {
+			close();
+			recover(day);
+			if (checkedDays.add(day)) {
+				cutTornTail(getSegmentFile(day));
+			}
+			out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSegmentFile(day), true)));
+			openDay=day;
+		}
+		out.writeInt(record.size());
+		record.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Cuts off incomplete record at end of segment, left by interrupted append, 
+	 * so new records are not appended behind it.
+	 */
+	private static void cutTornTail(File f) throws IOException {
+		if (!f.exists()) {
+			return;
+		}
+		RandomAccessFile raf= new RandomAccessFile(f, "rw");
+		try {
+			long length= raf.length();
+			long p=0;
+			while (p+4<=length) {
+				raf.seek(p);
+				int len= raf.readInt();
+				if (len<0 || p+4+len>length) {
+					break;
+				}
+				p+=4+len;
+			}
+			if (p<length) {
+				raf.setLength(p);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Rewrites segment with single record for each entry.
+	 */
+	private void compact(long day, List<JournalEntry> entries) throws IOException {
+		if (openDay==day) {
+			close();
+		}
+		File f= getSegmentFile(day);
+		File tmp= getTempSegmentFile(day);
+		DataOutputStream o= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			for (JournalEntry e : entries) {
+				record.reset();
+				DataOutputStream d= new DataOutputStream(record);
+				encode(d, e);
+				o.writeInt(record.size());
+				record.writeTo(o);
+			}
+		} finally {
+			o.close();
+		}
+		replace(tmp, f);
+	}
+
+	private static byte[] read(File f) throws IOException {
+		byte[] b= new byte[(int)f.length()];
+		FileInputStream in= new FileInputStream(f);
+		try {
+			int p=0;
+			while (p<b.length) {
+				int r= in.read(b, p, b.length-p);
+				if (r<0) {
+					break;
+				}
+				p+=r;
+			}
+		} finally {
+			in.close();
+		}
+		return b;
+	}
+
+}
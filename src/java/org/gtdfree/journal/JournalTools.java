@@ -22,6 +22,7 @@ package org.gtdfree.journal;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 /**
  * @author ikesan
@@ -49,9 +50,67 @@ public final class JournalTools {
 		return new Date(days*MILLIS_IN_DAY);
 	}
 
+	/**
+	 * @return first day of week, in which day is, by first day of week of default locale
+	 */
+	public static long firstDayOfWeek(long day) {
+		GregorianCalendar g= toCalendar(day);
+		int d= g.get(Calendar.DAY_OF_WEEK)-g.getFirstDayOfWeek();
+		if (d<0) {
+			d+=7;
+		}
+		return day-d;
+	}
+	
+	/**
+	 * @return first day of month, in which day is
+	 */
+	public static long firstDayOfMonth(long day) {
+		return day-toCalendar(day).get(Calendar.DAY_OF_MONTH)+1;
+	}
+	
+	/**
+	 * @return first day of month after month, in which day is
+	 */
+	public static long firstDayOfNextMonth(long day) {
+		GregorianCalendar g= toCalendar(day);
+		return day-g.get(Calendar.DAY_OF_MONTH)+1+g.getActualMaximum(Calendar.DAY_OF_MONTH);
+	}
+	
+	/**
+	 * @return first day of year, in which day is
+	 */
+	public static long firstDayOfYear(long day) {
+		return day-toCalendar(day).get(Calendar.DAY_OF_YEAR)+1;
+	}
+	
+	/**
+	 * Days are counted in UTC, so calendar for day is in UTC too.
+	 */
+	private static GregorianCalendar toCalendar(long day) {
+		GregorianCalendar g= new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		g.setTimeInMillis(day*MILLIS_IN_DAY);
+		return g;
+	}
+
 	public static int minutesOfDay() {
 		GregorianCalendar g= new GregorianCalendar();
 		return g.get(Calendar.HOUR_OF_DAY)*60+g.get(Calendar.MINUTE);
 	}
 	
+	/**
+	 * @return minutes as hours and minutes, for example 2:05
+	 */
+	public static String toHoursString(long minutes) {
+		StringBuilder sb= new StringBuilder(8);
+		sb.append(minutes/60);
+		sb.append(':');
+		long m= minutes%60;
+		if (m<10) {
+			sb.append('0');
+		}
+		sb.append(m);
+		return sb.toString();
+	}
+	
 }
@@ -0,0 +1,108 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.journal;
+
+import java.util.Arrays;
+
+/**
+ * Values by day, kept sorted by day with running sums, so sum over any range of days
+ * takes two binary searches. Adding value to day updates sums of all later days, 
+ * which is cheap, since there is at most one key for each day with journal entries.
+ *
+ * @author ikesan
+ *
+ */
+final class PrefixSums {
+
+	private long[] days= new long[16];
+	// sums[i] is sum of values of days[0..i]
+	private long[] sums= new long[16];
+	private int size;
+
+	/**
+	 * Adds delta to value of day.
+	 */
+	public void add(long day, long delta) {
+		int i= Arrays.binarySearch(days, 0, size, day);
+		if (i<0) {
+			i= -i-1;
+			if (size==days.length) {
+				days= Arrays.copyOf(days, size*2);
+				sums= Arrays.copyOf(sums, size*2);
+			}
+			System.arraycopy(days, i, days, i+1, size-i);
+			System.arraycopy(sums, i, sums, i+1, size-i);
+			days[i]=day;
+			sums[i]= i>0 ? sums[i-1] : 0;
+			size++;
+		}
+		for (int j = i; j < size; j++) {
+			sums[j]+=delta;
+		}
+	}
+
+	/**
+	 * @return sum of values of days from first day inclusive to last day exclusive
+	 */
+	public long sum(long from, long to) {
+		if (to<=from) {
+			return 0;
+		}
+		return sumBefore(to)-sumBefore(from);
+	}
+
+	/**
+	 * @return sum of values of all days before day
+	 */
+	private long sumBefore(long day) {
+		int i= Arrays.binarySearch(days, 0, size, day);
+		if (i<0) {
+			i= -i-1;
+		}
+		return i>0 ? sums[i-1] : 0;
+	}
+
+	/**
+	 * @return value of day
+	 */
+	public long get(long day) {
+		return sum(day, day+1);
+	}
+
+	/**
+	 * @return days with values in range, first day inclusive, last day exclusive, including days with value 0
+	 */
+	public long[] days(long from, long to) {
+		int i= Arrays.binarySearch(days, 0, size, from);
+		if (i<0) {
+			i= -i-1;
+		}
+		int j= Arrays.binarySearch(days, 0, size, to);
+		if (j<0) {
+			j= -j-1;
+		}
+		return i<j ? Arrays.copyOfRange(days, i, j) : new long[0];
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
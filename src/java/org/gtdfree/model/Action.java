@@ -19,16 +19,24 @@
 
 package org.gtdfree.model;
 
-import java.net.URL;
+import java.net.URI;
 import java.util.Date;
 
 public final class Action {
 	
+	public static final String DESCRIPTION_PROPERTY_NAME= "description";
 	public static final String RESOLUTION_PROPERTY_NAME= "resolution";
 	public static final String PROJECT_PROPERTY_NAME= "project";
 	public static final String QUEUED_PROPERTY_NAME= "queued";
 	public static final String REMIND_PROPERTY_NAME= "remind";
 	public static final String PRIORITY_PROPERTY_NAME= "priority";
+	public static final String START_PROPERTY_NAME= "start";
+	public static final String DUE_PROPERTY_NAME= "due";
+	
+	/**
+	 * Value of primitive date fields, which are not set.
+	 */
+	public static final long UNSET_DATE= Long.MIN_VALUE;
 
 	public enum ActionType {Mail,Phone,Meet,Read,Watch};
 	public static enum Resolution {
@@ -45,27 +53,73 @@ public final class Action {
 		}
 	};
 	
+	private static final Resolution[] RESOLUTIONS= Resolution.values();
+	private static final Priority[] PRIORITIES= Priority.values();
+	private static final ActionType[] TYPES= ActionType.values();
+
+	/*
+	 * Enum fields are stored in flags as ordinal+1, 0 stands for null.
+	 */
+	private static final int FIELD_MASK= 0x7;
+	private static final int RESOLUTION_SHIFT= 0;
+	private static final int PRIORITY_SHIFT= 3;
+	private static final int TYPE_SHIFT= 6;
+	private static final int QUEUED_FLAG= 1<<9;
+
 	private int id;
-	private Date created;
-	private Date resolved;
-	private String description;
-	private Resolution resolution = Resolution.OPEN;
+	private long created;
+	private long resolved= UNSET_DATE;
+	// String or MappedText, which is decoded on first access
+	private Object description;
 	private Folder folder;
-	private ActionType type;
-	private URL url;
-	private Date start;
-	private Date remind;
-	private Date due;
+	private URI url;
+	private long start= UNSET_DATE;
+	private long remind= UNSET_DATE;
+	private long due= UNSET_DATE;
 	private Integer project;
-	private boolean queued= false;
-	private Priority priority= Priority.None;
+	private int flags= ((Resolution.OPEN.ordinal()+1)<<RESOLUTION_SHIFT) | ((Priority.None.ordinal()+1)<<PRIORITY_SHIFT);
 	
 	public Action(int id, Date created, Date resolved, String description) {
+		this(id,toTime(created),toTime(resolved),description);
+	}
+	
+	public Action(int id, long created, long resolved, String description) {
 		this.id=id;
 		this.created=created;
 		this.resolved=resolved;
 		this.setDescription(description);
 	}
+
+	/**
+	 * Creates detached copy of action, which does not belong to any folder, for snapshot of model.
+	 */
+	Action copy() {
+		Action a= new Action(id,created,resolved,null);
+		a.description=description;
+		a.url=url;
+		a.start=start;
+		a.remind=remind;
+		a.due=due;
+		a.project=project;
+		a.flags=flags;
+		return a;
+	}
+
+	private static long toTime(Date d) {
+		return d==null ? UNSET_DATE : d.getTime();
+	}
+
+	private static Date toDate(long t) {
+		return t==UNSET_DATE ? null : new Date(t);
+	}
+
+	private int getField(int shift) {
+		return ((flags>>>shift)&FIELD_MASK)-1;
+	}
+
+	private void setField(int shift, Enum<?> e) {
+		flags= (flags & ~(FIELD_MASK<<shift)) | ((e==null ? 0 : e.ordinal()+1)<<shift);
+	}
 	
 	public boolean isOpen() {
 		return getResolution()==Resolution.OPEN;
@@ -84,6 +138,13 @@ public final class Action {
 	 * @return the created
 	 */
 	public Date getCreated() {
+		return toDate(created);
+	}
+
+	/**
+	 * @return the created time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public long getCreatedTime() {
 		return created;
 	}
 
@@ -100,15 +161,15 @@ public final class Action {
 	 * @param description the description to set
 	 */
 	public void setDescription(String description) {
-		if (description!=null && description.equals(this.description)) {
+		String old= getDescription();
+		if (description!=null && description.equals(old)) {
 			return;
 		}
-		if (this.description!=null && this.description.equals(description)) {
+		if (old!=null && old.equals(description)) {
 			return;
 		}
-		String old= this.description;
 		this.description = description;
-		if (folder!=null) folder.fireElementModified(this,"description",old,description);
+		if (folder!=null) folder.fireElementModified(this,DESCRIPTION_PROPERTY_NAME,old,description);
 	}
 
 
@@ -116,7 +177,21 @@ public final class Action {
 	 * @return the description
 	 */
 	public String getDescription() {
-		return description;
+		Object d= description;
+		if (d instanceof MappedText) {
+			String s= ((MappedText)d).decode();
+			description=s;
+			return s;
+		}
+		return (String)d;
+	}
+
+	/**
+	 * Sets description, which is decoded from mapped data file when first needed. 
+	 * Does not fire event, it is used only by loader before action is added to folder.
+	 */
+	void setMappedDescription(MappedText description) {
+		this.description = description;
 	}
 
 
@@ -124,25 +199,34 @@ public final class Action {
 	 * @param resolution the resolution to set
 	 */
 	public void setResolution(Resolution resolution) {
-		if (this.resolution==resolution) {
+		Resolution old= getResolution();
+		if (old==resolution) {
 			return;
 		}
-		Resolution old= this.resolution;
-		this.resolution = resolution;
-		if (resolved==null && !isOpen()) {
-			resolved= new Date();
+		setField(RESOLUTION_SHIFT, resolution);
+		if (resolved==UNSET_DATE && !isOpen()) {
+			resolved= System.currentTimeMillis();
 		} else if (isOpen()) {
-			resolved=null;
+			resolved=UNSET_DATE;
 		}
 		if (folder!=null) folder.fireElementModified(this,RESOLUTION_PROPERTY_NAME,old,resolution);
 	}
 
 
+	/**
+	 * Restores time of resolution, for example when replaying logged change.
+	 */
+	void setResolvedTime(long resolved) {
+		this.resolved= resolved;
+	}
+
+
 	/**
 	 * @return the resolution
 	 */
 	public Resolution getResolution() {
-		return resolution;
+		int i= getField(RESOLUTION_SHIFT);
+		return i<0 ? null : RESOLUTIONS[i];
 	}
 
 
@@ -150,6 +234,13 @@ public final class Action {
 	 * @return the resolved
 	 */
 	public Date getResolved() {
+		return toDate(resolved);
+	}
+
+	/**
+	 * @return the resolved time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public long getResolvedTime() {
 		return resolved;
 	}
 
@@ -157,6 +248,13 @@ public final class Action {
 	 * @return the start
 	 */
 	public Date getStart() {
+		return toDate(start);
+	}
+
+	/**
+	 * @return the start time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public long getStartTime() {
 		return start;
 	}
 
@@ -164,45 +262,53 @@ public final class Action {
 	 * @param start the start to set
 	 */
 	public void setStart(Date start) {
-		Date old= this.start;
+		setStartTime(toTime(start));
+	}
+
+	/**
+	 * @param start the start time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public void setStartTime(long start) {
+		long old= this.start;
 		this.start = start;
-		if (folder!=null) getFolder().fireElementModified(this,"start",old,start);
+		if (folder!=null) getFolder().fireElementModified(this,START_PROPERTY_NAME,toDate(old),toDate(start));
 	}
 
 	/**
 	 * @return the type
 	 */
 	public ActionType getType() {
-		return type;
+		int i= getField(TYPE_SHIFT);
+		return i<0 ? null : TYPES[i];
 	}
 
 	/**
 	 * @param type the type to set
 	 */
 	public void setType(ActionType type) {
-		if (this.type == type) {
+		ActionType old= getType();
+		if (old == type) {
 			return;
 		}
-		ActionType old= this.type;
-		this.type = type;
+		setField(TYPE_SHIFT, type);
 		if (folder!=null) getFolder().fireElementModified(this,"type",old,type);
 	}
 
 	/**
 	 * @return the url
 	 */
-	public URL getUrl() {
+	public URI getUrl() {
 		return url;
 	}
 
 	/**
 	 * @param url the url to set
 	 */
-	public void setUrl(URL url) {
+	public void setUrl(URI url) {
 		if ((this.url==null && url==null) || (this.url!=null && this.url.equals(url))) {
 			return;
 		}
-		URL old= this.url;
+		URI old= this.url;
 		this.url = url;
 		if (folder!=null) getFolder().fireElementModified(this,"url",old,url);
 	}
@@ -211,18 +317,19 @@ public final class Action {
 	 * @return the priority
 	 */
 	public Priority getPriority() {
-		return priority;
+		int i= getField(PRIORITY_SHIFT);
+		return i<0 ? null : PRIORITIES[i];
 	}
 
 	/**
 	 * @param priority the priority to set
 	 */
 	public void setPriority(Priority priority) {
-		if (this.priority == priority) {
+		Priority old= getPriority();
+		if (old == priority) {
 			return;
 		}
-		Priority old= this.priority;
-		this.priority = priority;
+		setField(PRIORITY_SHIFT, priority);
 		if (folder!=null) getFolder().fireElementModified(this,PRIORITY_PROPERTY_NAME,old,priority);
 
 	}
@@ -231,6 +338,13 @@ public final class Action {
 	 * @return the remind
 	 */
 	public Date getRemind() {
+		return toDate(remind);
+	}
+
+	/**
+	 * @return the remind time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public long getRemindTime() {
 		return remind;
 	}
 
@@ -238,15 +352,29 @@ public final class Action {
 	 * @param remind the remind to set
 	 */
 	public void setRemind(Date remind) {
-		Date old= this.remind;
+		setRemindTime(toTime(remind));
+	}
+
+	/**
+	 * @param remind the remind time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public void setRemindTime(long remind) {
+		long old= this.remind;
 		this.remind = remind;
-		if (folder!=null) getFolder().fireElementModified(this,REMIND_PROPERTY_NAME,old,remind);
+		if (folder!=null) getFolder().fireElementModified(this,REMIND_PROPERTY_NAME,toDate(old),toDate(remind));
 	}
 
 	/**
 	 * @return the due
 	 */
 	public Date getDue() {
+		return toDate(due);
+	}
+
+	/**
+	 * @return the due time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public long getDueTime() {
 		return due;
 	}
 
@@ -254,9 +382,16 @@ public final class Action {
 	 * @param due the due to set
 	 */
 	public void setDue(Date due) {
-		Date old= this.due;
+		setDueTime(toTime(due));
+	}
+
+	/**
+	 * @param due the due time in milliseconds, or {@link #UNSET_DATE}
+	 */
+	public void setDueTime(long due) {
+		long old= this.due;
 		this.due = due;
-		if (folder!=null) getFolder().fireElementModified(this,"due",old,due);
+		if (folder!=null) getFolder().fireElementModified(this,DUE_PROPERTY_NAME,toDate(old),toDate(due));
 	}
 
 	/**
@@ -287,7 +422,7 @@ public final class Action {
 		sb.append("Action={id=");
 		sb.append(id);
 		sb.append(",resolution=");
-		sb.append(resolution);
+		sb.append(getResolution());
 		sb.append("}");
 		return sb.toString();
 	}
@@ -316,11 +451,11 @@ public final class Action {
 	
 	public void copy(Action a) {
 		setDescription(a.getDescription());
-		setDue(a.getDue());
+		setDueTime(a.getDueTime());
 		setPriority(a.getPriority());
-		setRemind(a.getRemind());
+		setRemindTime(a.getRemindTime());
 		setResolution(a.getResolution());
-		setStart(a.getStart());
+		setStartTime(a.getStartTime());
 		setType(a.getType());
 		setUrl(a.getUrl());
 		setQueued(a.isQueued());
@@ -330,22 +465,26 @@ public final class Action {
 	 * @return the queued
 	 */
 	public boolean isQueued() {
-		return queued;
+		return (flags & QUEUED_FLAG)!=0;
 	}
 
 	/**
 	 * @param queued the queued to set
 	 */
 	public void setQueued(boolean queued) {
-		this.queued = queued;
+		if (queued) {
+			flags|=QUEUED_FLAG;
+		} else {
+			flags&=~QUEUED_FLAG;
+		}
 		if (folder!=null) getFolder().fireElementModified(this,QUEUED_PROPERTY_NAME,!queued,queued);
 	}
 
 	public boolean isResolved() {
-		return resolution==Resolution.RESOLVED;
+		return getResolution()==Resolution.RESOLVED;
 	}
 
 	public boolean isDeleted() {
-		return resolution==Resolution.DELETED;
+		return getResolution()==Resolution.DELETED;
 	}
 }
@@ -0,0 +1,137 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+/**
+ * Maps action ID to action. Open addressing hash table with primitive int keys,
+ * so lookup does not box IDs and does not depend on number of folders.
+ *
+ * @author ikesan
+ *
+ */
+final class ActionIndex {
+
+	private static final int DEFAULT_CAPACITY= 256;
+
+	private int[] keys;
+	private Action[] values;
+	private int mask;
+	private int size;
+
+	public ActionIndex() {
+		clear();
+	}
+
+	private static int hash(int id) {
+		int h= id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public Action get(int id) {
+		int i= hash(id) & mask;
+		Action a;
+		while ((a=values[i])!=null) {
+			if (keys[i]==id) {
+				return a;
+			}
+			i= (i+1) & mask;
+		}
+		return null;
+	}
+
+	public void put(Action a) {
+		if ((size+1)*4 > values.length*3) {
+			resize(values.length*2);
+		}
+		int id= a.getId();
+		int i= hash(id) & mask;
+		while (values[i]!=null) {
+			if (keys[i]==id) {
+				values[i]=a;
+				return;
+			}
+			i= (i+1) & mask;
+		}
+		keys[i]=id;
+		values[i]=a;
+		size++;
+	}
+
+	public Action remove(int id) {
+		int i= hash(id) & mask;
+		Action a;
+		while ((a=values[i])!=null) {
+			if (keys[i]==id) {
+				values[i]=null;
+				size--;
+				shiftBack(i);
+				return a;
+			}
+			i= (i+1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the gap left by removed slot, so that linear probe chains stay unbroken.
+	 */
+	private void shiftBack(int gap) {
+		int j= gap;
+		while (true) {
+			j= (j+1) & mask;
+			if (values[j]==null) {
+				return;
+			}
+			int home= hash(keys[j]) & mask;
+			boolean stays= gap<=j ? (gap<home && home<=j) : (gap<home || home<=j);
+			if (!stays) {
+				keys[gap]=keys[j];
+				values[gap]=values[j];
+				values[j]=null;
+				gap=j;
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		Action[] v= values;
+		keys= new int[capacity];
+		values= new Action[capacity];
+		mask= capacity-1;
+		size=0;
+		for (int i = 0; i < v.length; i++) {
+			if (v[i]!=null) {
+				put(v[i]);
+			}
+		}
+	}
+
+	public void clear() {
+		keys= new int[DEFAULT_CAPACITY];
+		values= new Action[DEFAULT_CAPACITY];
+		mask= DEFAULT_CAPACITY-1;
+		size=0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
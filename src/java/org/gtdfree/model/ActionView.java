@@ -0,0 +1,238 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Saved search, which keeps set of actions from user folders, which match its filter. 
+ * View is filled once, with candidates from filter's index when filter is {@link IndexedActionFilter},
+ * afterwards each added, modified or removed action is tested only against filter, 
+ * so view is kept current at cost proportional to change, not to size of model.
+ * <p>
+ * Views are created by {@link GTDModel#createView(String, ActionFilter)}. Filter is tested with
+ * action's own folder and must not depend on other state than action and its folder.
+ * When folder is modified, for example closed or renamed, all its actions are tested again.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+public final class ActionView {
+
+	private static final Comparator<Action> ID_COMPARATOR= new Comparator<Action>() {
+		public int compare(Action o1, Action o2) {
+			return o1.getId()<o2.getId() ? -1 : (o1.getId()==o2.getId() ? 0 : 1);
+		}
+	};
+
+	private final GTDModel model;
+	private final String name;
+	private final ActionFilter filter;
+	private final TreeSet<Action> actions= new TreeSet<Action>(ID_COMPARATOR);
+	private volatile ActionViewListener[] listeners= new ActionViewListener[0];
+	private boolean loaded;
+	private long evaluations;
+
+	ActionView(GTDModel model, String name, ActionFilter filter) {
+		this.model=model;
+		this.name=name;
+		this.filter=filter;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ActionFilter getFilter() {
+		return filter;
+	}
+
+	public GTDModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return actions in view, ordered by ID
+	 */
+	public Action[] actions() {
+		load();
+		return actions.toArray(new Action[actions.size()]);
+	}
+
+	public int size() {
+		load();
+		return actions.size();
+	}
+
+	public boolean contains(Action a) {
+		load();
+		return actions.contains(a);
+	}
+
+	/**
+	 * @return number of times filter was tested since view was created
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Fills view from model, if it is not filled yet.
+	 */
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded=true;
+		actions.clear();
+		if (filter instanceof IndexedActionFilter) {
+			Action[] c= ((IndexedActionFilter)filter).candidates(model);
+			if (c!=null) {
+				for (int i = 0; i < c.length; i++) {
+					if (accepts(c[i])) {
+						actions.add(c[i]);
+					}
+				}
+				return;
+			}
+		}
+		for (Folder f : model) {
+			if (!f.isMeta()) {
+				for (Action a : f) {
+					if (accepts(a)) {
+						actions.add(a);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean accepts(Action a) {
+		evaluations++;
+		return a.getFolder()!=null && !a.getFolder().isMeta() && filter.isAcceptable(a.getFolder(), a);
+	}
+
+	/**
+	 * Empties view, it is filled again when used. Called when model is cleared.
+	 */
+	void reset() {
+		loaded=false;
+		actions.clear();
+		ActionViewListener[] l= listeners;
+		for (int i = 0; i < l.length; i++) {
+			try {
+				l[i].viewReloaded(this);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Tests action, which was added to user folder or modified.
+	 */
+	void update(Action a, ActionEvent e) {
+		if (!loaded) {
+			return;
+		}
+		boolean in= accepts(a);
+		if (in) {
+			if (actions.add(a)) {
+				fireAdded(a);
+			} else if (e!=null) {
+				fireModified(e);
+			}
+		} else if (actions.remove(a)) {
+			fireRemoved(a);
+		}
+	}
+
+	/**
+	 * Removes action, which was removed from model.
+	 */
+	void remove(Action a) {
+		if (loaded && actions.remove(a)) {
+			fireRemoved(a);
+		}
+	}
+
+	private void fireAdded(Action a) {
+		ActionViewListener[] l= listeners;
+		for (int i = 0; i < l.length; i++) {
+			try {
+				l[i].actionAdded(this, a);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void fireRemoved(Action a) {
+		ActionViewListener[] l= listeners;
+		for (int i = 0; i < l.length; i++) {
+			try {
+				l[i].actionRemoved(this, a);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void fireModified(ActionEvent a) {
+		ActionViewListener[] l= listeners;
+		for (int i = 0; i < l.length; i++) {
+			try {
+				l[i].actionModified(this, a);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public synchronized void addActionViewListener(ActionViewListener l) {
+		if (l==null) {
+			return;
+		}
+		ActionViewListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+		ll[ll.length-1]=l;
+		listeners=ll;
+	}
+
+	public synchronized void removeActionViewListener(ActionViewListener l) {
+		for (int i = listeners.length-1; i >= 0; i--) {
+			if (listeners[i]==l) {
+				ActionViewListener[] ll= new ActionViewListener[listeners.length-1];
+				System.arraycopy(listeners, 0, ll, 0, i);
+				System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+				listeners=ll;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ActionView{"+name+", size="+actions.size()+"}";
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.EventListener;
+
+/**
+ * Receives changes of {@link ActionView} membership.
+ * 
+ * @author ikesan
+ *
+ */
+public interface ActionViewListener extends EventListener {
+	/**
+	 * Action started to match view filter.
+	 */
+	public void actionAdded(ActionView view, Action a);
+	/**
+	 * Action stopped to match view filter or was removed from model.
+	 */
+	public void actionRemoved(ActionView view, Action a);
+	/**
+	 * Action in view was modified and still matches view filter.
+	 */
+	public void actionModified(ActionView view, ActionEvent e);
+	/**
+	 * View was filled again from whole model, for example after model was loaded.
+	 */
+	public void viewReloaded(ActionView view);
+}
@@ -0,0 +1,651 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.gtdfree.model.Action.ActionType;
+import org.gtdfree.model.Action.Resolution;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * Compact binary form of model data, with same content as XML data file version 2.2.
+ * <p>
+ * Data starts with {@link #MAGIC} and format version byte, followed by modification time,
+ * last action ID, table of all strings and then folders, projects and queue, in same order
+ * as in XML. Integers and times are written as variable length numbers, strings as references
+ * to string table, where 0 stands for <code>null</code>. Optional action dates are written
+ * as difference to creation time. Data ends with CRC32 checksum of all preceding bytes.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+final class BinarySnapshot {
+
+	/**
+	 * First bytes of binary data, "GTDB".
+	 */
+	public static final byte[] MAGIC= {'G','T','D','B'};
+	public static final int VERSION= 1;
+
+	private static final Charset UTF8= Charset.forName("UTF-8");
+
+	// folder and project flags
+	private static final int CLOSED= 1;
+
+	// action flags, which optional fields follow
+	private static final int RESOLVED= 1;
+	private static final int START= 1<<1;
+	private static final int REMIND= 1<<2;
+	private static final int DUE= 1<<3;
+	private static final int TYPE= 1<<4;
+	private static final int URL= 1<<5;
+	private static final int QUEUED= 1<<6;
+	private static final int PROJECT= 1<<7;
+	private static final int PRIORITY= 1<<8;
+
+	/**
+	 * Tests if stream starts with binary data. Stream must support mark and is reset back.
+	 */
+	public static boolean isBinary(InputStream in) throws IOException {
+		in.mark(MAGIC.length);
+		try {
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (in.read()!=MAGIC[i]) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * Reads version and modification time from start of binary data.
+	 */
+	public static GTDModel.DataHeader readHeader(File file, InputStream in) throws IOException {
+		Decoder d= new Decoder(in);
+		int version= d.readHeader();
+		return new GTDModel.DataHeader(file,"binary-"+version,new Date(d.readLong()));
+	}
+
+	/**
+	 * Writes snapshot of model to binary data.
+	 */
+	public static void store(ModelSnapshot snapshot, OutputStream out) throws IOException {
+
+		ModelSnapshot.FolderState[] fn= snapshot.folders;
+		ModelSnapshot.FolderState[] pn= snapshot.projects;
+
+		// first pass collects strings
+		StringTable st= new StringTable();
+		for (ModelSnapshot.FolderState f : fn) {
+			st.add(f.name);
+			st.add(f.type.toString());
+			if (!f.inBucket) {
+				st.add(f.description);
+			}
+			for (Action a : f.actions) {
+				st.add(a.getDescription());
+				st.add(a.getResolution().toString());
+				if (a.getType()!=null) st.add(a.getType().toString());
+				if (a.getUrl()!=null) st.add(a.getUrl().toString());
+				if (a.getPriority()!=null) st.add(a.getPriority().toString());
+			}
+		}
+		for (ModelSnapshot.FolderState p : pn) {
+			st.add(p.name);
+			st.add(p.goal);
+			st.add(p.description);
+		}
+
+		Encoder e= new Encoder(out);
+		e.writeHeader();
+		e.writeLong(snapshot.modified);
+		e.writeInt(snapshot.lastActionID);
+
+		e.writeUInt(st.strings.size());
+		for (String s : st.strings) {
+			e.writeString(s);
+		}
+
+		e.writeUInt(fn.length);
+		for (ModelSnapshot.FolderState f : fn) {
+			e.writeUInt(f.id);
+			e.writeUInt(st.ref(f.name));
+			e.writeUInt(st.ref(f.type.toString()));
+			e.writeUInt(f.closed ? CLOSED : 0);
+			e.writeUInt(f.inBucket ? 0 : st.ref(f.description));
+
+			e.writeUInt(f.actions.length);
+			for (Action a : f.actions) {
+				long created= a.getCreatedTime();
+				int flags=0;
+				if (a.getResolvedTime()!=Action.UNSET_DATE) flags|=RESOLVED;
+				if (a.getStartTime()!=Action.UNSET_DATE) flags|=START;
+				if (a.getRemindTime()!=Action.UNSET_DATE) flags|=REMIND;
+				if (a.getDueTime()!=Action.UNSET_DATE) flags|=DUE;
+				if (a.getType()!=null) flags|=TYPE;
+				if (a.getUrl()!=null) flags|=URL;
+				if (a.isQueued()) flags|=QUEUED;
+				if (a.getProject()!=null) flags|=PROJECT;
+				if (a.getPriority()!=null) flags|=PRIORITY;
+
+				e.writeUInt(a.getId());
+				e.writeLong(created);
+				e.writeUInt(flags);
+				e.writeUInt(st.ref(a.getDescription()));
+				e.writeUInt(st.ref(a.getResolution().toString()));
+				if ((flags & RESOLVED)!=0) e.writeLong(a.getResolvedTime()-created);
+				if ((flags & START)!=0) e.writeLong(a.getStartTime()-created);
+				if ((flags & REMIND)!=0) e.writeLong(a.getRemindTime()-created);
+				if ((flags & DUE)!=0) e.writeLong(a.getDueTime()-created);
+				if ((flags & TYPE)!=0) e.writeUInt(st.ref(a.getType().toString()));
+				if ((flags & URL)!=0) e.writeUInt(st.ref(a.getUrl().toString()));
+				if ((flags & PROJECT)!=0) e.writeUInt(a.getProject());
+				if ((flags & PRIORITY)!=0) e.writeUInt(st.ref(a.getPriority().toString()));
+			}
+		}
+
+		e.writeUInt(pn.length);
+		for (ModelSnapshot.FolderState p : pn) {
+			e.writeUInt(p.id);
+			e.writeUInt(st.ref(p.name));
+			e.writeUInt(p.closed ? CLOSED : 0);
+			e.writeUInt(st.ref(p.goal));
+			e.writeUInt(st.ref(p.description));
+			writeIDs(e, p.actions);
+		}
+
+		writeIDs(e, snapshot.queue.actions);
+
+		e.finish();
+	}
+
+	private static void writeIDs(Encoder e, Action[] aa) throws IOException {
+		e.writeUInt(aa.length);
+		for (Action a : aa) {
+			e.writeUInt(a.getId());
+		}
+	}
+
+	/**
+	 * Reads binary data into empty model, same as XML loader does it.
+	 * @return header with version and modification time
+	 */
+	public static GTDModel.DataHeader load(GTDModel model, InputStream in) throws IOException {
+		return load(model, new Decoder(in), null);
+	}
+
+	/**
+	 * Reads binary data from memory mapped file into empty model. Action descriptions are 
+	 * not decoded, actions reference them in buffer until first accessed. 
+	 * @return header with version and modification time
+	 */
+	public static GTDModel.DataHeader load(GTDModel model, ByteBuffer buffer) throws IOException {
+		return load(model, new Decoder(buffer.duplicate()), buffer);
+	}
+
+	private static GTDModel.DataHeader load(GTDModel model, Decoder d, ByteBuffer mapped) throws IOException {
+		try {
+			return _load(model, d, mapped);
+		} catch (RuntimeException e) {
+			// damaged data may fail before checksum is reached, for example with unknown enum name
+			throw new IOException("Binary data is corrupted: "+e.toString(), e);
+		}
+	}
+
+	private static GTDModel.DataHeader _load(GTDModel model, Decoder d, ByteBuffer mapped) throws IOException {
+		int version= d.readHeader();
+		long modified= d.readLong();
+		model.reserveActionID(d.readInt());
+
+		Strings strings= new Strings(d, mapped);
+
+		Map<Integer, Action> withProject= new HashMap<Integer, Action>();
+		Map<Integer, Action> queued= new HashMap<Integer, Action>();
+
+		int count= d.readUInt();
+		for (int i = 0; i < count; i++) {
+			int id= d.readUInt();
+			String name= strings.get(d.readUInt());
+			Folder ff= model.createFolder(id, name, FolderType.valueOf(strings.get(d.readUInt())));
+			ff.setClosed((d.readUInt() & CLOSED)!=0);
+			String s= strings.get(d.readUInt());
+			if (!ff.isInBucket()) {
+				ff.setDescription(s);
+			}
+
+			int size= d.readUInt();
+			for (int j = 0; j < size; j++) {
+				int aid= d.readUInt();
+				long created= d.readLong();
+				int flags= d.readUInt();
+				int desc= d.readUInt();
+				Resolution res= Resolution.toResolution(strings.get(d.readUInt()));
+				long resolved= (flags & RESOLVED)!=0 ? created+d.readLong() : Action.UNSET_DATE;
+
+				Action a;
+				if (mapped!=null) {
+					a= new Action(aid,created,resolved,null);
+					a.setMappedDescription(strings.text(desc));
+				} else {
+					a= new Action(aid,created,resolved,strings.get(desc));
+				}
+
+				if ((flags & START)!=0) a.setStartTime(created+d.readLong());
+				if ((flags & REMIND)!=0) a.setRemindTime(created+d.readLong());
+				if ((flags & DUE)!=0) a.setDueTime(created+d.readLong());
+				if ((flags & TYPE)!=0) a.setType(ActionType.valueOf(strings.get(d.readUInt())));
+				if ((flags & URL)!=0) {
+					s= strings.get(d.readUInt());
+					try {
+						a.setUrl(Utils.toURI(s));
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+				if ((flags & QUEUED)!=0) a.setQueued(true);
+				if ((flags & PROJECT)!=0) a.setProject(d.readUInt());
+				if ((flags & PRIORITY)!=0) a.setPriority(Priority.valueOf(strings.get(d.readUInt())));
+
+				ff.add(a);
+
+				a.setResolution(res);
+
+				if (a.getProject()!=null) {
+					withProject.put(a.getId(), a);
+				}
+				if (a.isQueued()) {
+					queued.put(a.getId(), a);
+				}
+				model.reserveActionID(a.getId());
+			}
+		}
+
+		count= d.readUInt();
+		for (int i = 0; i < count; i++) {
+			int id= d.readUInt();
+			Project pp= (Project)model.createFolder(id, strings.get(d.readUInt()), FolderType.PROJECT);
+			pp.setClosed((d.readUInt() & CLOSED)!=0);
+			pp.setGoal(strings.get(d.readUInt()));
+			String s= strings.get(d.readUInt());
+			if (s!=null) {
+				pp.setDescription(s);
+			}
+			int size= d.readUInt();
+			for (int j = 0; j < size; j++) {
+				Action a= withProject.remove(d.readUInt());
+				if (a!=null) {
+					pp.add(a);
+				}
+			}
+		}
+
+		for (Action a: withProject.values()) {
+			Project p= model.getProject(a.getProject());
+			if (p!=null) {
+				p.add(a);
+			} else {
+				System.err.println("Project "+a.getProject()+" in action "+a+" does not exsist.");
+				a.setProject(null);
+			}
+		}
+
+		Folder q= model.getQueue();
+		int size= d.readUInt();
+		for (int j = 0; j < size; j++) {
+			Action a= queued.remove(d.readUInt());
+			if (a!=null) {
+				q.add(a);
+			}
+		}
+		for (Action a: queued.values()) {
+			System.err.println("Action "+a+" is queued but not in queue list.");
+			q.add(a);
+		}
+
+		d.finish();
+
+		return new GTDModel.DataHeader(null,"binary-"+version,new Date(modified));
+	}
+
+	/**
+	 * String table of data being loaded. Strings are decoded while reading table,
+	 * or, from mapped file, only when referenced.
+	 */
+	private static final class Strings {
+		private final ByteBuffer mapped;
+		private String[] strings;
+		private int[] offsets;
+		private int[] lengths;
+
+		Strings(Decoder d, ByteBuffer mapped) throws IOException {
+			this.mapped=mapped;
+			int n= d.readUInt();
+			if (mapped==null) {
+				strings= new String[n];
+				for (int i = 0; i < n; i++) {
+					strings[i]= d.readString();
+				}
+			} else {
+				// only locations are kept, strings are decoded when needed
+				strings= new String[n];
+				offsets= new int[n];
+				lengths= new int[n];
+				for (int i = 0; i < n; i++) {
+					lengths[i]= d.readUInt();
+					offsets[i]= d.skip(lengths[i]);
+				}
+			}
+		}
+
+		private void check(int ref) throws IOException {
+			if (ref>strings.length) {
+				throw new IOException("Invalid string reference "+ref+" in binary data.");
+			}
+		}
+
+		/**
+		 * Returns decoded string, which is kept for next time. Used for names and enum values.
+		 */
+		String get(int ref) throws IOException {
+			if (ref==0) {
+				return null;
+			}
+			check(ref);
+			String s= strings[ref-1];
+			if (s==null) {
+				s= new MappedText(mapped, offsets[ref-1], lengths[ref-1]).decode();
+				strings[ref-1]=s;
+			}
+			return s;
+		}
+
+		/**
+		 * Returns not yet decoded text in mapped file.
+		 */
+		MappedText text(int ref) throws IOException {
+			if (ref==0) {
+				return null;
+			}
+			check(ref);
+			return new MappedText(mapped, offsets[ref-1], lengths[ref-1]);
+		}
+	}
+
+	/**
+	 * Assigns references to distinct strings, in order they were added.
+	 */
+	private static final class StringTable {
+		final List<String> strings= new ArrayList<String>();
+		final Map<String, Integer> refs= new HashMap<String, Integer>();
+
+		void add(String s) {
+			if (s!=null && !refs.containsKey(s)) {
+				strings.add(s);
+				refs.put(s, strings.size());
+			}
+		}
+
+		int ref(String s) {
+			return s==null ? 0 : refs.get(s);
+		}
+	}
+
+	/**
+	 * Buffered writer of variable length numbers, keeps checksum of written bytes.
+	 */
+	private static final class Encoder {
+		private final OutputStream out;
+		private final CRC32 crc= new CRC32();
+		private byte[] buf= new byte[65536];
+		private int pos;
+
+		Encoder(OutputStream out) {
+			this.out=out;
+		}
+
+		private void ensure(int n) throws IOException {
+			if (pos+n>buf.length) {
+				flush();
+				if (n>buf.length) {
+					buf= new byte[n];
+				}
+			}
+		}
+
+		private void flush() throws IOException {
+			crc.update(buf, 0, pos);
+			out.write(buf, 0, pos);
+			pos=0;
+		}
+
+		void writeHeader() throws IOException {
+			ensure(MAGIC.length+1);
+			System.arraycopy(MAGIC, 0, buf, pos, MAGIC.length);
+			pos+=MAGIC.length;
+			buf[pos++]=VERSION;
+		}
+
+		void writeUInt(int v) throws IOException {
+			ensure(5);
+			while ((v & ~0x7F)!=0) {
+				buf[pos++]= (byte)((v & 0x7F) | 0x80);
+				v>>>=7;
+			}
+			buf[pos++]= (byte)v;
+		}
+
+		/**
+		 * Writes signed value in zig-zag encoding, small negative values are short too.
+		 */
+		void writeInt(int v) throws IOException {
+			writeUInt((v << 1) ^ (v >> 31));
+		}
+
+		void writeLong(long v) throws IOException {
+			ensure(10);
+			v= (v << 1) ^ (v >> 63);
+			while ((v & ~0x7FL)!=0) {
+				buf[pos++]= (byte)((v & 0x7F) | 0x80);
+				v>>>=7;
+			}
+			buf[pos++]= (byte)v;
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] b= s.getBytes(UTF8);
+			writeUInt(b.length);
+			ensure(b.length);
+			System.arraycopy(b, 0, buf, pos, b.length);
+			pos+=b.length;
+		}
+
+		/**
+		 * Writes checksum of all data and flushes it to stream.
+		 */
+		void finish() throws IOException {
+			flush();
+			int c= (int)crc.getValue();
+			out.write(new byte[]{(byte)(c>>>24),(byte)(c>>>16),(byte)(c>>>8),(byte)c});
+			out.flush();
+		}
+	}
+
+	/**
+	 * Buffered reader of variable length numbers, keeps checksum of read bytes.
+	 */
+	private static final class Decoder {
+		private final InputStream in;
+		private final ByteBuffer source;
+		private final CRC32 crc= new CRC32();
+		private byte[] buf= new byte[65536];
+		private int pos;
+		private int limit;
+		// number of bytes before start of buffer
+		private int consumed;
+
+		Decoder(InputStream in) {
+			this.in=in;
+			this.source=null;
+		}
+
+		Decoder(ByteBuffer source) {
+			this.in=null;
+			this.source=source;
+		}
+
+		/**
+		 * Makes at least <code>n</code> bytes available in buffer.
+		 */
+		private void require(int n) throws IOException {
+			if (limit-pos>=n) {
+				return;
+			}
+			// bytes before pos have been read and are added to checksum
+			crc.update(buf, 0, pos);
+			consumed+=pos;
+			int rest= limit-pos;
+			if (n>buf.length) {
+				byte[] b= new byte[n];
+				System.arraycopy(buf, pos, b, 0, rest);
+				buf=b;
+			} else {
+				System.arraycopy(buf, pos, buf, 0, rest);
+			}
+			pos=0;
+			limit=rest;
+			while (limit<n) {
+				int r;
+				if (in!=null) {
+					r= in.read(buf, limit, buf.length-limit);
+				} else {
+					r= Math.min(buf.length-limit, source.remaining());
+					source.get(buf, limit, r);
+					if (r==0) {
+						r=-1;
+					}
+				}
+				if (r<0) {
+					throw new EOFException("Binary data is truncated.");
+				}
+				limit+=r;
+			}
+		}
+
+		int readHeader() throws IOException {
+			require(MAGIC.length+1);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (buf[pos++]!=MAGIC[i]) {
+					throw new IOException("Not GTD-Free binary data.");
+				}
+			}
+			int version= buf[pos++];
+			if (version!=VERSION) {
+				throw new IOException("Binary gtd-free data with version number "+version+" can not be imported. Data version is newer then supported versions. Update your GTD-Free application to latest version.");
+			}
+			return version;
+		}
+
+		private byte next() throws IOException {
+			if (pos==limit) {
+				require(1);
+			}
+			return buf[pos++];
+		}
+
+		int readUInt() throws IOException {
+			int v=0;
+			for (int shift = 0; shift < 35; shift+=7) {
+				byte b= next();
+				v|= (b & 0x7F) << shift;
+				if (b>=0) {
+					return v;
+				}
+			}
+			throw new IOException("Invalid number in binary data.");
+		}
+
+		int readInt() throws IOException {
+			int v= readUInt();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		long readLong() throws IOException {
+			long v=0;
+			for (int shift = 0; shift < 70; shift+=7) {
+				byte b= next();
+				v|= (long)(b & 0x7F) << shift;
+				if (b>=0) {
+					return (v >>> 1) ^ -(v & 1);
+				}
+			}
+			throw new IOException("Invalid number in binary data.");
+		}
+
+		String readString() throws IOException {
+			int n= readUInt();
+			require(n);
+			String s= new String(buf, pos, n, UTF8);
+			pos+=n;
+			return s;
+		}
+
+		/**
+		 * Skips <code>n</code> bytes, which still count in checksum.
+		 * @return position of skipped bytes from start of data
+		 */
+		int skip(int n) throws IOException {
+			require(n);
+			int p= consumed+pos;
+			pos+=n;
+			return p;
+		}
+
+		/**
+		 * Reads checksum at end of data and compares it with checksum of read data.
+		 */
+		void finish() throws IOException {
+			require(4);
+			crc.update(buf, 0, pos);
+			int c= ((buf[pos] & 0xFF)<<24) | ((buf[pos+1] & 0xFF)<<16) | ((buf[pos+2] & 0xFF)<<8) | (buf[pos+3] & 0xFF);
+			pos+=4;
+			if (c!=(int)crc.getValue()) {
+				throw new IOException("Binary data is corrupted, checksum does not match.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,709 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+import org.gtdfree.model.Action.ActionType;
+import org.gtdfree.model.Action.Resolution;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * Write-ahead log of model changes, kept next to data file. Each model event is encoded
+ * as compact record in memory, records are written and forced to disk in groups by {@link #sync()}.
+ * Log starts with time of data file snapshot it applies to, see {@link GTDModel#getSnapshotTime()}.
+ * On startup log is replayed on top of loaded snapshot with {@link #replay()}.
+ * When log grows too big or too old, owner should store new snapshot and call {@link #reset(long)}
+ * with {@link #mark()} taken together with snapshot.
+ * <p>
+ * Only user changes are logged, events for meta folders are derived from them
+ * and are recreated during replay.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+public class ChangeLog implements GTDModelListener {
+
+	public static final long DEFAULT_MAX_SIZE= 1024*1024;
+	public static final long DEFAULT_MAX_AGE= 60*60*1000;
+
+	private static final int MAGIC= 0x47544C31; // GTL1
+	private static final int HEADER_SIZE= 12;
+
+	private static final byte FOLDER_ADDED= 1;
+	private static final byte FOLDER_MODIFIED= 2;
+	private static final byte FOLDER_REMOVED= 3;
+	private static final byte ACTION_ADDED= 4;
+	private static final byte ACTION_REMOVED= 5;
+	private static final byte ACTION_MODIFIED= 6;
+	private static final byte ORDER= 7;
+
+	private static final byte NULL= 0;
+	private static final byte STRING= 1;
+	private static final byte BOOLEAN= 2;
+	private static final byte INTEGER= 3;
+	private static final byte DATE= 4;
+
+	private final GTDModel model;
+	private final File file;
+	private final Object ioLock= new Object();
+
+	private ByteArrayOutputStream pending= new ByteArrayOutputStream(4096);
+	private ByteArrayOutputStream record= new ByteArrayOutputStream(256);
+	private DataOutputStream out= new DataOutputStream(record);
+	private CRC32 crc= new CRC32();
+	private int pendingRecords;
+
+	private FileOutputStream fileOut;
+	private long fileSize;
+	private int records;
+	// sequence number of first record in log file, records are numbered in order of changes
+	private long firstRecord;
+	private long firstRecordTime;
+	private long maxSize= DEFAULT_MAX_SIZE;
+	private long maxAge= DEFAULT_MAX_AGE;
+	private boolean replaying;
+
+	private long syncCount;
+	private long syncTime;
+
+	public ChangeLog(GTDModel model, File file) {
+		this.model=model;
+		this.file=file;
+	}
+
+	/**
+	 * @return the log file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Applies logged changes to model, if log belongs to model's snapshot, and opens log for appending.
+	 * Log which belongs to other snapshot is discarded. Damaged tail of log, left by crash
+	 * while writing, is cut off.
+	 * @return number of applied records
+	 * @throws IOException
+	 */
+	public int replay() throws IOException {
+		synchronized (ioLock) {
+			close();
+			int applied=0;
+			long valid=0;
+			if (file.exists() && file.length()>=HEADER_SIZE) {
+				DataInputStream in= new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					if (in.readInt()==MAGIC && in.readLong()==model.getSnapshotTime()) {
+						valid=HEADER_SIZE;
+						replaying=true;
+						byte[] b= new byte[256];
+						while (true) {
+							int len;
+							long sum;
+							try {
+								len= in.readInt();
+								sum= in.readInt() & 0xFFFFFFFFL;
+								if (len<0 || len>file.length()) {
+									break;
+								}
+								if (b.length<len) {
+									b= new byte[len];
+								}
+								in.readFully(b, 0, len);
+							} catch (EOFException e) {
+								break;
+							}
+							crc.reset();
+							crc.update(b, 0, len);
+							if (crc.getValue()!=sum) {
+								break;
+							}
+							apply(new DataInputStream(new ByteArrayInputStream(b, 0, len)));
+							applied++;
+							valid+=8+len;
+						}
+					}
+				} finally {
+					replaying=false;
+					in.close();
+				}
+			}
+			if (valid==0) {
+				start();
+			} else {
+				RandomAccessFile raf= new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(valid);
+				} finally {
+					raf.close();
+				}
+				fileOut= new FileOutputStream(file, true);
+				synchronized (this) {
+					fileSize=valid;
+					records=applied;
+					firstRecordTime= applied>0 ? file.lastModified() : 0;
+				}
+			}
+			return applied;
+		}
+	}
+
+	/**
+	 * Marks position in log, which corresponds to snapshot of model. Must be called on
+	 * same thread and together with taking snapshot, so no change comes between them.
+	 * @return mark to be passed to {@link #reset(long)} after snapshot is stored
+	 */
+	public synchronized long mark() {
+		return firstRecord+records+pendingRecords;
+	}
+
+	/**
+	 * Discards log file and starts new one for current snapshot of model.
+	 * Must be called after model has been stored. Records of changes made after snapshot was taken
+	 * are kept, also those already written by {@link #sync()} while snapshot was stored. 
+	 * Records not yet written are kept as they are, replaying them on snapshot, 
+	 * which might already contain them, does not change the model.
+	 * @param mark the {@link #mark()} taken with stored snapshot
+	 * @throws IOException
+	 */
+	public void reset(long mark) throws IOException {
+		synchronized (ioLock) {
+			close();
+			int skip;
+			int keep;
+			synchronized (this) {
+				skip= (int)Math.max(0, Math.min(records, mark-firstRecord));
+				keep= records-skip;
+			}
+			byte[] b= keep>0 ? readRecords(skip) : null;
+			start();
+			if (b!=null) {
+				fileOut.write(b);
+				fileOut.getChannel().force(false);
+				synchronized (this) {
+					// start() counted kept records as discarded
+					firstRecord-=keep;
+					fileSize+=b.length;
+					records=keep;
+					firstRecordTime= System.currentTimeMillis();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads written records from log file, skipping first records.
+	 */
+	private byte[] readRecords(int skip) throws IOException {
+		DataInputStream in= new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			in.skipBytes(HEADER_SIZE);
+			for (int i=0; i<skip; i++) {
+				int len= in.readInt();
+				in.readInt();
+				in.skipBytes(len);
+			}
+			ByteArrayOutputStream b= new ByteArrayOutputStream(4096);
+			byte[] buf= new byte[4096];
+			int n;
+			while ((n=in.read(buf))>0) {
+				b.write(buf, 0, n);
+			}
+			return b.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private void start() throws IOException {
+		fileOut= new FileOutputStream(file, false);
+		DataOutputStream d= new DataOutputStream(fileOut);
+		d.writeInt(MAGIC);
+		d.writeLong(model.getSnapshotTime());
+		d.flush();
+		fileOut.getChannel().force(false);
+		synchronized (this) {
+			firstRecord+=records;
+			fileSize=HEADER_SIZE;
+			records=0;
+			firstRecordTime=0;
+		}
+	}
+
+	/**
+	 * Writes pending records to log file and forces them to disk.
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		synchronized (ioLock) {
+			byte[] b;
+			int n;
+			synchronized (this) {
+				if (pendingRecords==0) {
+					return;
+				}
+				b= pending.toByteArray();
+				n= pendingRecords;
+				pending.reset();
+				pendingRecords=0;
+			}
+			if (fileOut==null) {
+				start();
+			}
+			long t= System.nanoTime();
+			fileOut.write(b);
+			fileOut.getChannel().force(false);
+			t= System.nanoTime()-t;
+			synchronized (this) {
+				if (records==0) {
+					firstRecordTime= System.currentTimeMillis();
+				}
+				fileSize+=b.length;
+				records+=n;
+				syncCount++;
+				syncTime+=t;
+			}
+		}
+	}
+
+	/**
+	 * Closes log file, pending records are not written.
+	 */
+	public void close() throws IOException {
+		synchronized (ioLock) {
+			if (fileOut!=null) {
+				fileOut.close();
+				fileOut=null;
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if log is bigger or older than allowed and should be folded into new snapshot
+	 */
+	public synchronized boolean isCompactionDue() {
+		long size= fileSize+pending.size();
+		if (size>maxSize) {
+			return true;
+		}
+		return getRecordCount()>0 && firstRecordTime>0 && System.currentTimeMillis()-firstRecordTime>maxAge;
+	}
+
+	/**
+	 * @return number of records in log, including ones not yet written
+	 */
+	public synchronized int getRecordCount() {
+		return records+pendingRecords;
+	}
+
+	/**
+	 * @return size of log in bytes, including records not yet written
+	 */
+	public synchronized long getSize() {
+		return fileSize+pending.size();
+	}
+
+	/**
+	 * @return number of {@link #sync()} calls, which wrote to disk
+	 */
+	public synchronized long getSyncCount() {
+		return syncCount;
+	}
+
+	/**
+	 * @return total time spent writing and forcing log to disk, in nanoseconds
+	 */
+	public synchronized long getSyncTime() {
+		return syncTime;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize log size in bytes, after which compaction is due
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * @param maxAge age of oldest record in milliseconds, after which compaction is due
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	// encoding
+
+	private void writeValue(Object o) throws IOException {
+		if (o==null) {
+			out.writeByte(NULL);
+		} else if (o instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean)o);
+		} else if (o instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer)o);
+		} else if (o instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date)o).getTime());
+		} else {
+			// enums and links are restored from their names
+			out.writeByte(STRING);
+			writeString(o.toString());
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		// writeUTF is limited to 64k, descriptions may be longer
+		byte[] b= s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private void writeOptionalString(String s) throws IOException {
+		out.writeBoolean(s!=null);
+		if (s!=null) {
+			writeString(s);
+		}
+	}
+
+	private void endRecord() {
+		crc.reset();
+		byte[] b= record.toByteArray();
+		crc.update(b, 0, b.length);
+		DataOutputStream d= new DataOutputStream(pending);
+		try {
+			d.writeInt(b.length);
+			d.writeInt((int)crc.getValue());
+			d.write(b);
+		} catch (IOException e) {
+			// can not happen with byte array
+			e.printStackTrace();
+		}
+		record.reset();
+		pendingRecords++;
+	}
+
+	private boolean isLogged(Folder f) {
+		return !replaying && !f.isMeta();
+	}
+
+	public synchronized void elementAdded(FolderEvent a) {
+		if (!isLogged(a.getFolder())) {
+			return;
+		}
+		try {
+			Action ac= a.getAction();
+			out.writeByte(ACTION_ADDED);
+			out.writeInt(a.getFolder().getId());
+			out.writeInt(a.getFolder().indexOf(ac));
+			out.writeInt(ac.getId());
+			out.writeLong(ac.getCreatedTime());
+			out.writeLong(ac.getResolvedTime());
+			writeOptionalString(ac.getDescription());
+			writeOptionalString(ac.getResolution()!=null ? ac.getResolution().toString() : null);
+			writeOptionalString(ac.getPriority()!=null ? ac.getPriority().toString() : null);
+			writeOptionalString(ac.getType()!=null ? ac.getType().toString() : null);
+			writeOptionalString(ac.getUrl()!=null ? ac.getUrl().toString() : null);
+			out.writeInt(ac.getProject()!=null ? ac.getProject() : -1);
+			out.writeBoolean(ac.isQueued());
+			out.writeLong(ac.getRemindTime());
+			out.writeLong(ac.getStartTime());
+			out.writeLong(ac.getDueTime());
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void elementRemoved(FolderEvent a) {
+		if (!isLogged(a.getFolder())) {
+			return;
+		}
+		try {
+			out.writeByte(ACTION_REMOVED);
+			out.writeInt(a.getFolder().getId());
+			out.writeInt(a.getAction().getId());
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void elementModified(ActionEvent a) {
+		if (!isLogged((Folder)a.getSource())) {
+			return;
+		}
+		try {
+			out.writeByte(ACTION_MODIFIED);
+			out.writeInt(a.getAction().getId());
+			out.writeUTF(a.getProperty());
+			writeValue(a.getNewValue());
+			if (Action.RESOLUTION_PROPERTY_NAME.equals(a.getProperty())) {
+				out.writeLong(a.getAction().getResolvedTime());
+			}
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void orderChanged(Folder f) {
+		// queue is meta folder, but its order is set by user
+		if (replaying || (f.isMeta() && !f.isQueue())) {
+			return;
+		}
+		try {
+			Action[] aa= f.actions();
+			out.writeByte(ORDER);
+			out.writeInt(f.getId());
+			out.writeInt(aa.length);
+			for (Action a : aa) {
+				out.writeInt(a.getId());
+			}
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void folderAdded(Folder folder) {
+		if (replaying) {
+			return;
+		}
+		try {
+			out.writeByte(FOLDER_ADDED);
+			out.writeInt(folder.getId());
+			out.writeUTF(folder.getType().toString());
+			writeString(folder.getName());
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void folderModified(FolderEvent folder) {
+		if (replaying) {
+			return;
+		}
+		try {
+			out.writeByte(FOLDER_MODIFIED);
+			out.writeInt(folder.getFolder().getId());
+			out.writeUTF(folder.getProperty());
+			writeValue(folder.getNewValue());
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void folderRemoved(Folder folder) {
+		if (replaying) {
+			return;
+		}
+		try {
+			out.writeByte(FOLDER_REMOVED);
+			out.writeInt(folder.getId());
+			endRecord();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// decoding
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		switch (in.readByte()) {
+			case STRING: return readString(in);
+			case BOOLEAN: return in.readBoolean();
+			case INTEGER: return in.readInt();
+			case DATE: return new Date(in.readLong());
+			default: return null;
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b= new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static String readOptionalString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? readString(in) : null;
+	}
+
+	private static URI toURI(String s) {
+		try {
+			return s!=null ? new URI(s) : null;
+		} catch (URISyntaxException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static long toTime(Object o) {
+		return o!=null ? ((Date)o).getTime() : Action.UNSET_DATE;
+	}
+
+	private void apply(DataInputStream in) throws IOException {
+		byte type= in.readByte();
+		switch (type) {
+			case FOLDER_ADDED: {
+				int id= in.readInt();
+				FolderType t= FolderType.valueOf(in.readUTF());
+				model.createFolder(id, readString(in), t);
+				break;
+			}
+			case FOLDER_MODIFIED: {
+				Folder f= model.getFolder(in.readInt());
+				String p= in.readUTF();
+				Object v= readValue(in);
+				if (f==null) {
+					break;
+				}
+				if ("name".equals(p)) {
+					f.rename((String)v);
+				} else if ("description".equals(p)) {
+					f.setDescription((String)v);
+				} else if ("closed".equals(p)) {
+					f.setClosed((Boolean)v);
+				} else if ("goal".equals(p) && f instanceof Project) {
+					((Project)f).setGoal((String)v);
+				}
+				break;
+			}
+			case FOLDER_REMOVED: {
+				Folder f= model.getFolder(in.readInt());
+				if (f!=null) {
+					model.removeFolder(f);
+				}
+				break;
+			}
+			case ACTION_ADDED: {
+				Folder f= model.getFolder(in.readInt());
+				int index= in.readInt();
+				int id= in.readInt();
+				Action a= model.getAction(id);
+				if (a==null) {
+					a= new Action(id, in.readLong(), in.readLong(), readOptionalString(in));
+					String s= readOptionalString(in);
+					a.setResolution(s!=null ? Resolution.valueOf(s) : null);
+					s= readOptionalString(in);
+					a.setPriority(s!=null ? Priority.valueOf(s) : null);
+					s= readOptionalString(in);
+					a.setType(s!=null ? ActionType.valueOf(s) : null);
+					a.setUrl(toURI(readOptionalString(in)));
+					int p= in.readInt();
+					a.setProject(p>=0 ? p : null);
+					a.setQueued(in.readBoolean());
+					a.setRemindTime(in.readLong());
+					a.setStartTime(in.readLong());
+					a.setDueTime(in.readLong());
+					model.reserveActionID(id);
+				}
+				if (f!=null && !f.contains(a)) {
+					f.add(Math.max(0, Math.min(index, f.size())), a);
+				}
+				break;
+			}
+			case ACTION_REMOVED: {
+				Folder f= model.getFolder(in.readInt());
+				Action a= model.getAction(in.readInt());
+				if (f!=null && a!=null) {
+					f.remove(a);
+				}
+				break;
+			}
+			case ACTION_MODIFIED: {
+				Action a= model.getAction(in.readInt());
+				String p= in.readUTF();
+				Object v= readValue(in);
+				if (a!=null) {
+					modify(a, p, v);
+					if (Action.RESOLUTION_PROPERTY_NAME.equals(p)) {
+						a.setResolvedTime(in.readLong());
+					}
+				}
+				break;
+			}
+			case ORDER: {
+				Folder f= model.getFolder(in.readInt());
+				int[] ids= new int[in.readInt()];
+				for (int i = 0; i < ids.length; i++) {
+					ids[i]= in.readInt();
+				}
+				if (f!=null) {
+					f.reorder(ids);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown change log record type "+type+".");
+		}
+	}
+
+	private static void modify(Action a, String p, Object v) {
+		if (Action.DESCRIPTION_PROPERTY_NAME.equals(p)) {
+			a.setDescription((String)v);
+		} else if (Action.RESOLUTION_PROPERTY_NAME.equals(p)) {
+			a.setResolution(v!=null ? Resolution.valueOf((String)v) : null);
+		} else if (Action.PRIORITY_PROPERTY_NAME.equals(p)) {
+			a.setPriority(v!=null ? Priority.valueOf((String)v) : null);
+		} else if (Action.PROJECT_PROPERTY_NAME.equals(p)) {
+			a.setProject((Integer)v);
+		} else if (Action.QUEUED_PROPERTY_NAME.equals(p)) {
+			a.setQueued((Boolean)v);
+		} else if (Action.REMIND_PROPERTY_NAME.equals(p)) {
+			a.setRemindTime(toTime(v));
+		} else if (Action.START_PROPERTY_NAME.equals(p)) {
+			a.setStartTime(toTime(v));
+		} else if (Action.DUE_PROPERTY_NAME.equals(p)) {
+			a.setDueTime(toTime(v));
+		} else if ("type".equals(p)) {
+			a.setType(v!=null ? ActionType.valueOf((String)v) : null);
+		} else if ("url".equals(p)) {
+			a.setUrl(toURI((String)v));
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.EventObject;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Consolidated event, which describes all action changes made during one batch of changes.
+ * 
+ * @author ikesan
+ *
+ */
+public class ChangeSetEvent extends EventObject {
+
+	private static final long serialVersionUID = 1L;
+	
+	private Set<Folder> folders= new LinkedHashSet<Folder>();
+	private Set<Action> actions= new LinkedHashSet<Action>();
+	private int eventCount=0;
+	private boolean recycled=true;
+
+	public ChangeSetEvent(GTDModel model) {
+		super(model);
+	}
+	
+	void add(ActionEvent e) {
+		folders.add((Folder)e.getSource());
+		if (e.getAction()!=null) {
+			actions.add(e.getAction());
+		}
+		recycled&= e.isRecycled();
+		eventCount++;
+	}
+	
+	void add(Folder orderChanged) {
+		folders.add(orderChanged);
+		recycled=false;
+		eventCount++;
+	}
+	
+	public GTDModel getModel() {
+		return (GTDModel)getSource();
+	}
+	
+	/**
+	 * @return folders, which had actions added, removed, modified or reordered
+	 */
+	public Folder[] getFolders() {
+		return folders.toArray(new Folder[folders.size()]);
+	}
+	
+	public boolean contains(Folder f) {
+		return folders.contains(f);
+	}
+	
+	/**
+	 * @return actions, which were added, removed or modified
+	 */
+	public Action[] getActions() {
+		return actions.toArray(new Action[actions.size()]);
+	}
+	
+	/**
+	 * @return number of individual events collected in this change set
+	 */
+	public int getEventCount() {
+		return eventCount;
+	}
+	
+	/**
+	 * @return <code>true</code> if all collected events are recycled, that is rethrown by meta folders
+	 */
+	public boolean isRecycled() {
+		return recycled;
+	}
+	
+	public boolean isEmpty() {
+		return eventCount==0;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb= new StringBuilder();
+		sb.append("ChangeSetEvent={events=");
+		sb.append(eventCount);
+		sb.append(", folders=");
+		sb.append(folders.size());
+		sb.append(", actions=");
+		sb.append(actions.size());
+		sb.append(", recycled=");
+		sb.append(recycled);
+		sb.append("}");
+		return sb.toString();
+	}
+
+}
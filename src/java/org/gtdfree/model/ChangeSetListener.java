@@ -0,0 +1,35 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.EventListener;
+
+/**
+ * Optional interface for folder and model listeners. During batch of changes (see {@link GTDModel#beginBatch()})
+ * listener implementing this interface does not receive individual action events (added, removed, modified,
+ * order changed), instead it receives single {@link ChangeSetEvent} when batch is committed.
+ * Folder events (added, modified, removed) are always delivered immediately.
+ * 
+ * @author ikesan
+ *
+ */
+public interface ChangeSetListener extends EventListener {
+	public void changeSetCommitted(ChangeSetEvent e);
+}
@@ -0,0 +1,283 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes XML data file in UTF-8 directly into byte buffer, which is written to file channel
+ * or output stream when full. Element and attribute names are encoded once, attribute values
+ * are escaped and encoded in single pass, which copies plain ASCII characters without any checks
+ * other than one table lookup.
+ * <p>
+ * Descriptions are escaped in Java style, same as by {@link org.gtdfree.ApplicationHelper#escapeControls(String)},
+ * and then as XML attribute value, in same pass.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+final class DataFileWriter {
+
+	/**
+	 * Maximal number of bytes single character is encoded into.
+	 */
+	private static final int MAX_CHAR_BYTES= 6;
+
+	private static final byte[] HEX= "0123456789abcdef".getBytes();
+
+	/**
+	 * Characters, which are written as they are, when not escaping controls.
+	 */
+	private static final boolean[] PLAIN= new boolean[128];
+	/**
+	 * Characters, which are written as they are, when escaping controls.
+	 */
+	private static final boolean[] PLAIN_TEXT= new boolean[128];
+
+	static {
+		for (int i = 0; i < 128; i++) {
+			PLAIN[i]= i!='&' && i!='<' && i!='>' && i!='"';
+			PLAIN_TEXT[i]= PLAIN[i] && i>=' ' && i!=127 && i!='\\';
+		}
+	}
+
+	/**
+	 * Encodes ASCII text, such as element or attribute names.
+	 */
+	static byte[] ascii(String s) {
+		byte[] b= new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i]= (byte)s.charAt(i);
+		}
+		return b;
+	}
+
+	private final OutputStream out;
+	private final FileChannel channel;
+	private final byte[] buf;
+	private final ByteBuffer buffer;
+	private int pos;
+	private long written;
+
+	/**
+	 * Creates writer, which writes trough file channel if stream is file stream.
+	 */
+	DataFileWriter(OutputStream out, int bufferSize) {
+		buf= new byte[Math.max(bufferSize, 256)];
+		buffer= ByteBuffer.wrap(buf);
+		if (out instanceof FileOutputStream) {
+			this.channel= ((FileOutputStream)out).getChannel();
+			this.out= null;
+		} else {
+			this.channel= null;
+			this.out= out;
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far, including those still in buffer
+	 */
+	long getWritten() {
+		return written+pos;
+	}
+
+	/**
+	 * Writes buffered bytes to stream or channel. Stream is also flushed.
+	 */
+	void flush() throws IOException {
+		drain();
+		if (out!=null) {
+			out.flush();
+		}
+	}
+
+	private void drain() throws IOException {
+		if (pos==0) {
+			return;
+		}
+		if (channel!=null) {
+			buffer.limit(pos);
+			buffer.position(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} else {
+			out.write(buf, 0, pos);
+		}
+		written+=pos;
+		pos=0;
+	}
+
+	private void ensure(int n) throws IOException {
+		if (buf.length-pos<n) {
+			drain();
+		}
+	}
+
+	/**
+	 * Writes bytes, which are already encoded.
+	 */
+	void raw(byte[] b) throws IOException {
+		if (b.length>buf.length-pos) {
+			drain();
+			if (b.length>buf.length) {
+				if (channel!=null) {
+					ByteBuffer bb= ByteBuffer.wrap(b);
+					while (bb.hasRemaining()) {
+						channel.write(bb);
+					}
+				} else {
+					out.write(b);
+				}
+				written+=b.length;
+				return;
+			}
+		}
+		System.arraycopy(b, 0, buf, pos, b.length);
+		pos+=b.length;
+	}
+
+	void raw(byte b) throws IOException {
+		ensure(1);
+		buf[pos++]=b;
+	}
+
+	/**
+	 * Writes long number in decimal.
+	 */
+	void number(long l) throws IOException {
+		if (l==Long.MIN_VALUE) {
+			text(Long.toString(l), false);
+			return;
+		}
+		ensure(20);
+		if (l<0) {
+			buf[pos++]='-';
+			l=-l;
+		}
+		int start= pos;
+		do {
+			buf[pos++]= (byte)('0'+(int)(l%10));
+			l/=10;
+		} while (l>0);
+		// digits were written in reverse
+		for (int i = start, j = pos-1; i < j; i++, j--) {
+			byte b= buf[i];
+			buf[i]=buf[j];
+			buf[j]=b;
+		}
+	}
+
+	/**
+	 * Writes attribute value, escaped for XML.
+	 * @param controls if <code>true</code> then control characters and backslash are also escaped in Java style
+	 */
+	void text(String s, boolean controls) throws IOException {
+		boolean[] plain= controls ? PLAIN_TEXT : PLAIN;
+		int length= s.length();
+		int i=0;
+		while (i<length) {
+			int n= Math.min(length-i, (buf.length-pos)/MAX_CHAR_BYTES);
+			if (n==0) {
+				drain();
+				continue;
+			}
+			int end= i+n;
+			byte[] b= buf;
+			int p= pos;
+			while (i<end) {
+				char c= s.charAt(i++);
+				if (c<128 && plain[c]) {
+					b[p++]=(byte)c;
+					continue;
+				}
+				switch (c) {
+					case '&':
+						b[p++]='&'; b[p++]='a'; b[p++]='m'; b[p++]='p'; b[p++]=';';
+						continue;
+					case '<':
+						b[p++]='&'; b[p++]='l'; b[p++]='t'; b[p++]=';';
+						continue;
+					case '>':
+						b[p++]='&'; b[p++]='g'; b[p++]='t'; b[p++]=';';
+						continue;
+					case '"':
+						b[p++]='&'; b[p++]='q'; b[p++]='u'; b[p++]='o'; b[p++]='t'; b[p++]=';';
+						continue;
+				}
+				if (controls) {
+					byte e= 0;
+					switch (c) {
+						case '\b': e='b'; break;
+						case '\n': e='n'; break;
+						case '\t': e='t'; break;
+						case '\f': e='f'; break;
+						case '\r': e='r'; break;
+						case '\\': e='\\'; break;
+					}
+					if (e!=0) {
+						b[p++]='\\';
+						b[p++]=e;
+						continue;
+					}
+					if (Character.isISOControl(c)) {
+						b[p++]='\\';
+						b[p++]='u';
+						b[p++]=HEX[(c>>12)&0xF];
+						b[p++]=HEX[(c>>8)&0xF];
+						b[p++]=HEX[(c>>4)&0xF];
+						b[p++]=HEX[c&0xF];
+						continue;
+					}
+				}
+				if (c<0x80) {
+					b[p++]=(byte)c;
+				} else if (c<0x800) {
+					b[p++]=(byte)(0xC0|(c>>6));
+					b[p++]=(byte)(0x80|(c&0x3F));
+				} else if (Character.isHighSurrogate(c) && i<length && Character.isLowSurrogate(s.charAt(i))) {
+					if (i==end) {
+						// pair needs one more character than counted, there is room for it
+						end++;
+					}
+					int cp= Character.toCodePoint(c, s.charAt(i++));
+					b[p++]=(byte)(0xF0|(cp>>18));
+					b[p++]=(byte)(0x80|((cp>>12)&0x3F));
+					b[p++]=(byte)(0x80|((cp>>6)&0x3F));
+					b[p++]=(byte)(0x80|(cp&0x3F));
+				} else if (c>=Character.MIN_SURROGATE && c<=Character.MAX_SURROGATE) {
+					// same as replacement by UTF-8 encoder
+					b[p++]='?';
+				} else {
+					b[p++]=(byte)(0xE0|(c>>12));
+					b[p++]=(byte)(0x80|((c>>6)&0x3F));
+					b[p++]=(byte)(0x80|(c&0x3F));
+				}
+			}
+			pos=p;
+		}
+	}
+
+}
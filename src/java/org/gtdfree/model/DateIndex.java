@@ -0,0 +1,116 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Orders actions by one of their dates, for range queries.
+ * Entry is located by date value under which it was added, so when date changes
+ * caller must remove action with old value before adding it with new one.
+ *
+ * @author ikesan
+ *
+ */
+final class DateIndex {
+
+	private static final class Entry {
+		final long time;
+		final int id;
+		final Action action;
+		public Entry(long time, int id, Action action) {
+			this.time=time;
+			this.id=id;
+			this.action=action;
+		}
+	}
+
+	private static final Comparator<Entry> COMPARATOR= new Comparator<Entry>() {
+		public int compare(Entry o1, Entry o2) {
+			if (o1.time!=o2.time) {
+				return o1.time<o2.time ? -1 : 1;
+			}
+			return o1.id<o2.id ? -1 : (o1.id==o2.id ? 0 : 1);
+		}
+	};
+
+	private TreeSet<Entry> entries= new TreeSet<Entry>(COMPARATOR);
+
+	public void put(long time, Action a) {
+		if (time!=Action.UNSET_DATE) {
+			entries.add(new Entry(time, a.getId(), a));
+		}
+	}
+
+	public void remove(long time, Action a) {
+		if (time!=Action.UNSET_DATE) {
+			entries.remove(new Entry(time, a.getId(), null));
+		}
+	}
+
+	/**
+	 * Returns actions with date within <code>from</code> inclusive and <code>to</code> exclusive, ordered by date.
+	 */
+	public Action[] range(long from, long to) {
+		if (from>=to) {
+			return new Action[0];
+		}
+		NavigableSet<Entry> s= entries.subSet(new Entry(from, Integer.MIN_VALUE, null), true, new Entry(to, Integer.MIN_VALUE, null), false);
+		Action[] a= new Action[s.size()];
+		int i=0;
+		for (Entry e : s) {
+			a[i++]=e.action;
+		}
+		return a;
+	}
+
+	/**
+	 * Returns number of actions with date within <code>from</code> inclusive and <code>to</code> exclusive,
+	 * if there are at most <code>limit</code> of them. Counting walks the range, so it stops after
+	 * <code>limit</code> actions and returns size of index, which is upper bound of count.
+	 */
+	public int count(long from, long to, int limit) {
+		if (from>=to) {
+			return 0;
+		}
+		Iterator<Entry> it= entries.subSet(new Entry(from, Integer.MIN_VALUE, null), true, new Entry(to, Integer.MIN_VALUE, null), false).iterator();
+		int c=0;
+		while (it.hasNext()) {
+			if (c==limit) {
+				return entries.size();
+			}
+			it.next();
+			c++;
+		}
+		return c;
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+}
@@ -20,10 +20,12 @@
 package org.gtdfree.model;
 
 /**
+ * Accepts actions, which description contains criterion.
+ * When filtering whole folder, candidates are resolved trough model's full-text index.
  * @author ikesan
  *
  */
-public class DescriptionFilter implements ActionFilter {
+public class DescriptionFilter implements IndexedActionFilter {
 	
 	private String criterion;
 	private boolean caseSensitive=false;
@@ -31,19 +33,57 @@ public class DescriptionFilter implements ActionFilter {
 	public DescriptionFilter(String s, boolean b) {
 		criterion=s;
 		caseSensitive=b;
-		if (!caseSensitive) {
-			criterion= criterion.toLowerCase();
+		if (!caseSensitive && criterion!=null) {
+			criterion= TextIndex.toLowerCase(criterion);
 		}
 	}
 
+	static boolean contains(String description, String criterion, boolean caseSensitive) {
+		if (description==null) {
+			return false;
+		}
+		if (caseSensitive) {
+			return description.contains(criterion);
+		}
+		return TextIndex.containsIgnoreCase(description, criterion);
+	}
+
 	public boolean isAcceptable(Folder f, Action a) {
 		if (criterion==null) {
 			return true;
 		}
-		if (caseSensitive) {
-			return a!=null && a.getDescription()!=null && a.getDescription().contains(criterion);
+		return a!=null && contains(a.getDescription(), criterion, caseSensitive);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		return FilterPlan.select(this, f);
+	}
+	
+	/**
+	 * Returns actions containing criterion, if criterion is long enough to be resolved by index.
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		if (criterion==null || criterion.length()<TextIndex.GRAM) {
+			return null;
+		}
+		return m.actionsContaining(criterion, caseSensitive);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		if (criterion==null || criterion.length()<TextIndex.GRAM) {
+			return -1;
 		}
-		return a!=null && a.getDescription()!=null && a.getDescription().toLowerCase().contains(criterion);
+		return m.countContainingCandidates(criterion);
 	}
 	
 	@Override
@@ -51,11 +91,20 @@ public class DescriptionFilter implements ActionFilter {
 		if (obj instanceof DescriptionFilter) {
 			DescriptionFilter f= (DescriptionFilter)obj;
 			
-			return f.caseSensitive==caseSensitive && f.criterion==criterion;
+			return f.caseSensitive==caseSensitive && (criterion==null ? f.criterion==null : criterion.equals(f.criterion));
 			
 		}
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return (criterion!=null ? criterion.hashCode() : 0) + (caseSensitive ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return "DescriptionFilter{"+criterion+(caseSensitive ? ", case sensitive}" : "}");
+	}
 
 }
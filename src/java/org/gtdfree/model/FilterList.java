@@ -23,11 +23,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Allows aggregation of filter.
+ * Allows aggregation of filter. When selecting from folder, list is compiled
+ * with {@link GTDModel#plan(ActionFilter)}, which picks index backed filter to provide candidates.
  * @author ikesan
  *
  */
-public class FilterList implements ActionFilter {
+public class FilterList implements IndexedActionFilter {
 
 	private List<ActionFilter> filters= new ArrayList<ActionFilter>(5);
 	
@@ -60,6 +61,33 @@ public class FilterList implements ActionFilter {
 		return filters.toArray(new ActionFilter[filters.size()]);
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		if (f.getParent()==null) {
+			return null;
+		}
+		return f.getParent().plan(this).select(f);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		return m.plan(this).candidates(m);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		return m.plan(this).estimate(m);
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		
@@ -72,4 +100,14 @@ public class FilterList implements ActionFilter {
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return filters.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "FilterList"+filters;
+	}
+
 }
@@ -0,0 +1,327 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiled form of filter chain. Most selective index backed filter is chosen as driver,
+ * which provides candidates, remaining filters are tested on candidates as residual predicates,
+ * cheapest first. If folder is smaller than estimated number of candidates, folder is scanned instead.
+ * <p>
+ * Plans are created and cached by {@link GTDModel#plan(ActionFilter)}.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+public final class FilterPlan implements IndexedActionFilter {
+
+	/**
+	 * Executions longer than this, in milliseconds, are reported with plan description on standard error.
+	 */
+	public static final long SLOW_EXECUTION= 100;
+
+	/**
+	 * Relative cost of testing single action with filter, used to order residual predicates.
+	 */
+	static int cost(ActionFilter f) {
+		if (f instanceof ProjectFilter || f instanceof PriorityFilter || f instanceof RemindFilter) {
+			return 1;
+		}
+		if (f instanceof DescriptionFilter) {
+			return 10;
+		}
+		return 5;
+	}
+
+	/**
+	 * Selects actions from folder by filter's candidates, if there are less candidates than actions in folder.
+	 * @return actions in folder order or <code>null</code> if folder should be scanned
+	 */
+	static Action[] select(IndexedActionFilter filter, Folder f) {
+		GTDModel m= f.getParent();
+		if (m==null) {
+			return null;
+		}
+		int e= filter.estimate(m);
+		if (e<0 || e>=f.size()) {
+			return null;
+		}
+		Action[] a= filter.candidates(m);
+		return a!=null ? f.select(a) : null;
+	}
+
+	private final GTDModel model;
+	private final ActionFilter[] filters;
+	private final IndexedActionFilter driver;
+	private final ActionFilter[] residual;
+	private final int estimate;
+
+	private long executions;
+	private long scans;
+	private long examined;
+	private long returned;
+	private long time;
+	private long lastTime;
+	private boolean lastScan;
+
+	FilterPlan(GTDModel model, ActionFilter[] filters) {
+		this.model=model;
+		this.filters=filters;
+
+		IndexedActionFilter d=null;
+		int est=-1;
+		for (ActionFilter f : filters) {
+			if (f instanceof IndexedActionFilter) {
+				int e= ((IndexedActionFilter)f).estimate(model);
+				if (e>=0 && (est<0 || e<est)) {
+					d=(IndexedActionFilter)f;
+					est=e;
+				}
+			}
+		}
+		driver=d;
+		estimate=est;
+
+		List<ActionFilter> l= new ArrayList<ActionFilter>(filters.length);
+		for (ActionFilter f : filters) {
+			if (f!=driver) {
+				l.add(f);
+			}
+		}
+		residual= l.toArray(new ActionFilter[l.size()]);
+		// stable sort, filters with same cost keep order in which they were added
+		Arrays.sort(residual, new Comparator<ActionFilter>() {
+			public int compare(ActionFilter o1, ActionFilter o2) {
+				return cost(o1)-cost(o2);
+			}
+		});
+	}
+
+	/**
+	 * @return driver filter, which provides candidates, or <code>null</code> if none of filters is index backed
+	 */
+	public IndexedActionFilter getDriver() {
+		return driver;
+	}
+
+	/**
+	 * @return filters tested on candidates, in order of testing
+	 */
+	public ActionFilter[] getResidual() {
+		return residual.clone();
+	}
+
+	private boolean isResidualAcceptable(Folder f, Action a) {
+		for (ActionFilter r : residual) {
+			if (!r.isAcceptable(f, a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.ActionFilter#isAcceptable(org.gtdfree.model.Folder, org.gtdfree.model.Action)
+	 */
+	@Override
+	public boolean isAcceptable(Folder f, Action a) {
+		if (driver!=null && !driver.isAcceptable(f, a)) {
+			return false;
+		}
+		return isResidualAcceptable(f, a);
+	}
+
+	/**
+	 * Selects accepted actions from folder, trough driver's index or by scanning folder,
+	 * whichever is expected to examine less actions. Never returns <code>null</code>.
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		long t= System.nanoTime();
+		Action[] c= null;
+		if (driver!=null) {
+			c= driver.select(f);
+		}
+		boolean scan= c==null;
+		int ex;
+		List<Action> l;
+		if (scan) {
+			Action[] aa= f.actions();
+			ex= aa.length;
+			l= new ArrayList<Action>();
+			for (Action a : aa) {
+				if (isAcceptable(f, a)) {
+					l.add(a);
+				}
+			}
+		} else {
+			ex= c.length;
+			l= new ArrayList<Action>(c.length);
+			for (Action a : c) {
+				if (isResidualAcceptable(f, a)) {
+					l.add(a);
+				}
+			}
+		}
+		t= System.nanoTime()-t;
+		synchronized (this) {
+			executions++;
+			if (scan) {
+				scans++;
+			}
+			examined+=ex;
+			returned+=l.size();
+			time+=t;
+			lastTime=t;
+			lastScan=scan;
+		}
+		if (t>SLOW_EXECUTION*1000000) {
+			System.err.println("Slow filter in folder "+f.getName()+": "+explain());
+		}
+		return l.toArray(new Action[l.size()]);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		if (driver==null) {
+			return null;
+		}
+		Action[] c= driver.candidates(m);
+		if (c==null) {
+			return null;
+		}
+		List<Action> l= new ArrayList<Action>(c.length);
+		for (Action a : c) {
+			if (isResidualAcceptable(a.getFolder(), a)) {
+				l.add(a);
+			}
+		}
+		return l.toArray(new Action[l.size()]);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		return driver!=null ? driver.estimate(m) : -1;
+	}
+
+	/**
+	 * @return number of times plan has been executed with {@link #select(Folder)}
+	 */
+	public synchronized long getExecutions() {
+		return executions;
+	}
+
+	/**
+	 * @return number of executions, which scanned folder instead of using driver's index
+	 */
+	public synchronized long getScans() {
+		return scans;
+	}
+
+	/**
+	 * @return number of actions tested by all executions
+	 */
+	public synchronized long getExamined() {
+		return examined;
+	}
+
+	/**
+	 * @return number of actions returned by all executions
+	 */
+	public synchronized long getReturned() {
+		return returned;
+	}
+
+	/**
+	 * @return total time of all executions in nanoseconds
+	 */
+	public synchronized long getTime() {
+		return time;
+	}
+
+	/**
+	 * Describes plan and its counters, for example:
+	 * <pre>driver= DescriptionFilter{meet} estimate= 120; residual= [ProjectFilter{3}]; executions= 2 scans= 0 examined= 240 returned= 18 time= 0.3 ms last= index 0.1 ms</pre>
+	 * @return human readable plan description
+	 */
+	public synchronized String explain() {
+		StringBuilder sb= new StringBuilder(128);
+		sb.append("driver= ");
+		if (driver!=null) {
+			sb.append(driver);
+			sb.append(" estimate= ");
+			sb.append(estimate);
+		} else {
+			sb.append("none, scan");
+		}
+		sb.append("; residual= ");
+		sb.append(Arrays.toString(residual));
+		sb.append("; executions= ");
+		sb.append(executions);
+		sb.append(" scans= ");
+		sb.append(scans);
+		sb.append(" examined= ");
+		sb.append(examined);
+		sb.append(" returned= ");
+		sb.append(returned);
+		sb.append(" time= ");
+		sb.append(time/100000/10.0);
+		sb.append(" ms");
+		if (executions>0) {
+			sb.append(" last= ");
+			sb.append(lastScan ? "scan " : "index ");
+			sb.append(lastTime/100000/10.0);
+			sb.append(" ms");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "FilterPlan{"+explain()+"}";
+	}
+
+	/**
+	 * @return model for which plan was compiled
+	 */
+	public GTDModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return filters from which plan was compiled
+	 */
+	public ActionFilter[] getFilters() {
+		return filters.clone();
+	}
+
+}
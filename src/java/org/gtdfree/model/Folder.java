@@ -20,12 +20,15 @@
 package org.gtdfree.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-
-import javax.swing.event.EventListenerList;
+import java.util.Map;
+import java.util.Set;
 
 import org.gtdfree.model.Action.Resolution;
 
@@ -37,12 +40,21 @@ public class Folder implements Iterable<Action> {
 	};
 
 	private List<Action> actions = new ArrayList<Action>();
+	/**
+	 * Same actions as in <code>actions</code> list, used for fast membership checks.
+	 */
+	private Set<Action> members = Collections.newSetFromMap(new IdentityHashMap<Action, Boolean>());
 
 	private GTDModel parent;
 
 	private String name;
 	private int id;
-	private EventListenerList listeners = new EventListenerList();
+	private static final FolderListener[] NO_LISTENERS= new FolderListener[0];
+
+	/**
+	 * Copy-on-write array, fire methods iterate it without locking or copying.
+	 */
+	private volatile FolderListener[] listeners = NO_LISTENERS;
 
 	private FolderType type;
 	private Comparator<Action> comparator;
@@ -82,12 +94,50 @@ public class Folder implements Iterable<Action> {
 		this.type = type;
 	}
 
-	public void addFolderListener(FolderListener l) {
-		listeners.add(FolderListener.class, l);
+	public synchronized void addFolderListener(FolderListener l) {
+		if (l==null) {
+			return;
+		}
+		FolderListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+		ll[ll.length-1]=l;
+		listeners=ll;
+	}
+
+	public synchronized void removeFolderListener(FolderListener l) {
+		// last added listener is removed first, same as EventListenerList
+		for (int i = listeners.length-1; i >= 0; i--) {
+			if (listeners[i]==l) {
+				if (listeners.length==1) {
+					listeners=NO_LISTENERS;
+				} else {
+					FolderListener[] ll= new FolderListener[listeners.length-1];
+					System.arraycopy(listeners, 0, ll, 0, i);
+					System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+					listeners=ll;
+				}
+				return;
+			}
+		}
 	}
 
-	public void removeFolderListener(FolderListener l) {
-		listeners.remove(FolderListener.class, l);
+	/**
+	 * Returns true if listener is collecting changes until running batch of changes is committed.
+	 */
+	private boolean isDeferred(FolderListener l) {
+		return l instanceof ChangeSetListener && parent!=null && parent.isBatch();
+	}
+
+	void fireChangeSet(ChangeSetEvent e) {
+		FolderListener[] l = listeners;
+		for (FolderListener listener : l) {
+			if (listener instanceof ChangeSetListener) {
+				try {
+					((ChangeSetListener)listener).changeSetCommitted(e);
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
 	}
 
 	private void fireElementAdded(Action i) {
@@ -97,9 +147,15 @@ public class Folder implements Iterable<Action> {
 		if (i.isOpen()) {
 			openCount++;
 		}
+		FolderListener[] l = listeners;
+		if (l.length==0) {
+			return;
+		}
 		FolderEvent f= new FolderEvent(this,i,recycled);
-		FolderListener[] l = listeners.getListeners(FolderListener.class);
 		for (FolderListener listener : l) {
+			if (isDeferred(listener)) {
+				continue;
+			}
 			try {
 				listener.elementAdded(f);
 			} catch (Exception e) {
@@ -115,9 +171,15 @@ public class Folder implements Iterable<Action> {
 		if (i.isOpen()) {
 			openCount--;
 		}
+		FolderListener[] l = listeners;
+		if (l.length==0) {
+			return;
+		}
 		FolderEvent f= new FolderEvent(this,i,recycled);
-		FolderListener[] l = listeners.getListeners(FolderListener.class);
 		for (FolderListener listener : l) {
+			if (isDeferred(listener)) {
+				continue;
+			}
 			try {
 				listener.elementRemoved(f);
 			} catch (Exception e) {
@@ -134,22 +196,25 @@ public class Folder implements Iterable<Action> {
 		if ((oldVal==null && newVal==null) || (oldVal!=null && oldVal.equals(newVal))) {
 			return;
 		}
-		fireElementModified(new ActionEvent(this,a,property,oldVal,newVal,recycled));
-	}
-
-	private void fireElementModified(ActionEvent i) {
-		if (!actions.contains(i.getAction())) {
+		if (!members.contains(a)) {
 			return;
 		}
-		if (i.getProperty().equals("resolution")) {
-			if (Resolution.OPEN==i.getOldValue()) {
+		if (property.equals(Action.RESOLUTION_PROPERTY_NAME)) {
+			if (Resolution.OPEN==oldVal) {
 				openCount--;
-			} else if (Resolution.OPEN==i.getNewValue()) {
+			} else if (Resolution.OPEN==newVal) {
 				openCount++;
 			}
 		}
-		FolderListener[] l = listeners.getListeners(FolderListener.class);
+		FolderListener[] l = listeners;
+		if (l.length==0) {
+			return;
+		}
+		ActionEvent i= new ActionEvent(this,a,property,oldVal,newVal,recycled);
 		for (FolderListener listener : l) {
+			if (isDeferred(listener)) {
+				continue;
+			}
 			try {
 				listener.elementModified(i);
 			} catch (Exception e) {
@@ -159,8 +224,11 @@ public class Folder implements Iterable<Action> {
 	}
 
 	private void fireOrderChanged() {
-		FolderListener[] l = listeners.getListeners(FolderListener.class);
+		FolderListener[] l = listeners;
 		for (FolderListener listener : l) {
+			if (isDeferred(listener)) {
+				continue;
+			}
 			try {
 				listener.orderChanged(this);
 			} catch (Exception e) {
@@ -169,38 +237,114 @@ public class Folder implements Iterable<Action> {
 		}
 	}
 
+	/**
+	 * Returns true if folder has comparator and actions are kept in order of comparator.
+	 * While suspended for multiple changes order is not maintained, folder is sorted once when resumed.
+	 */
+	private boolean isSorted() {
+		return getComparator()!=null && !suspentedForMultipleChanges;
+	}
+
 	private void sort() {
-		if (getComparator()!=null && !suspentedForMultipleChanges) {
+		if (isSorted()) {
 			Collections.sort(actions, getComparator());
 		}
 	}
-	
+
+	/**
+	 * Binary search for index after last action, which is not greater then provided action.
+	 * Actions must be sorted.
+	 */
+	private int insertionPoint(Action a) {
+		int low= 0;
+		int high= actions.size();
+		while (low<high) {
+			int mid= (low+high)>>>1;
+			if (comparator.compare(actions.get(mid), a)<=0) {
+				low= mid+1;
+			} else {
+				high= mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds index of action. In sorted folder action is first searched among actions with same sort key,
+	 * falls back to linear search if sort key of action has changed in the meantime.
+	 */
+	private int positionOf(Action a) {
+		if (isSorted()) {
+			int low= 0;
+			int high= actions.size();
+			while (low<high) {
+				int mid= (low+high)>>>1;
+				if (comparator.compare(actions.get(mid), a)<0) {
+					low= mid+1;
+				} else {
+					high= mid;
+				}
+			}
+			for (int i = low; i < actions.size() && comparator.compare(actions.get(i), a)==0; i++) {
+				if (actions.get(i)==a) {
+					return i;
+				}
+			}
+		}
+		return indexOf(a);
+	}
+
 	synchronized void add(int i, Action a) {
-		if (actions.contains(a)) {
+		if (!members.add(a)) {
 			return;
 		}
-		actions.add(i, a);
+		if (isSorted()) {
+			actions.add(insertionPoint(a), a);
+		} else {
+			actions.add(i, a);
+		}
 		if (!isMeta()) a.setFolder(this);
-		sort();
 		fireElementAdded(a);
 	}
 
 	synchronized void add(Action a) {
-		if (actions.contains(a)) {
+		if (!members.add(a)) {
 			return;
 		}
-		actions.add(a);
+		if (isSorted()) {
+			actions.add(insertionPoint(a), a);
+		} else {
+			actions.add(a);
+		}
 		if (!isMeta()) a.setFolder(this);
-		sort();
 		fireElementAdded(a);
 	}
 
 	synchronized boolean remove(Action i) {
-		boolean b= actions.remove(i);
-		if (b) {
-			fireElementRemoved(i);
+		if (!members.remove(i)) {
+			return false;
 		}
-		return b;
+		actions.remove(positionOf(i));
+		fireElementRemoved(i);
+		return true;
+	}
+
+	/**
+	 * Moves action to proper position in sorted folder, after sort key of action has been changed.
+	 * Does nothing if action is not in this folder or folder is not sorted.
+	 * @param a action with changed sort key
+	 */
+	synchronized void reposition(Action a) {
+		if (!isSorted() || !members.contains(a)) {
+			return;
+		}
+		int i= indexOf(a);
+		if ((i==0 || comparator.compare(actions.get(i-1), a)<=0)
+				&& (i==actions.size()-1 || comparator.compare(a, actions.get(i+1))<=0)) {
+			return;
+		}
+		actions.remove(i);
+		actions.add(insertionPoint(a), a);
 	}
 
 	/**
@@ -301,6 +445,34 @@ public class Folder implements Iterable<Action> {
 			}
 		}
 	}
+	/**
+	 * Puts actions in order of provided IDs, actions not listed keep their order after listed ones.
+	 * @param ids action IDs in new order
+	 */
+	synchronized void reorder(int[] ids) {
+		Map<Integer, Action> byId= new HashMap<Integer, Action>(actions.size()*2);
+		for (Action a : actions) {
+			byId.put(a.getId(), a);
+		}
+		List<Action> l= new ArrayList<Action>(actions.size());
+		for (int id : ids) {
+			Action a= byId.remove(id);
+			if (a!=null) {
+				l.add(a);
+			}
+		}
+		for (Action a : actions) {
+			if (byId.containsKey(a.getId())) {
+				l.add(a);
+			}
+		}
+		if (!l.equals(actions)) {
+			actions.clear();
+			actions.addAll(l);
+			fireOrderChanged();
+		}
+	}
+
 	public boolean canMoveDown(Action a) {
 		if (a==null) {
 			return false;
@@ -358,6 +530,38 @@ public class Folder implements Iterable<Action> {
 		v.depart(this);
 	}
 
+	/**
+	 * Returns those of provided actions, which are in this folder, in folder order.
+	 * @param candidates actions to select from, ordered by ID
+	 * @return actions from this folder
+	 */
+	synchronized Action[] select(Action[] candidates) {
+		List<Action> l= new ArrayList<Action>(candidates.length);
+		for (Action a : candidates) {
+			if (members.contains(a)) {
+				l.add(a);
+			}
+		}
+		if (l.size()>1) {
+			if (isSorted()) {
+				Collections.sort(l, getComparator());
+			} else if (l.size()<actions.size()) {
+				// order of unsorted folder is only known by walking it
+				Set<Action> s= Collections.newSetFromMap(new IdentityHashMap<Action, Boolean>(l.size()*2));
+				s.addAll(l);
+				l.clear();
+				for (Action a : actions) {
+					if (s.contains(a)) {
+						l.add(a);
+					}
+				}
+			} else {
+				l= new ArrayList<Action>(actions);
+			}
+		}
+		return l.toArray(new Action[l.size()]);
+	}
+
 	public synchronized int indexOf(Action selectedAction) {
 		for (int i = 0; i < actions.size(); i++) {
 			if (actions.get(i)==selectedAction) {
@@ -375,7 +579,7 @@ public class Folder implements Iterable<Action> {
 	}
 	
 	public boolean contains(Action a) {
-		return actions.contains(a);
+		return members.contains(a);
 	}
 	
 	/**
@@ -423,6 +627,16 @@ public class Folder implements Iterable<Action> {
 		}
 	}
 
+	/**
+	 * Restores suspended state at the end of model batch and notifies listeners about new order.
+	 */
+	void endBatch(boolean suspended) {
+		setSuspentedForMultipleChanges(suspended);
+		if (isSorted()) {
+			fireOrderChanged();
+		}
+	}
+
 	public boolean isQueue() {
 		return type==FolderType.QUEUE;
 	}
@@ -468,6 +682,7 @@ public class Folder implements Iterable<Action> {
 		Action[] aa= actions();
 		
 		actions.clear();
+		members.clear();
 		
 		for (int i = 0; i < aa.length; i++) {
 			aa[i].getFolder().remove(aa[i]);
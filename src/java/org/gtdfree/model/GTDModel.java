@@ -28,29 +28,39 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.net.URL;
 import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.swing.event.EventListenerList;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.gtdfree.ApplicationHelper;
@@ -72,6 +82,11 @@ public class GTDModel implements Iterable<Folder> {
 				}
 			}
 		}
+		DataHeader(File file, String ver, Date mod) {
+			this.file=file;
+			version=ver;
+			modified=mod;
+		}
 		public DataHeader(File f) throws FileNotFoundException, XMLStreamException, javax.xml.stream.FactoryConfigurationError {
 			file=f;
 			
@@ -80,6 +95,18 @@ public class GTDModel implements Iterable<Folder> {
 			try {
 				
 				in=new BufferedInputStream(new FileInputStream(f));
+				
+				try {
+					if (BinarySnapshot.isBinary(in)) {
+						DataHeader dh= BinarySnapshot.readHeader(f, in);
+						version=dh.version;
+						modified=dh.modified;
+						return;
+					}
+				} catch (IOException e) {
+					throw new XMLStreamException(e);
+				}
+				
 				r = XMLInputFactory.newInstance().createXMLStreamReader(in);
 				r.nextTag();
 
@@ -102,12 +129,12 @@ public class GTDModel implements Iterable<Folder> {
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
-					if (in!=null) {
-						try {
-							in.close();
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
+				}
+				if (in!=null) {
+					try {
+						in.close();
+					} catch (Exception e) {
+						e.printStackTrace();
 					}
 				}
 			}
@@ -231,13 +258,29 @@ public class GTDModel implements Iterable<Folder> {
 
 	
 	class ModelListenerSupport implements GTDModelListener {
-		EventListenerList listeners= new EventListenerList();
+		/**
+		 * Copy-on-write array, events are fired without locking or copying.
+		 */
+		private volatile GTDModelListener[] listeners= new GTDModelListener[0];
 		
-		public void addlistener(GTDModelListener l) {
-			listeners.add(GTDModelListener.class,l);
-		}
-		public void removelistener(GTDModelListener l) {
-			listeners.remove(GTDModelListener.class,l);
+		public synchronized void addlistener(GTDModelListener l) {
+			if (l==null) {
+				return;
+			}
+			GTDModelListener[] ll= Arrays.copyOf(listeners, listeners.length+1);
+			ll[ll.length-1]=l;
+			listeners=ll;
+		}
+		public synchronized void removelistener(GTDModelListener l) {
+			for (int i = listeners.length-1; i >= 0; i--) {
+				if (listeners[i]==l) {
+					GTDModelListener[] ll= new GTDModelListener[listeners.length-1];
+					System.arraycopy(listeners, 0, ll, 0, i);
+					System.arraycopy(listeners, i+1, ll, i, ll.length-i);
+					listeners=ll;
+					return;
+				}
+			}
 		}
 		
 		void checkEvent(ActionEvent e) {
@@ -246,14 +289,47 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		
+		void updateViews(Action a, ActionEvent e) {
+			ActionView[] v= views;
+			for (int i = 0; i < v.length; i++) {
+				v[i].update(a, e);
+			}
+		}
+		
+		/**
+		 * Tests actions of modified folder again, since filters get action's folder.
+		 */
+		void updateViews(Folder f) {
+			ActionView[] v= views;
+			if (v.length==0) {
+				return;
+			}
+			for (Action a : f) {
+				for (int i = 0; i < v.length; i++) {
+					v[i].update(a, null);
+				}
+			}
+		}
+		
 		void updateMetaAdd(FolderEvent a) {
+			if (!a.getFolder().isMeta()) {
+				updateViews(a.getAction(), null);
+				actionIndex.put(a.getAction());
+				startIndex.put(a.getAction().getStartTime(), a.getAction());
+				dueIndex.put(a.getAction().getDueTime(), a.getAction());
+				if (textIndex!=null) {
+					textIndex.add(a.getAction().getId(), a.getAction().getDescription());
+				}
+			} else if (a.getFolder()==reminder) {
+				remindIndex.put(a.getAction().getRemindTime(), a.getAction());
+			}
 			if (a.getAction().isResolved()) {
 				resolved.add(a.getAction());
 			}
 			if (a.getAction().isDeleted()) {
 				deleted.add(a.getAction());
 			}
-			if (a.getAction().getRemind()!=null) {
+			if (a.getAction().getRemindTime()!=Action.UNSET_DATE) {
 				reminder.add(a.getAction());
 			}
 			if (a.getAction().getPriority()!=null && a.getAction().getPriority()!=Priority.None) {
@@ -266,15 +342,33 @@ public class GTDModel implements Iterable<Folder> {
 				getProject(a.getAction().getProject()).add(a.getAction());
 			}
 		}
+		private long toTime(Object date) {
+			return date!=null ? ((Date)date).getTime() : Action.UNSET_DATE;
+		}
 		private Project getProject(Integer project) {
 			return projects.get(project);
 		}
 		void updateMetaRemove(FolderEvent a) {
+			// action moved to other folder is added there first, so only drop it when leaving its own folder
+			if (!a.getFolder().isMeta() && a.getAction().getFolder()==a.getFolder()) {
+				ActionView[] v= views;
+				for (int i = 0; i < v.length; i++) {
+					v[i].remove(a.getAction());
+				}
+				actionIndex.remove(a.getAction().getId());
+				startIndex.remove(a.getAction().getStartTime(), a.getAction());
+				dueIndex.remove(a.getAction().getDueTime(), a.getAction());
+				if (textIndex!=null) {
+					textIndex.remove(a.getAction().getId(), a.getAction().getDescription());
+				}
+			} else if (a.getFolder()==reminder) {
+				remindIndex.remove(a.getAction().getRemindTime(), a.getAction());
+			}
 			if (a.getFolder()!=deleted && a.getAction().isDeleted()) {
 				deleted.remove(a.getAction());
 			}
 			if (a.getFolder()==deleted) {
-				if (a.getAction().getRemind()!=null) {
+				if (a.getAction().getRemindTime()!=Action.UNSET_DATE) {
 					reminder.remove(a.getAction());
 				}
 				if (a.getAction().getPriority()!=null && a.getAction().getPriority()!=Priority.None) {
@@ -290,7 +384,7 @@ public class GTDModel implements Iterable<Folder> {
 			/*if (!a.getAction().isOpen()) {
 				resolved.remove(a.getAction());
 			}
-			if (a.getAction().getRemind()!=null) {
+			if (a.getAction().getRemindTime()!=Action.UNSET_DATE) {
 				reminder.remove(a.getAction());
 			}				
 			if (a.getAction().getPriority()==null || a.getAction().getPriority()==Priority.None) {
@@ -310,16 +404,39 @@ public class GTDModel implements Iterable<Folder> {
 					deleted.remove(a.getAction());
 				}
 			}
+			if (a.getProperty().equals(Action.DESCRIPTION_PROPERTY_NAME) && textIndex!=null) {
+				textIndex.remove(a.getAction().getId(), (String)a.getOldValue());
+				textIndex.add(a.getAction().getId(), a.getAction().getDescription());
+			}
+			if (a.getProperty().equals(Action.START_PROPERTY_NAME)) {
+				startIndex.remove(toTime(a.getOldValue()), a.getAction());
+				startIndex.put(a.getAction().getStartTime(), a.getAction());
+			}
+			if (a.getProperty().equals(Action.DUE_PROPERTY_NAME)) {
+				dueIndex.remove(toTime(a.getOldValue()), a.getAction());
+				dueIndex.put(a.getAction().getDueTime(), a.getAction());
+			}
 			if (a.getProperty().equals(Action.REMIND_PROPERTY_NAME)) {
-				if (a.getAction().getRemind()!=null) {
-					reminder.add(a.getAction());
+				// entry is found by old time, new one is added below or by reminder folder event
+				remindIndex.remove(toTime(a.getOldValue()), a.getAction());
+				if (a.getAction().getRemindTime()!=Action.UNSET_DATE) {
+					if (reminder.contains(a.getAction())) {
+						reminder.reposition(a.getAction());
+						remindIndex.put(a.getAction().getRemindTime(), a.getAction());
+					} else {
+						reminder.add(a.getAction());
+					}
 				} else {
 					reminder.remove(a.getAction());
 				}
 			}
 			if (a.getProperty().equals(Action.PRIORITY_PROPERTY_NAME)) {
 				if (a.getAction().getPriority()!=null && a.getAction().getPriority()!=Priority.None) {
-					priority.add(a.getAction());
+					if (priority.contains(a.getAction())) {
+						priority.reposition(a.getAction());
+					} else {
+						priority.add(a.getAction());
+					}
 				} else {
 					priority.remove(a.getAction());
 				}
@@ -341,10 +458,23 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		
+		void invalidate(Folder f) {
+			if (f!=null) {
+				fragments.remove(f.getId());
+			}
+		}
+		
 		public void elementAdded(FolderEvent a) {
+			invalidate(a.getFolder());
 			updateMetaAdd(a);
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			if (changeSet!=null) {
+				changeSet.add(a);
+			}
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
+				if (changeSet!=null && l[i] instanceof ChangeSetListener) {
+					continue;
+				}
 				try {
 					l[i].elementAdded(a);
 				} catch (Exception e) {
@@ -354,13 +484,19 @@ public class GTDModel implements Iterable<Folder> {
 		}
 		public void elementModified(ActionEvent a) {
 			checkEvent(a);
+			invalidate((Folder)a.getSource());
+			invalidate(a.getAction().getFolder());
+			if (a.getAction().getProject()!=null) {
+				invalidate(getProject(a.getAction().getProject()));
+			}
 			if (!((Folder)a.getSource()).isMeta()) {
 				updateMetaModify(a);
+				updateViews(a.getAction(), a);
 				// rethrow events for meta folders
 				if (a.getAction().isQueued()) {
 					queue.fireElementModified(a.getAction(),a.getProperty(),a.getOldValue(),a.getNewValue(),true);
 				}
-				if (a.getAction().getRemind()!=null) {
+				if (a.getAction().getRemindTime()!=Action.UNSET_DATE) {
 					reminder.fireElementModified(a.getAction(),a.getProperty(),a.getOldValue(),a.getNewValue(),true);
 				}
 				if (a.getAction().getPriority()==null || a.getAction().getPriority()!=Priority.None) {
@@ -373,8 +509,14 @@ public class GTDModel implements Iterable<Folder> {
 					}
 				}
 			}
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			if (changeSet!=null) {
+				changeSet.add(a);
+			}
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
+				if (changeSet!=null && l[i] instanceof ChangeSetListener) {
+					continue;
+				}
 				try {
 					l[i].elementModified(a);
 				} catch (Exception e) {
@@ -383,9 +525,16 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		public void elementRemoved(FolderEvent a) {
+			invalidate(a.getFolder());
 			updateMetaRemove(a);
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			if (changeSet!=null) {
+				changeSet.add(a);
+			}
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
+				if (changeSet!=null && l[i] instanceof ChangeSetListener) {
+					continue;
+				}
 				try {
 					l[i].elementRemoved(a);
 				} catch (Exception e) {
@@ -394,7 +543,8 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		public void folderAdded(Folder folder) {
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			invalidate(folder);
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
 				try {
 					l[i].folderAdded(folder);
@@ -404,10 +554,17 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		public void folderModified(Folder f, String p, Object o, Object n, boolean recycled) {
-			folderModified(new FolderEvent(f,null,p,o,n,recycled));
+			invalidate(f);
+			if (!f.isMeta()) {
+				updateViews(f);
+			}
+			if (listeners.length>0) {
+				folderModified(new FolderEvent(f,null,p,o,n,recycled));
+			}
 		}
 		public void folderModified(FolderEvent folder) {
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			invalidate(folder.getFolder());
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
 				try {
 					l[i].folderModified(folder);
@@ -417,7 +574,8 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		public void folderRemoved(Folder folder) {
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			invalidate(folder);
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
 				try {
 					l[i].folderRemoved(folder);
@@ -427,8 +585,15 @@ public class GTDModel implements Iterable<Folder> {
 			}
 		}
 		public void orderChanged(Folder f) {
-			GTDModelListener[] l= listeners.getListeners(GTDModelListener.class);
+			invalidate(f);
+			if (changeSet!=null) {
+				changeSet.add(f);
+			}
+			GTDModelListener[] l= listeners;
 			for (int i = 0; i < l.length; i++) {
+				if (changeSet!=null && l[i] instanceof ChangeSetListener) {
+					continue;
+				}
 				try {
 					l[i].orderChanged(f);
 				} catch (Exception e) {
@@ -436,21 +601,61 @@ public class GTDModel implements Iterable<Folder> {
 				}
 			}
 		}
+		public void changeSetCommitted(ChangeSetEvent e) {
+			GTDModelListener[] l= listeners;
+			for (int i = 0; i < l.length; i++) {
+				if (l[i] instanceof ChangeSetListener) {
+					try {
+						((ChangeSetListener)l[i]).changeSetCommitted(e);
+					} catch (Exception ex) {
+						ex.printStackTrace();
+					}
+				}
+			}
+		}
 	}
 	
 	
 	public Action createAction(Folder f, String desc) {
-		Action id= new Action(++lastActionID,new Date(),null,desc);
+		Action id= new Action(++lastActionID,System.currentTimeMillis(),Action.UNSET_DATE,desc);
 		f.add(0,id);
 		return id;
 	}
 
-	private final static String EOL="\n";
-	private final static String SKIP="  ";
-	private final static String SKIPSKIP="    ";
+	private static final int MAX_CACHED_PLANS= 32;
+	// counts of actions in date range are walked up to this many
+	private static final int COUNT_LIMIT= 1024;
+	
+	/**
+	 * Size of data file in bytes, from which {@link #load(File)} loads it in parallel.
+	 */
+	public static final long PARALLEL_LOAD_SIZE= 4*1024*1024;
+	private static final Comparator<Action> ID_COMPARATOR= new Comparator<Action>() {
+		public int compare(Action o1, Action o2) {
+			return o1.getId()-o2.getId();
+		}
+	};
 
 	private Map<Integer,Folder> folders= new HashMap<Integer,Folder>();
 	private Map<Integer,Project> projects= new HashMap<Integer,Project>();
+	private ActionIndex actionIndex= new ActionIndex();
+	private DateIndex remindIndex= new DateIndex();
+	private DateIndex dueIndex= new DateIndex();
+	private DateIndex startIndex= new DateIndex();
+	private TextIndex textIndex;
+	private volatile long snapshotTime;
+	// encoded list and project elements of data file, by folder ID, removed when folder changes
+	private Map<Integer,ModelSnapshot.Fragment> fragments= new ConcurrentHashMap<Integer,ModelSnapshot.Fragment>();
+	// some action descriptions are still in mapped data file
+	private boolean mapped;
+	private Map<ActionFilter, FilterPlan> plans= new LinkedHashMap<ActionFilter, FilterPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ActionFilter, FilterPlan> eldest) {
+			return size()>MAX_CACHED_PLANS;
+		}
+	};
+	private volatile ActionView[] views= new ActionView[0];
 	private int lastActionID=0; 
 	private int lastFolderID=0; 
 	private ModelListenerSupport support= new ModelListenerSupport();
@@ -461,6 +666,9 @@ public class GTDModel implements Iterable<Folder> {
 	private boolean suspentedForMultipleChanges= false;
 	private Folder queue;
 	private Folder priority;
+	private int batchDepth=0;
+	private ChangeSetEvent changeSet;
+	private ModelEventDispatcher dispatcher;
 	
 	public GTDModel() {
 		createMetaFolders();
@@ -472,28 +680,16 @@ public class GTDModel implements Iterable<Folder> {
 	private void createMetaFolders() {
 		resolved= createFolder(-1, "Resolved", FolderType.BUILDIN_RESOLVED);
 		resolved.setDescription("This is build-in list automatically filled with all resolved actions.");
-		resolved.setComparator(new Comparator<Action>() {
-		
-			public int compare(Action o1, Action o2) {
-				return o1.getId()-o2.getId();
-			}
-		
-		});
+		resolved.setComparator(ID_COMPARATOR);
 		reminder= createFolder(-2, "Tickler", FolderType.BUILDIN_REMIND);
 		reminder.setDescription("This is build-in list automatically filled with all actions, which has reminder date set.");
 		reminder.setComparator(new Comparator<Action>() {
 		
 			public int compare(Action o1, Action o2) {
-				if (o1.getRemind()==null && o2.getRemind()==null) {
-					return 0;
-				}
-				if (o1.getRemind()==null) {
-					return -1;
-				}
-				if (o2.getRemind()==null) {
-					return 1;
-				}
-				return o1.getRemind().compareTo(o2.getRemind());
+				// unset date is smallest long value, so actions without reminder come first
+				long t1= o1.getRemindTime();
+				long t2= o2.getRemindTime();
+				return t1<t2 ? -1 : (t1==t2 ? 0 : 1);
 			}
 		
 		});
@@ -512,28 +708,57 @@ public class GTDModel implements Iterable<Folder> {
 		});
 		deleted= createFolder(-6, "Deleted", FolderType.BUILDIN_DELETED);
 		deleted.setDescription("This is build-in list automatically filled with all deleted actions.");
-		deleted.setComparator(new Comparator<Action>() {
-		
-			public int compare(Action o1, Action o2) {
-				return o1.getId()-o2.getId();
-			}
-		
-		});
+		deleted.setComparator(ID_COMPARATOR);
 	}
 	
 	public void addGTDModelListener(GTDModelListener l) {
 		support.addlistener(l);
 	}
 	
+	/**
+	 * Adds listener, which receives events asynchronously trough model's {@link ModelEventDispatcher}.
+	 * @param l the listener
+	 * @param d thread on which listener is notified
+	 */
+	public void addGTDModelListener(GTDModelListener l, ModelEventDispatcher.Delivery d) {
+		support.addlistener(getEventDispatcher().wrap(l, d));
+	}
+	
 	public void removeGTDModelListener(GTDModelListener l) {
 		support.removelistener(l);
+		if (dispatcher!=null) {
+			GTDModelListener q= dispatcher.unwrap(l);
+			if (q!=null) {
+				support.removelistener(q);
+			}
+		}
+	}
+	
+	/**
+	 * Returns dispatcher for asynchronous listeners, dispatcher is created on first call.
+	 * @return event dispatcher
+	 */
+	public synchronized ModelEventDispatcher getEventDispatcher() {
+		if (dispatcher==null) {
+			dispatcher= new ModelEventDispatcher();
+		}
+		return dispatcher;
+	}
+	
+	/**
+	 * Delivers all pending asynchronous events, if there are any.
+	 */
+	public void flushEvents() {
+		if (dispatcher!=null) {
+			dispatcher.flush();
+		}
 	}
 
 	public synchronized Folder createFolder(String name, FolderType type) {
 		return createFolder(++lastFolderID, name, type);
 	}
 
-	private synchronized Folder createFolder(int id, String name, FolderType type) {
+	synchronized Folder createFolder(int id, String name, FolderType type) {
 		Folder f= folders.get(id);
 		if (f==null) {
 			if (lastFolderID<id) {
@@ -563,6 +788,23 @@ public class GTDModel implements Iterable<Folder> {
 		support.folderModified(f,p,o,n,recycled);
 	}
 
+	synchronized void removeFolder(Folder f) {
+		if (folders.remove(f.getId())!=null) {
+			projects.remove(f.getId());
+			f.removeFolderListener(support);
+			support.folderRemoved(f);
+		}
+	}
+
+	/**
+	 * Makes sure that new actions get higher ID than provided one.
+	 */
+	synchronized void reserveActionID(int id) {
+		if (lastActionID<id) {
+			lastActionID=id;
+		}
+	}
+
 	public synchronized Folder removeFolder(String name) {
 		Folder f= folders.remove(name);
 		if (f!=null) {
@@ -574,163 +816,278 @@ public class GTDModel implements Iterable<Folder> {
 
 	
 	public void store(File f) throws IOException, XMLStreamException, FactoryConfigurationError {
-		BufferedOutputStream bw= new BufferedOutputStream(new FileOutputStream(f));
-		store(bw);
-		bw.close();
+		releaseMapped();
+		FileOutputStream out= new FileOutputStream(f);
+		try {
+			store(out);
+		} finally {
+			out.close();
+		}
 	}
 	
 	public void store(OutputStream out) throws IOException, XMLStreamException, FactoryConfigurationError {
-		XMLStreamWriter w= XMLOutputFactory.newInstance().createXMLStreamWriter(out,"UTF-8");
-
-		w.writeStartDocument("UTF-8","1.0");
-
-		w.writeCharacters(EOL);
-		w.writeCharacters(EOL);
-		
-		w.writeStartElement("gtd-data");
-		w.writeAttribute("version", "2.2");
-		w.writeAttribute("modified", ApplicationHelper.formatLongISO(new Date()));
-		w.writeAttribute("lastActionID",Integer.toString(lastActionID));
-		w.writeCharacters(EOL);
-		w.writeCharacters(EOL);
-
-		// Write folders
-		
-		Folder[] fn= folders();
-		w.writeStartElement("lists");
-		w.writeCharacters(EOL);
-		
-		for (int i = 0; i < fn.length; i++) {
-			Folder ff= fn[i];
-			if (ff.isMeta()) {
-				continue;
+		ModelSnapshot s= snapshot();
+		s.store(out);
+		snapshotTime= s.getModified();
+	}
+	
+	/**
+	 * Takes snapshot of current model content, which can be stored later or on other thread, 
+	 * while model continues to change. Actions are copied, so snapshot is consistent, 
+	 * if it is taken on thread, which changes model, usually event dispatch thread.
+	 * @return snapshot of model
+	 */
+	public synchronized ModelSnapshot snapshot() {
+		return new ModelSnapshot(this);
+	}
+	
+	/**
+	 * Returns cached encoding of folder element in data file. Fragment is empty until snapshot
+	 * with it is stored, it is dropped from cache when folder or one of its actions changes.
+	 */
+	ModelSnapshot.Fragment getFragment(Folder f) {
+		ModelSnapshot.Fragment fr= fragments.get(f.getId());
+		if (fr==null) {
+			fr= new ModelSnapshot.Fragment();
+			fragments.put(f.getId(), fr);
+		}
+		return fr;
+	}
+	
+	/**
+	 * Notifies model that snapshot has been stored as its data file, {@link #getSnapshotTime()} 
+	 * then returns snapshot's modification time.
+	 * @param s stored snapshot
+	 */
+	public void snapshotStored(ModelSnapshot s) {
+		snapshotTime= s.getModified();
+	}
+	
+	/**
+	 * Writes model in compact binary format, which can be read back by {@link #load(File)}.
+	 * @see #storeBinary(OutputStream)
+	 */
+	public void storeBinary(File f) throws IOException {
+		releaseMapped();
+		BufferedOutputStream bw= new BufferedOutputStream(new FileOutputStream(f));
+		try {
+			storeBinary(bw);
+		} finally {
+			bw.close();
+		}
+	}
+	
+	/**
+	 * Writes model in compact binary format, with same content as {@link #store(OutputStream)} writes in XML.
+	 * Binary data is smaller and faster to write and read, {@link #load(InputStream)} recognizes it automatically.
+	 * Output stream is flushed, but not closed.
+	 */
+	public void storeBinary(OutputStream out) throws IOException {
+		ModelSnapshot s= snapshot();
+		s.storeBinary(out);
+		snapshotTime= s.getModified();
+	}
+	
+	/**
+	 * Returns modification time written to data file by last {@link #store(OutputStream)}, 
+	 * or read from data file by last {@link #load(InputStream)}. It identifies data file, 
+	 * to which {@link ChangeLog} can be applied.
+	 * @return snapshot time in milliseconds or 0 if not known
+	 */
+	public long getSnapshotTime() {
+		return snapshotTime;
+	}
+	
+	/**
+	 * Loads data file. XML data files larger than {@link #PARALLEL_LOAD_SIZE} are loaded with
+	 * {@link #loadParallel(File, int)} on all available processors, if their format allows it.
+	 */
+	public void load(File f) throws XMLStreamException, IOException {
+		int threads= Runtime.getRuntime().availableProcessors();
+		if (f.length()>=PARALLEL_LOAD_SIZE && threads>1 && loadParallel(f, threads)!=null) {
+			return;
+		}
+		InputStream r= new FileInputStream(f);
+		try {
+			load(r);
+		} finally {
+			try {
+				r.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			w.writeCharacters(SKIP);
-			w.writeStartElement("list");
-			w.writeAttribute("id", String.valueOf(ff.getId()));
-			w.writeAttribute("name", ff.getName());
-			w.writeAttribute("type", ff.getType().toString());
-			w.writeAttribute("closed", Boolean.toString(ff.isClosed()));
-			if (!ff.isInBucket() && ff.getDescription()!=null) {
-				w.writeAttribute("description", ApplicationHelper.escapeControls(ff.getDescription()));
+		}
+	}
+
+	/**
+	 * Loads XML data file version 2.2 with several threads. Actions are parsed in parallel, 
+	 * in chunks of {@link ParallelLoader#CHUNK_ACTIONS}, and then added to model in file order, 
+	 * while model is suspended for multiple changes.
+	 * @param f XML data file
+	 * @param threads number of parsing threads
+	 * @return header with version and modification time, or <code>null</code> if file is not
+	 * in format, which can be loaded in parallel, in this case model is not changed
+	 */
+	public DataHeader loadParallel(File f, int threads) throws XMLStreamException, IOException {
+		RandomAccessFile raf= new RandomAccessFile(f, "r");
+		ExecutorService executor= Executors.newFixedThreadPool(threads);
+		try {
+			ParallelLoader pl= ParallelLoader.scan(raf.getChannel(), executor);
+			if (pl==null) {
+				return null;
 			}
-			w.writeCharacters(EOL);
 			
-			Action[] aa= ff.actions();
-			for (int j = 0; j < aa.length; j++) {
-				Action a = aa[j];
-				w.writeCharacters(SKIPSKIP);
-				w.writeStartElement("action");
-				w.writeAttribute("id", Integer.toString(a.getId()));
-				w.writeAttribute("created", Long.toString(a.getCreated().getTime()));
-				w.writeAttribute("resolution", a.getResolution().toString());
-				if (a.getResolved()!=null) {
-					w.writeAttribute("resolved", Long.toString(a.getResolved().getTime()));
+			clear();
+			
+			setSuspentedForMultipleChanges(true);
+			
+			try {
+				XMLStreamReader r= XMLInputFactory.newInstance().createXMLStreamReader(pl.readRest());
+				r.nextTag();
+				DataHeader dh= new DataHeader(f,r.getAttributeValue(null, "version"),r.getAttributeValue(null, "modified"));
+				snapshotTime= dh.modified!=null ? dh.modified.getTime() : 0;
+				String s= r.getAttributeValue(null, "lastActionID");
+				if (s!=null) {
+					try {
+						lastActionID= Integer.parseInt(s);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
 				}
+				// lists, its content has been cut out
+				r.nextTag();
+				
+				HashMap<Integer, Action> withProject= new HashMap<Integer, Action>();
+				HashMap<Integer, Action> queued= new HashMap<Integer, Action>();
 				
-				if (a.getDescription()!=null) {
-					w.writeAttribute("description", ApplicationHelper.escapeControls(a.getDescription()));
+				for (ParallelLoader.ListRecord lr : pl.getLists()) {
+					XMLStreamReader lrr= pl.readList(lr);
+					Folder ff= readFolder_2_2(lrr);
+					lrr.close();
+					for (Future<ParallelLoader.Chunk> fc : lr.chunks) {
+						ParallelLoader.Chunk c= getChunk(fc);
+						for (int i = 0; i < c.size; i++) {
+							addLoadedAction(ff, c.actions[i], c.resolutions[i], withProject, queued);
+						}
+					}
 				}
 				
-				if (a.getStart()!=null) w.writeAttribute("start", Long.toString(a.getStart().getTime()));
-				if (a.getRemind()!=null) w.writeAttribute("remind", Long.toString(a.getRemind().getTime()));
-				if (a.getDue()!=null) w.writeAttribute("due", Long.toString(a.getDue().getTime()));
-				if (a.getType()!=null) w.writeAttribute("type", a.getType().toString());
-				if (a.getUrl()!=null) w.writeAttribute("url", a.getUrl().toString());
-				if (a.isQueued()) w.writeAttribute("queued", Boolean.toString(a.isQueued()));
-				if (a.getProject()!=null) w.writeAttribute("project", a.getProject().toString());
-				if (a.getPriority()!=null) w.writeAttribute("priority", a.getPriority().toString());
-				w.writeEndElement();
-				w.writeCharacters(EOL);
-			}
-			w.writeCharacters(SKIP);
-			w.writeEndElement();
-			w.writeCharacters(EOL);
-		}
-		w.writeEndElement();
-		w.writeCharacters(EOL);
-
-		// Write projects
-		Project[] pn= projects();
-		w.writeStartElement("projects");
-		w.writeCharacters(EOL);
-		
-		for (int i = 0; i < pn.length; i++) {
-			Project ff= pn[i];
-			w.writeCharacters(SKIP);
-			w.writeStartElement("project");
-			w.writeAttribute("id", String.valueOf(ff.getId()));
-			w.writeAttribute("name", ff.getName());
-			w.writeAttribute("closed", String.valueOf(ff.isClosed()));
-
-			if (ff.getDescription()!=null) {
-				w.writeAttribute("description", ApplicationHelper.escapeControls(ff.getDescription()));
+				r.nextTag();
+				_load_2_2_tail(r, withProject, queued);
+				
+				return dh;
+			} finally {
+				setSuspentedForMultipleChanges(false);
 			}
-			
-			StringBuilder sb= new StringBuilder();
-			Action[] aa= ff.actions();
-			if (aa.length>0) {
-				sb.append(aa[0].getId());
+		} finally {
+			executor.shutdownNow();
+			try {
+				raf.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private static ParallelLoader.Chunk getChunk(Future<ParallelLoader.Chunk> f) throws XMLStreamException, IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof XMLStreamException) {
+				throw (XMLStreamException)e.getCause();
 			}
-			for (int j = 1; j < aa.length; j++) {
-				sb.append(",");
-				sb.append(aa[j].getId());
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
 			}
-			w.writeAttribute("actions", sb.toString());
-			w.writeEndElement();
-			w.writeCharacters(EOL);
+			throw new IOException("Failed to parse data file: "+e.getCause(), e.getCause());
 		}
-		w.writeEndElement();
-		w.writeCharacters(EOL);
-		
-		// Write queue
-		Folder f= getQueue();
-		w.writeStartElement("queue");
-		w.writeAttribute("id", String.valueOf(f.getId()));
-		w.writeAttribute("name", f.getName());
-		
-		StringBuilder sb= new StringBuilder();
-		Action[] aa= f.actions();
-		if (aa.length>0) {
-			sb.append(aa[0].getId());
-		}
-		for (int j = 1; j < aa.length; j++) {
-			sb.append(",");
-			sb.append(aa[j].getId());
-		}
-		w.writeAttribute("actions", sb.toString());
-		w.writeEndElement();
-		w.writeCharacters(EOL);
+	}
+
+	/**
+	 * Clears model before it is loaded.
+	 */
+	private void clear() {
+		lastActionID=-1;
+		lastFolderID=-1;
+		snapshotTime=0;
+		mapped=false;
+		fragments.clear();
+		folders.clear();
+		projects.clear();
+		actionIndex.clear();
+		remindIndex.clear();
+		dueIndex.clear();
+		startIndex.clear();
+		textIndex=null;
+		createMetaFolders();
+		ActionView[] v= views;
+		for (int i = 0; i < v.length; i++) {
+			v[i].reset();
+		}
+	}
+	
+	/**
+	 * Loads binary data file, written by {@link #storeBinary(File)}, trough memory mapping.
+	 * Action descriptions are not decoded while loading, each one is decoded from file
+	 * when first accessed. This makes loading faster and actions, which are never shown or searched,
+	 * take less memory. File must not be modified while model is using it, 
+	 * model stops using it after first {@link #store(File)} or {@link #storeBinary(File)}.
+	 * <p>
+	 * GTD-Free engine does not use this, its data file and backups stay in XML, 
+	 * which users read and exchange. Engine also renames data file to backup on each save, 
+	 * which mapped file does not allow on all platforms. Method is meant for tools and 
+	 * read-only use of large binary copies of data.
+	 * </p>
+	 * @param f binary data file
+	 * @return header with version and modification time
+	 * @throws IOException if file is not binary data file or it is damaged
+	 */
+	public DataHeader loadMapped(File f) throws IOException {
 		
-		// containers
-		w.writeEndElement();
-		w.writeEndDocument();
+		clear();
 		
-		w.flush();
-		w.close();
+		setSuspentedForMultipleChanges(true);
 		
-	}
-	
-	public void load(File f) throws XMLStreamException, IOException {
-		InputStream r= new FileInputStream(f);
+		RandomAccessFile raf= new RandomAccessFile(f, "r");
 		try {
-			load(r);
+			// mapping stays valid after file is closed
+			MappedByteBuffer b= raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			DataHeader dh= BinarySnapshot.load(this, b);
+			snapshotTime= dh.modified.getTime();
+			mapped=true;
+			return new DataHeader(f, dh.version, dh.modified);
 		} finally {
 			try {
-				r.close();
+				raf.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			setSuspentedForMultipleChanges(false);
 		}
 	}
-
+	
+	/**
+	 * Decodes all descriptions, which are still in mapped data file, so that file can be overwritten.
+	 */
+	private void releaseMapped() {
+		if (!mapped) {
+			return;
+		}
+		for (int i = 0; i <= lastActionID; i++) {
+			Action a= actionIndex.get(i);
+			if (a!=null) {
+				a.getDescription();
+			}
+		}
+		mapped=false;
+	}
+	
 	public DataHeader load(InputStream in) throws XMLStreamException, IOException {
 		
-		lastActionID=-1;
-		lastFolderID=-1;
-		folders.clear();
-		projects.clear();
-		createMetaFolders();
+		clear();
 		
 		setSuspentedForMultipleChanges(true);
 		
@@ -739,6 +1096,13 @@ public class GTDModel implements Iterable<Folder> {
 			
 			// buffer size is same as default in 1.6, we explicitly request it so, not to brake if defaut changes.
 			BufferedInputStream bin= new BufferedInputStream(in,8192);
+			
+			if (BinarySnapshot.isBinary(bin)) {
+				DataHeader dh= BinarySnapshot.load(this, bin);
+				snapshotTime= dh.modified.getTime();
+				return dh;
+			}
+			
 			bin.mark(8191);
 			
 			Reader rr= new InputStreamReader(bin);
@@ -770,6 +1134,7 @@ public class GTDModel implements Iterable<Folder> {
 			r.nextTag();
 			if ("gtd-data".equals(r.getLocalName())) {
 				DataHeader dh= new DataHeader(null,r.getAttributeValue(null, "version"),r.getAttributeValue(null, "modified"));
+				snapshotTime= dh.modified!=null ? dh.modified.getTime() : 0;
 				if (dh.version!=null) {
 					if (dh.version.equals("2.0")) {
 						r.nextTag();
@@ -837,8 +1202,8 @@ public class GTDModel implements Iterable<Folder> {
 				
 				while(checkTagStart(r, "action")) {
 					int i= Integer.parseInt(r.getAttributeValue(null, "id"));
-					Date cr= new Date(Long.parseLong(r.getAttributeValue(null, "created")));
-					Date re= r.getAttributeValue(null, "resolved")==null ? null : new Date(Long.parseLong(r.getAttributeValue(null, "resolved")));
+					long cr= Long.parseLong(r.getAttributeValue(null, "created"));
+					long re= r.getAttributeValue(null, "resolved")==null ? Action.UNSET_DATE : Long.parseLong(r.getAttributeValue(null, "resolved"));
 					String d =r.getAttributeValue(null, "description");
 					if (d!=null) {
 						d=d.replace("\\n", "\n");
@@ -847,13 +1212,13 @@ public class GTDModel implements Iterable<Folder> {
 					a.setResolution(Action.Resolution.toResolution(r.getAttributeValue(null, "resolution")));
 					
 					String s= r.getAttributeValue(null, "start");
-					if (s!=null) a.setStart(new Date(Long.parseLong(s)));
+					if (s!=null) a.setStartTime(Long.parseLong(s));
 					
 					s= r.getAttributeValue(null, "remind");
-					if (s!=null) a.setRemind(new Date(Long.parseLong(s)));
+					if (s!=null) a.setRemindTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "due");
-					if (s!=null) a.setDue(new Date(Long.parseLong(s)));
+					if (s!=null) a.setDueTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "type");
 					if (s!=null) a.setType(ActionType.valueOf(s));
@@ -861,7 +1226,7 @@ public class GTDModel implements Iterable<Folder> {
 					s= r.getAttributeValue(null, "url");
 					if (s!=null) {
 						try {
-							a.setUrl(new URL(s));
+							a.setUrl(Utils.toURI(s));
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
@@ -913,8 +1278,8 @@ public class GTDModel implements Iterable<Folder> {
 				
 				while(checkTagStart(r, "action")) {
 					int i= Integer.parseInt(r.getAttributeValue(null, "id"));
-					Date cr= new Date(Long.parseLong(r.getAttributeValue(null, "created")));
-					Date re= r.getAttributeValue(null, "resolved")==null ? null : new Date(Long.parseLong(r.getAttributeValue(null, "resolved")));
+					long cr= Long.parseLong(r.getAttributeValue(null, "created"));
+					long re= r.getAttributeValue(null, "resolved")==null ? Action.UNSET_DATE : Long.parseLong(r.getAttributeValue(null, "resolved"));
 					String d =r.getAttributeValue(null, "description");
 					if (d!=null) {
 						d=d.replace("\\n", "\n");
@@ -927,20 +1292,20 @@ public class GTDModel implements Iterable<Folder> {
 					s= r.getAttributeValue(null, "url");
 					if (s!=null) {
 						try {
-							a.setUrl(new URL(s));
+							a.setUrl(Utils.toURI(s));
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
 					}
 
 					s= r.getAttributeValue(null, "start");
-					if (s!=null) a.setStart(new Date(Long.parseLong(s)));
+					if (s!=null) a.setStartTime(Long.parseLong(s));
 					
 					s= r.getAttributeValue(null, "remind");
-					if (s!=null) a.setRemind(new Date(Long.parseLong(s)));
+					if (s!=null) a.setRemindTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "due");
-					if (s!=null) a.setDue(new Date(Long.parseLong(s)));
+					if (s!=null) a.setDueTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "queued");
 					if (s!=null) a.setQueued(Boolean.parseBoolean(s));
@@ -1108,8 +1473,8 @@ public class GTDModel implements Iterable<Folder> {
 				
 				while(checkTagStart(r, "action")) {
 					int i= Integer.parseInt(r.getAttributeValue(null, "id"));
-					Date cr= new Date(Long.parseLong(r.getAttributeValue(null, "created")));
-					Date re= r.getAttributeValue(null, "resolved")==null ? null : new Date(Long.parseLong(r.getAttributeValue(null, "resolved")));
+					long cr= Long.parseLong(r.getAttributeValue(null, "created"));
+					long re= r.getAttributeValue(null, "resolved")==null ? Action.UNSET_DATE : Long.parseLong(r.getAttributeValue(null, "resolved"));
 					String d =r.getAttributeValue(null, "description");
 					if (d!=null) {
 						d=d.replace("\\n", "\n");
@@ -1123,20 +1488,20 @@ public class GTDModel implements Iterable<Folder> {
 					s= r.getAttributeValue(null, "url");
 					if (s!=null) {
 						try {
-							a.setUrl(new URL(s));
+							a.setUrl(Utils.toURI(s));
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
 					}
 
 					s= r.getAttributeValue(null, "start");
-					if (s!=null) a.setStart(new Date(Long.parseLong(s)));
+					if (s!=null) a.setStartTime(Long.parseLong(s));
 					
 					s= r.getAttributeValue(null, "remind");
-					if (s!=null) a.setRemind(new Date(Long.parseLong(s)));
+					if (s!=null) a.setRemindTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "due");
-					if (s!=null) a.setDue(new Date(Long.parseLong(s)));
+					if (s!=null) a.setDueTime(Long.parseLong(s));
 
 					s= r.getAttributeValue(null, "queued");
 					if (s!=null) a.setQueued(Boolean.parseBoolean(s));
@@ -1282,79 +1647,15 @@ public class GTDModel implements Iterable<Folder> {
 
 			r.nextTag();
 			while (checkTagStart(r, "list")) {
-				Folder ff;
-				String id= r.getAttributeValue(null,"id");
-				if (id!=null) {
-					ff= createFolder(Integer.parseInt(id),r.getAttributeValue(null, "name"),FolderType.valueOf(r.getAttributeValue(null, "type")));
-				} else {
-					String s=r.getAttributeValue(null, "type").replace("NOTE", "INBUCKET");
-					ff= createFolder(r.getAttributeValue(null, "name"),FolderType.valueOf(s));
-				}
-				String s= r.getAttributeValue(null, "closed");
-				if (s!=null) ff.setClosed(Boolean.parseBoolean(s));
-				
-				s = StringEscapeUtils.unescapeJava(r.getAttributeValue(null, "description"));
-				
-				if (!ff.isInBucket()) {
-					ff.setDescription(s);
-				}
+				Folder ff= readFolder_2_2(r);
 
 				r.nextTag();
 				
 				while(checkTagStart(r, "action")) {
-					int i= Integer.parseInt(r.getAttributeValue(null, "id"));
-					Date cr= new Date(Long.parseLong(r.getAttributeValue(null, "created")));
-					Date re= r.getAttributeValue(null, "resolved")==null ? null : new Date(Long.parseLong(r.getAttributeValue(null, "resolved")));
-					
-					String d = StringEscapeUtils.unescapeJava(r.getAttributeValue(null, "description"));
-					
-					Action a= new Action(i,cr,re,d);
-					
-					s= r.getAttributeValue(null, "type");
-					if (s!=null) a.setType(ActionType.valueOf(s));
+					Action a= readAction_2_2(r);
 					
-					s= r.getAttributeValue(null, "url");
-					if (s!=null) {
-						try {
-							a.setUrl(new URL(s));
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-
-					s= r.getAttributeValue(null, "start");
-					if (s!=null) a.setStart(new Date(Long.parseLong(s)));
+					addLoadedAction(ff, a, Action.Resolution.toResolution(r.getAttributeValue(null, "resolution")), withProject, queued);
 					
-					s= r.getAttributeValue(null, "remind");
-					if (s!=null) a.setRemind(new Date(Long.parseLong(s)));
-
-					s= r.getAttributeValue(null, "due");
-					if (s!=null) a.setDue(new Date(Long.parseLong(s)));
-
-					s= r.getAttributeValue(null, "queued");
-					if (s!=null) a.setQueued(Boolean.parseBoolean(s));
-
-					s= r.getAttributeValue(null, "project");
-					if (s!=null) a.setProject(Integer.parseInt(s));
-					
-					s= r.getAttributeValue(null, "priority");
-					if (s!=null) a.setPriority(Priority.valueOf(s));
-
-					ff.add(a);
-
-					a.setResolution(Action.Resolution.toResolution(r.getAttributeValue(null, "resolution")));
-
-					if (a.getProject()!=null) {
-						withProject.put(a.getId(), a);
-					}
-
-					if (a.isQueued()) {
-						queued.put(a.getId(), a);
-					}
-					
-					if (a.getId()>lastActionID) {
-						lastActionID=a.getId();
-					}
 					findTagEnd(r,"action");
 					r.nextTag();
 				}	
@@ -1366,6 +1667,104 @@ public class GTDModel implements Iterable<Folder> {
 			//r.nextTag();
 		}
 		
+		_load_2_2_tail(r, withProject, queued);
+	}
+
+	/**
+	 * Reads list start element and creates folder.
+	 */
+	private Folder readFolder_2_2(XMLStreamReader r) {
+		Folder ff;
+		String id= r.getAttributeValue(null,"id");
+		if (id!=null) {
+			ff= createFolder(Integer.parseInt(id),r.getAttributeValue(null, "name"),FolderType.valueOf(r.getAttributeValue(null, "type")));
+		} else {
+			String s=r.getAttributeValue(null, "type").replace("NOTE", "INBUCKET");
+			ff= createFolder(r.getAttributeValue(null, "name"),FolderType.valueOf(s));
+		}
+		String s= r.getAttributeValue(null, "closed");
+		if (s!=null) ff.setClosed(Boolean.parseBoolean(s));
+		
+		s = StringEscapeUtils.unescapeJava(r.getAttributeValue(null, "description"));
+		
+		if (!ff.isInBucket()) {
+			ff.setDescription(s);
+		}
+		return ff;
+	}
+
+	/**
+	 * Creates detached action from action element, without resolution, which must be set after action is added to folder.
+	 * Does not change model, so it can be called from any thread.
+	 */
+	static Action readAction_2_2(XMLStreamReader r) {
+		int i= Integer.parseInt(r.getAttributeValue(null, "id"));
+		long cr= Long.parseLong(r.getAttributeValue(null, "created"));
+		long re= r.getAttributeValue(null, "resolved")==null ? Action.UNSET_DATE : Long.parseLong(r.getAttributeValue(null, "resolved"));
+		
+		String d = StringEscapeUtils.unescapeJava(r.getAttributeValue(null, "description"));
+		
+		Action a= new Action(i,cr,re,d);
+		
+		String s= r.getAttributeValue(null, "type");
+		if (s!=null) a.setType(ActionType.valueOf(s));
+		
+		s= r.getAttributeValue(null, "url");
+		if (s!=null) {
+			try {
+				a.setUrl(Utils.toURI(s));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		s= r.getAttributeValue(null, "start");
+		if (s!=null) a.setStartTime(Long.parseLong(s));
+		
+		s= r.getAttributeValue(null, "remind");
+		if (s!=null) a.setRemindTime(Long.parseLong(s));
+
+		s= r.getAttributeValue(null, "due");
+		if (s!=null) a.setDueTime(Long.parseLong(s));
+
+		s= r.getAttributeValue(null, "queued");
+		if (s!=null) a.setQueued(Boolean.parseBoolean(s));
+
+		s= r.getAttributeValue(null, "project");
+		if (s!=null) a.setProject(Integer.parseInt(s));
+		
+		s= r.getAttributeValue(null, "priority");
+		if (s!=null) a.setPriority(Priority.valueOf(s));
+		
+		return a;
+	}
+
+	/**
+	 * Adds loaded action to folder and remembers it, if it must be added to project or queue.
+	 */
+	private void addLoadedAction(Folder ff, Action a, Action.Resolution resolution, Map<Integer, Action> withProject, Map<Integer, Action> queued) {
+		ff.add(a);
+
+		a.setResolution(resolution);
+
+		if (a.getProject()!=null) {
+			withProject.put(a.getId(), a);
+		}
+
+		if (a.isQueued()) {
+			queued.put(a.getId(), a);
+		}
+		
+		if (a.getId()>lastActionID) {
+			lastActionID=a.getId();
+		}
+	}
+
+	/**
+	 * Reads projects and queue, which follow lists, and adds to them actions from lists.
+	 */
+	private void _load_2_2_tail(XMLStreamReader r, Map<Integer, Action> withProject, Map<Integer, Action> queued) throws XMLStreamException  {
+		
 		if (r.getEventType()==XMLStreamReader.END_DOCUMENT) {
 			return;
 		}
@@ -1492,14 +1891,190 @@ public class GTDModel implements Iterable<Folder> {
 	}
 	
 	public Action getAction(int id) {
-		for (Folder f : this) {
-			Action a= f.getActionByID(id);
-			if (a!=null) {
-				return a;
+		return actionIndex.get(id);
+	}
+	
+	/**
+	 * Returns actions from Tickler folder with remind time within <code>from</code> inclusive 
+	 * and <code>to</code> exclusive, ordered by remind time.
+	 * @param from start of range in milliseconds
+	 * @param to end of range in milliseconds
+	 * @return actions with reminder in range
+	 */
+	public Action[] actionsRemindedBetween(long from, long to) {
+		return remindIndex.range(from, to);
+	}
+
+	/**
+	 * Returns actions from Tickler folder with remind time before <code>to</code>, ordered by remind time.
+	 * @param to end of range in milliseconds, exclusive
+	 * @return actions with reminder before time
+	 */
+	public Action[] actionsRemindedBefore(long to) {
+		return remindIndex.range(Long.MIN_VALUE, to);
+	}
+
+	/**
+	 * Returns actions with due date within <code>from</code> inclusive 
+	 * and <code>to</code> exclusive, ordered by due date.
+	 */
+	public Action[] actionsDueBetween(long from, long to) {
+		return dueIndex.range(from, to);
+	}
+
+	/**
+	 * Returns actions with start date within <code>from</code> inclusive 
+	 * and <code>to</code> exclusive, ordered by start date.
+	 */
+	public Action[] actionsStartingBetween(long from, long to) {
+		return startIndex.range(from, to);
+	}
+
+	private TextIndex getTextIndex() {
+		if (textIndex==null) {
+			textIndex= new TextIndex();
+			// in ID order IDs are only appended to index lists
+			for (int i = 0; i <= lastActionID; i++) {
+				Action a= actionIndex.get(i);
+				if (a!=null) {
+					textIndex.add(a.getId(), a.getDescription());
+				}
+			}
+		}
+		return textIndex;
+	}
+
+	/**
+	 * Upper bound of number of actions returned by {@link #actionsContaining(String, boolean)}, 
+	 * text must be at least three characters long.
+	 */
+	int countContainingCandidates(String text) {
+		return getTextIndex().estimate(text);
+	}
+
+	/**
+	 * Number of actions returned by {@link #actionsRemindedBetween(long, long)}, 
+	 * if it is larger than {@link #COUNT_LIMIT} then upper bound of it.
+	 */
+	int countReminded(long from, long to) {
+		return remindIndex.count(from, to, COUNT_LIMIT);
+	}
+
+	/**
+	 * Creates saved search, which keeps actions matching filter. View is kept current from
+	 * model events until it is removed with {@link #removeView(ActionView)}.
+	 * @param name name of view
+	 * @param filter filter, single filter or {@link FilterList}
+	 * @return new view
+	 */
+	public synchronized ActionView createView(String name, ActionFilter filter) {
+		ActionView v= new ActionView(this, name, filter);
+		ActionView[] vv= Arrays.copyOf(views, views.length+1);
+		vv[vv.length-1]=v;
+		views=vv;
+		return v;
+	}
+	
+	public synchronized void removeView(ActionView v) {
+		for (int i = views.length-1; i >= 0; i--) {
+			if (views[i]==v) {
+				ActionView[] vv= new ActionView[views.length-1];
+				System.arraycopy(views, 0, vv, 0, i);
+				System.arraycopy(views, i+1, vv, i, vv.length-i);
+				views=vv;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return views in order of creation
+	 */
+	public ActionView[] getViews() {
+		return views.clone();
+	}
+	
+	/**
+	 * @return first view with name or <code>null</code>
+	 */
+	public ActionView getView(String name) {
+		ActionView[] v= views;
+		for (int i = 0; i < v.length; i++) {
+			if (v[i].getName().equals(name)) {
+				return v[i];
 			}
 		}
 		return null;
 	}
+
+	/**
+	 * Returns compiled plan for filter. Plans are cached, same plan is returned for equal filters.
+	 * @param filter single filter or {@link FilterList}
+	 * @return plan for filter
+	 */
+	public FilterPlan plan(ActionFilter filter) {
+		if (filter instanceof FilterPlan) {
+			return (FilterPlan)filter;
+		}
+		synchronized (plans) {
+			FilterPlan p= plans.get(filter);
+			if (p==null) {
+				p= new FilterPlan(this, filter instanceof FilterList ? ((FilterList)filter).filters() : new ActionFilter[]{filter});
+				plans.put(filter, p);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Returns actions, which description contains provided text, ordered by ID.
+	 * Text with at least three characters is resolved trough full-text index, which is 
+	 * created with first such search and then updated with each change of model.
+	 * @param text the text to search for
+	 * @param caseSensitive if <code>false</code> characters are compared in lower case
+	 * @return actions containing text
+	 */
+	public Action[] actionsContaining(String text, boolean caseSensitive) {
+		String lc= caseSensitive ? text : TextIndex.toLowerCase(text);
+		List<Action> l= new ArrayList<Action>();
+		if (text.length()<TextIndex.GRAM) {
+			for (Folder f : folders.values()) {
+				if (!f.isMeta()) {
+					for (Action a : f) {
+						if (DescriptionFilter.contains(a.getDescription(), lc, caseSensitive)) {
+							l.add(a);
+						}
+					}
+				}
+			}
+			Collections.sort(l, ID_COMPARATOR);
+			return l.toArray(new Action[l.size()]);
+		}
+		int[] ids= getTextIndex().candidates(text);
+		for (int i = 0; i < ids.length; i++) {
+			Action a= actionIndex.get(ids[i]);
+			if (a!=null && DescriptionFilter.contains(a.getDescription(), lc, caseSensitive)) {
+				l.add(a);
+			}
+		}
+		return l.toArray(new Action[l.size()]);
+	}
+
+	/**
+	 * Returns open actions, which due date is before provided time, ordered by due date.
+	 * @param now current time in milliseconds
+	 * @return overdue open actions
+	 */
+	public Action[] overdue(long now) {
+		Action[] a= dueIndex.range(Long.MIN_VALUE, now);
+		int c=0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i].isOpen()) {
+				a[c++]=a[i];
+			}
+		}
+		return c==a.length ? a : Arrays.copyOf(a, c);
+	}
 	
 	public boolean moveAction(Action action, Folder toFolder) {
 		Folder f= action.getFolder();
@@ -1586,17 +2161,22 @@ public class GTDModel implements Iterable<Folder> {
 			folderMap.put(inP.getId(), f.getId());
 		}
 
-		for (Folder inF : m) {
-			if (!inF.isMeta()) {
-				Folder f= getFolder(folderMap.get(inF.getId()));
-				for (int i= inF.size()-1; i>-1; i--) {
-				//for (int i= 0; i< inF.size(); i++) {
-					Action inA=inF.get(i);
-					Action a = createAction(f, inA.getDescription());
-					a.copy(inA);
-					a.setProject(folderMap.get(inA.getProject()));
+		beginBatch();
+		try {
+			for (Folder inF : m) {
+				if (!inF.isMeta()) {
+					Folder f= getFolder(folderMap.get(inF.getId()));
+					for (int i= inF.size()-1; i>-1; i--) {
+					//for (int i= 0; i< inF.size(); i++) {
+						Action inA=inF.get(i);
+						Action a = createAction(f, inA.getDescription());
+						a.copy(inA);
+						a.setProject(folderMap.get(inA.getProject()));
+					}
 				}
 			}
+		} finally {
+			commitBatch();
 		}
 	}
 	
@@ -1630,7 +2210,90 @@ public class GTDModel implements Iterable<Folder> {
 	}
 
 	public void purgeDeletedActions() {
-		deleted.purgeAll();
+		beginBatch();
+		try {
+			deleted.purgeAll();
+		} finally {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if model is between {@link #beginBatch()} and {@link #commitBatch()}.
+	 * @return <code>true</code> if batch is open
+	 */
+	public boolean isBatch() {
+		return batchDepth>0;
+	}
+
+	/**
+	 * Opens batch of changes. Changes are applied immediately, but listeners which implement
+	 * {@link ChangeSetListener} receive single {@link ChangeSetEvent} when outermost batch is committed,
+	 * instead of event for each change. Sorting of meta folders is postponed until commit.
+	 * Batches may be nested, each call must be matched by {@link #commitBatch()}.
+	 */
+	public synchronized void beginBatch() {
+		if (batchDepth++==0) {
+			changeSet= new ChangeSetEvent(this);
+			reminder.setSuspentedForMultipleChanges(true);
+			resolved.setSuspentedForMultipleChanges(true);
+			deleted.setSuspentedForMultipleChanges(true);
+			priority.setSuspentedForMultipleChanges(true);
+		}
+	}
+
+	/**
+	 * Closes batch opened with {@link #beginBatch()}. When outermost batch is closed, meta folders are
+	 * sorted and collected changes are delivered to {@link ChangeSetListener}s.
+	 */
+	public void commitBatch() {
+		ChangeSetEvent e;
+		synchronized (this) {
+			if (batchDepth==0) {
+				throw new IllegalStateException("Batch was not started.");
+			}
+			if (batchDepth>1) {
+				batchDepth--;
+				return;
+			}
+			// folders are resorted while batch is still open, so new order is part of change set
+			endBatch(reminder);
+			endBatch(resolved);
+			endBatch(deleted);
+			endBatch(priority);
+			batchDepth=0;
+			e= changeSet;
+			changeSet=null;
+		}
+		if (e.isEmpty()) {
+			return;
+		}
+		for (Folder f : e.getFolders()) {
+			f.fireChangeSet(e);
+		}
+		support.changeSetCommitted(e);
+	}
+
+	private void endBatch(Folder f) {
+		if (changeSet.contains(f)) {
+			f.endBatch(suspentedForMultipleChanges);
+		} else {
+			f.setSuspentedForMultipleChanges(suspentedForMultipleChanges);
+		}
+	}
+
+	/**
+	 * Runs provided code within single batch.
+	 * @param r code which changes model
+	 * @see #beginBatch()
+	 */
+	public void batch(Runnable r) {
+		beginBatch();
+		try {
+			r.run();
+		} finally {
+			commitBatch();
+		}
 	}
 
 /*	public Folder getFolder(String name) {
@@ -0,0 +1,50 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+/**
+ * Filter, which can select accepted actions from model index instead of testing each action in folder.
+ *
+ * @see FilterPlan
+ * @author ikesan
+ *
+ */
+public interface IndexedActionFilter extends ActionFilter {
+	/**
+	 * Returns all actions from folder, which are acceptable by this filter, in folder order.
+	 * @param f the folder
+	 * @return acceptable actions or <code>null</code> if index can not be used for this folder
+	 */
+	public Action[] select(Folder f);
+
+	/**
+	 * Returns all actions in model, which are acceptable by this filter, in no particular order.
+	 * @param m the model
+	 * @return acceptable actions or <code>null</code> if index can not be used for this filter
+	 */
+	public Action[] candidates(GTDModel m);
+
+	/**
+	 * Estimates number of actions returned by {@link #candidates(GTDModel)}, without selecting them.
+	 * @param m the model
+	 * @return upper bound of candidates or <code>-1</code> if index can not be used for this filter
+	 */
+	public int estimate(GTDModel m);
+}
@@ -0,0 +1,61 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * UTF-8 encoded text within memory mapped data file, which is decoded only when needed.
+ * Takes less heap than decoded string and costs nothing if never accessed.
+ *
+ * @author ikesan
+ *
+ */
+final class MappedText {
+
+	private static final Charset UTF8= Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int length;
+
+	public MappedText(ByteBuffer buffer, int offset, int length) {
+		this.buffer=buffer;
+		this.offset=offset;
+		this.length=length;
+	}
+
+	public String decode() {
+		byte[] b= new byte[length];
+		// buffer position is shared by all texts from same file
+		synchronized (buffer) {
+			buffer.position(offset);
+			buffer.get(b);
+		}
+		return new String(b, UTF8);
+	}
+
+	@Override
+	public String toString() {
+		return decode();
+	}
+
+}
@@ -0,0 +1,490 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers model events to registered listeners asynchronously. Events are queued per listener
+ * and delivered in same order as they were fired, after short coalescing window.
+ * Repeated modifications of same action property within window are collapsed into single event.
+ * <p>
+ * Listeners registered with {@link Delivery#EDT} are called on Swing event dispatch thread,
+ * listeners with {@link Delivery#WORKER} on dispatcher's own worker thread.
+ * </p>
+ * <p>
+ * Folder added, modified and removed events, which are fired on event dispatch thread, are delivered
+ * to {@link Delivery#EDT} listeners before firing returns, together with all events queued before them,
+ * so code which changes folders can use listener's state right after the change.
+ * </p>
+ *
+ * @see GTDModel#addGTDModelListener(GTDModelListener, Delivery)
+ * @author ikesan
+ *
+ */
+public class ModelEventDispatcher {
+
+	public static enum Delivery {EDT, WORKER};
+
+	public static final long DEFAULT_WINDOW= 50;
+
+	private static final int ADDED= 0;
+	private static final int MODIFIED= 1;
+	private static final int REMOVED= 2;
+	private static final int ORDER= 3;
+	private static final int FOLDER_ADDED= 4;
+	private static final int FOLDER_MODIFIED= 5;
+	private static final int FOLDER_REMOVED= 6;
+	private static final int CHANGE_SET= 7;
+
+	private static final class Entry {
+		int type;
+		Object event;
+		long time;
+		public Entry(int type, Object event) {
+			this.type=type;
+			this.event=event;
+			time=System.nanoTime();
+		}
+	}
+
+	/**
+	 * Identifies modification of single action property as seen by one folder.
+	 */
+	private static final class Key {
+		private Object source;
+		private Action action;
+		private String property;
+		public Key(ActionEvent e) {
+			source=e.getSource();
+			action=e.getAction();
+			property=e.getProperty();
+		}
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(source)*31+System.identityHashCode(action)*17+(property!=null ? property.hashCode() : 0);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key k= (Key)obj;
+			return k.source==source && k.action==action && (property==null ? k.property==null : property.equals(k.property));
+		}
+	}
+
+	class QueuedListener implements GTDModelListener {
+
+		private final GTDModelListener listener;
+		private final Delivery delivery;
+		private List<Entry> pending= new ArrayList<Entry>();
+		private Map<Key, Entry> modified= new HashMap<Key, Entry>();
+		private final Object deliveryLock= new Object();
+		// batches waiting for delivery on EDT, in order
+		private final List<Entry[]> edtBatches= new ArrayList<Entry[]>();
+		private boolean edtScheduled=false;
+		private long delivered;
+		private long coalesced;
+		private long totalLatency;
+		private long maxLatency;
+
+		public QueuedListener(GTDModelListener l, Delivery d) {
+			listener=l;
+			delivery=d;
+		}
+
+		public GTDModelListener getListener() {
+			return listener;
+		}
+
+		private void enqueue(int type, Object event) {
+			synchronized (this) {
+				pending.add(new Entry(type, event));
+				// merging across structural change would reorder events
+				modified.clear();
+			}
+			eventQueued(1);
+		}
+
+		public void elementModified(ActionEvent a) {
+			synchronized (this) {
+				Key k= new Key(a);
+				Entry e= modified.get(k);
+				if (e==null) {
+					e= new Entry(MODIFIED, a);
+					pending.add(e);
+					modified.put(k, e);
+				} else {
+					ActionEvent first= (ActionEvent)e.event;
+					coalesced++;
+					if (first.getOldValue()==null ? a.getNewValue()==null : first.getOldValue().equals(a.getNewValue())) {
+						// property has been changed back, nothing to deliver
+						e.event=null;
+						modified.remove(k);
+					} else {
+						e.event= new ActionEvent((Folder)a.getSource(), a.getAction(), a.getProperty(), first.getOldValue(), a.getNewValue(), first.isRecycled() && a.isRecycled());
+					}
+					return;
+				}
+			}
+			eventQueued(1);
+		}
+		public void elementAdded(FolderEvent a) {
+			enqueue(ADDED, a);
+		}
+		public void elementRemoved(FolderEvent a) {
+			enqueue(REMOVED, a);
+		}
+		public void orderChanged(Folder f) {
+			enqueue(ORDER, f);
+		}
+		public void folderAdded(Folder folder) {
+			enqueue(FOLDER_ADDED, folder);
+			structuralChange();
+		}
+		public void folderModified(FolderEvent folder) {
+			enqueue(FOLDER_MODIFIED, folder);
+			structuralChange();
+		}
+		public void folderRemoved(Folder folder) {
+			enqueue(FOLDER_REMOVED, folder);
+			structuralChange();
+		}
+		
+		/**
+		 * Delivers folder change immediately, when it is made on thread of delivery.
+		 */
+		private void structuralChange() {
+			if (delivery==Delivery.EDT && SwingUtilities.isEventDispatchThread()) {
+				flush();
+			}
+		}
+
+		private synchronized Entry[] drain() {
+			if (pending.size()==0) {
+				return null;
+			}
+			Entry[] e= pending.toArray(new Entry[pending.size()]);
+			pending.clear();
+			modified.clear();
+			return e;
+		}
+
+		public synchronized int getQueueDepth() {
+			return pending.size();
+		}
+
+		void flush() {
+			synchronized (deliveryLock) {
+				Entry[] e= drain();
+				if (delivery==Delivery.WORKER) {
+					if (e!=null) {
+						deliver(e);
+					}
+					return;
+				}
+				if (e!=null) {
+					edtBatches.add(e);
+				}
+				if (edtBatches.isEmpty()) {
+					return;
+				}
+				if (!SwingUtilities.isEventDispatchThread()) {
+					if (!edtScheduled) {
+						edtScheduled=true;
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								synchronized (deliveryLock) {
+									edtScheduled=false;
+								}
+								deliverEDT();
+							}
+						});
+					}
+					return;
+				}
+			}
+			deliverEDT();
+		}
+		
+		/**
+		 * Delivers waiting batches in order, called on EDT.
+		 */
+		private void deliverEDT() {
+			while (true) {
+				Entry[] e;
+				synchronized (deliveryLock) {
+					if (edtBatches.isEmpty()) {
+						return;
+					}
+					e= edtBatches.remove(0);
+				}
+				deliver(e);
+			}
+		}
+
+		private void deliver(Entry[] entries) {
+			for (Entry e : entries) {
+				if (e.event==null) {
+					continue;
+				}
+				try {
+					switch (e.type) {
+						case ADDED: listener.elementAdded((FolderEvent)e.event); break;
+						case MODIFIED: listener.elementModified((ActionEvent)e.event); break;
+						case REMOVED: listener.elementRemoved((FolderEvent)e.event); break;
+						case ORDER: listener.orderChanged((Folder)e.event); break;
+						case FOLDER_ADDED: listener.folderAdded((Folder)e.event); break;
+						case FOLDER_MODIFIED: listener.folderModified((FolderEvent)e.event); break;
+						case FOLDER_REMOVED: listener.folderRemoved((Folder)e.event); break;
+						case CHANGE_SET: ((ChangeSetListener)listener).changeSetCommitted((ChangeSetEvent)e.event); break;
+					}
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+				long l= System.nanoTime()-e.time;
+				synchronized (this) {
+					delivered++;
+					totalLatency+=l;
+					if (l>maxLatency) {
+						maxLatency=l;
+					}
+				}
+			}
+			eventDelivered(entries.length);
+		}
+	}
+
+	class QueuedChangeSetListener extends QueuedListener implements ChangeSetListener {
+		public QueuedChangeSetListener(GTDModelListener l, Delivery d) {
+			super(l, d);
+		}
+		public void changeSetCommitted(ChangeSetEvent e) {
+			super.enqueue(CHANGE_SET, e);
+		}
+	}
+
+	private class Worker extends Thread {
+		public Worker() {
+			super("GTDModel event dispatcher");
+			setDaemon(true);
+		}
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (ModelEventDispatcher.this) {
+					while (!scheduled && !stopped) {
+						try {
+							ModelEventDispatcher.this.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (stopped) {
+						return;
+					}
+				}
+				try {
+					sleep(window);
+				} catch (InterruptedException e) {
+					return;
+				}
+				flush();
+			}
+		}
+	}
+
+	private List<QueuedListener> queues= new CopyOnWriteArrayList<QueuedListener>();
+	private long window= DEFAULT_WINDOW;
+	private Worker worker;
+	private boolean scheduled=false;
+	private boolean stopped=false;
+	private int queueDepth;
+	private int maxQueueDepth;
+
+	public ModelEventDispatcher() {
+	}
+
+	/**
+	 * Creates queued listener, which must be registered with model instead of provided listener.
+	 */
+	synchronized QueuedListener wrap(GTDModelListener l, Delivery d) {
+		QueuedListener q= l instanceof ChangeSetListener ? new QueuedChangeSetListener(l, d) : new QueuedListener(l, d);
+		queues.add(q);
+		if (worker==null && !stopped) {
+			worker= new Worker();
+			worker.start();
+		}
+		return q;
+	}
+
+	/**
+	 * Removes queued listener for provided listener, pending events are dropped.
+	 * @return queued listener, which was registered for provided listener, or <code>null</code>
+	 */
+	synchronized QueuedListener unwrap(GTDModelListener l) {
+		for (QueuedListener q : queues) {
+			if (q.getListener()==l) {
+				queues.remove(q);
+				queueDepth-=q.getQueueDepth();
+				return q;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void eventQueued(int count) {
+		queueDepth+=count;
+		if (queueDepth>maxQueueDepth) {
+			maxQueueDepth=queueDepth;
+		}
+		if (!scheduled) {
+			scheduled=true;
+			notify();
+		}
+	}
+
+	private synchronized void eventDelivered(int count) {
+		queueDepth-=count;
+	}
+
+	/**
+	 * Immediately delivers all pending events. Events for {@link Delivery#WORKER} listeners
+	 * are delivered on calling thread.
+	 */
+	public void flush() {
+		synchronized (this) {
+			scheduled=false;
+		}
+		for (QueuedListener q : queues) {
+			q.flush();
+		}
+	}
+
+	/**
+	 * Stops worker thread, pending events are delivered.
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopped=true;
+			notify();
+		}
+		flush();
+	}
+
+	/**
+	 * @return coalescing window in milliseconds
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window coalescing window in milliseconds
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * @return number of events queued or in delivery
+	 */
+	public synchronized int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return highest number of events, which were queued at the same time
+	 */
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	private QueuedListener find(GTDModelListener l) {
+		for (QueuedListener q : queues) {
+			if (q.getListener()==l) {
+				return q;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of events delivered to listener, <code>-1</code> if listener is not registered with dispatcher
+	 */
+	public long getDeliveredCount(GTDModelListener l) {
+		QueuedListener q= find(l);
+		if (q==null) {
+			return -1;
+		}
+		synchronized (q) {
+			return q.delivered;
+		}
+	}
+
+	/**
+	 * @return number of events for listener, which were merged with already queued event
+	 */
+	public long getCoalescedCount(GTDModelListener l) {
+		QueuedListener q= find(l);
+		if (q==null) {
+			return -1;
+		}
+		synchronized (q) {
+			return q.coalesced;
+		}
+	}
+
+	/**
+	 * @return average time in nanoseconds from event being fired to listener returning,
+	 * <code>-1</code> if nothing was delivered yet
+	 */
+	public long getAverageLatency(GTDModelListener l) {
+		QueuedListener q= find(l);
+		if (q==null) {
+			return -1;
+		}
+		synchronized (q) {
+			return q.delivered>0 ? q.totalLatency/q.delivered : -1;
+		}
+	}
+
+	/**
+	 * @return longest time in nanoseconds from event being fired to listener returning,
+	 * <code>-1</code> if listener is not registered with dispatcher
+	 */
+	public long getMaxLatency(GTDModelListener l) {
+		QueuedListener q= find(l);
+		if (q==null) {
+			return -1;
+		}
+		synchronized (q) {
+			return q.maxLatency;
+		}
+	}
+
+}
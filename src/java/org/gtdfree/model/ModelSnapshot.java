@@ -0,0 +1,354 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.gtdfree.ApplicationHelper;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * Copy of model content, as it is written to data file. Snapshot is created by {@link GTDModel#snapshot()}
+ * and does not change when model changes, so it can be written on other thread, while model is being used.
+ *
+ * @author ikesan
+ *
+ */
+public final class ModelSnapshot {
+
+	private static final int BUFFER_SIZE= 64*1024;
+
+	// data file markup, encoded once
+	private static final byte[] PROLOG= DataFileWriter.ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n\n");
+	private static final byte[] GTD_DATA= DataFileWriter.ascii("<gtd-data version=\"2.2\" modified=\"");
+	private static final byte[] A_LAST_ACTION_ID= DataFileWriter.ascii("\" lastActionID=\"");
+	private static final byte[] CLOSE_GTD_DATA= DataFileWriter.ascii("\">\n\n");
+	private static final byte[] END_GTD_DATA= DataFileWriter.ascii("</gtd-data>");
+	private static final byte[] LISTS= DataFileWriter.ascii("<lists>\n");
+	private static final byte[] END_LISTS= DataFileWriter.ascii("</lists>\n");
+	private static final byte[] LIST= DataFileWriter.ascii("  <list id=\"");
+	private static final byte[] CLOSE_LIST= DataFileWriter.ascii("\">\n");
+	private static final byte[] END_LIST= DataFileWriter.ascii("  </list>\n");
+	private static final byte[] ACTION= DataFileWriter.ascii("    <action id=\"");
+	private static final byte[] END_ACTION= DataFileWriter.ascii("\"/>\n");
+	private static final byte[] PROJECTS= DataFileWriter.ascii("<projects>\n");
+	private static final byte[] END_PROJECTS= DataFileWriter.ascii("</projects>\n");
+	private static final byte[] PROJECT= DataFileWriter.ascii("  <project id=\"");
+	private static final byte[] END_PROJECT= DataFileWriter.ascii("\"/>\n");
+	private static final byte[] QUEUE= DataFileWriter.ascii("<queue id=\"");
+	private static final byte[] END_QUEUE= DataFileWriter.ascii("\"/>\n");
+	private static final byte[] A_NAME= DataFileWriter.ascii("\" name=\"");
+	private static final byte[] A_TYPE= DataFileWriter.ascii("\" type=\"");
+	private static final byte[] A_CLOSED= DataFileWriter.ascii("\" closed=\"");
+	private static final byte[] A_DESCRIPTION= DataFileWriter.ascii("\" description=\"");
+	private static final byte[] A_ACTIONS= DataFileWriter.ascii("\" actions=\"");
+	private static final byte[] A_CREATED= DataFileWriter.ascii("\" created=\"");
+	private static final byte[] A_RESOLUTION= DataFileWriter.ascii("\" resolution=\"");
+	private static final byte[] A_RESOLVED= DataFileWriter.ascii("\" resolved=\"");
+	private static final byte[] A_START= DataFileWriter.ascii("\" start=\"");
+	private static final byte[] A_REMIND= DataFileWriter.ascii("\" remind=\"");
+	private static final byte[] A_DUE= DataFileWriter.ascii("\" due=\"");
+	private static final byte[] A_URL= DataFileWriter.ascii("\" url=\"");
+	private static final byte[] A_QUEUED= DataFileWriter.ascii("\" queued=\"");
+	private static final byte[] A_PROJECT= DataFileWriter.ascii("\" project=\"");
+	private static final byte[] A_PRIORITY= DataFileWriter.ascii("\" priority=\"");
+	private static final byte[] TRUE= DataFileWriter.ascii("true");
+	private static final byte[] FALSE= DataFileWriter.ascii("false");
+	private static final byte[] COMMA= DataFileWriter.ascii(",");
+	private static final byte[][] RESOLUTIONS;
+
+	static {
+		Action.Resolution[] r= Action.Resolution.values();
+		RESOLUTIONS= new byte[r.length][];
+		for (int i = 0; i < r.length; i++) {
+			RESOLUTIONS[i]= DataFileWriter.ascii(r[i].toString());
+		}
+	}
+
+	/**
+	 * Encoded list or project element, shared by snapshots while folder does not change.
+	 */
+	static final class Fragment {
+		volatile byte[] bytes;
+	}
+
+	/**
+	 * Folder or project, with copies of its actions.
+	 */
+	static final class FolderState {
+		final int id;
+		final String name;
+		final FolderType type;
+		final boolean closed;
+		final boolean inBucket;
+		final String description;
+		final String goal;
+		final Action[] actions;
+		final Fragment fragment;
+
+		FolderState(Folder f, Action[] actions, Fragment fragment) {
+			id=f.getId();
+			name=f.getName();
+			type=f.getType();
+			closed=f.isClosed();
+			inBucket=f.isInBucket();
+			description=f.getDescription();
+			goal= f.isProject() ? ((Project)f).getGoal() : null;
+			this.actions=actions;
+			this.fragment=fragment;
+		}
+	}
+
+	final long modified;
+	final int lastActionID;
+	final FolderState[] folders;
+	final FolderState[] projects;
+	final FolderState queue;
+	private final int actionCount;
+	private int encodedFragments;
+
+	ModelSnapshot(GTDModel model) {
+		modified= System.currentTimeMillis();
+		lastActionID= model.getLastActionID();
+
+		Folder[] fn= model.folders();
+		List<FolderState> l= new ArrayList<FolderState>(fn.length);
+		int count=0;
+		for (Folder f : fn) {
+			if (f.isMeta()) {
+				continue;
+			}
+			Action[] aa= f.actions();
+			for (int i = 0; i < aa.length; i++) {
+				aa[i]= aa[i].copy();
+			}
+			count+=aa.length;
+			l.add(new FolderState(f, aa, model.getFragment(f)));
+		}
+		folders= l.toArray(new FolderState[l.size()]);
+		actionCount=count;
+
+		// projects and queue only list actions, which have been copied with folders
+		Project[] pn= model.projects();
+		projects= new FolderState[pn.length];
+		for (int i = 0; i < pn.length; i++) {
+			projects[i]= new FolderState(pn[i], pn[i].actions(), model.getFragment(pn[i]));
+		}
+		queue= new FolderState(model.getQueue(), model.getQueue().actions(), null);
+	}
+
+	/**
+	 * @return time when snapshot was taken, it is written in data file as modification time
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * @return number of actions in snapshot
+	 */
+	public int getActionCount() {
+		return actionCount;
+	}
+
+	/**
+	 * Writes snapshot as XML data file version 2.2. Output stream is flushed, but not closed.
+	 * File output stream is written trough its channel.
+	 */
+	public void store(OutputStream out) throws IOException {
+		DataFileWriter w= new DataFileWriter(out, BUFFER_SIZE);
+
+		w.raw(PROLOG);
+		w.raw(GTD_DATA);
+		w.text(ApplicationHelper.formatLongISO(new Date(modified)), false);
+		w.raw(A_LAST_ACTION_ID);
+		w.number(lastActionID);
+		w.raw(CLOSE_GTD_DATA);
+
+		encodedFragments=0;
+		w.raw(LISTS);
+		for (int i = 0; i < folders.length; i++) {
+			write(w, folders[i], false);
+		}
+		w.raw(END_LISTS);
+
+		w.raw(PROJECTS);
+		for (int i = 0; i < projects.length; i++) {
+			write(w, projects[i], true);
+		}
+		w.raw(END_PROJECTS);
+
+		w.raw(QUEUE);
+		w.number(queue.id);
+		w.raw(A_NAME);
+		w.text(queue.name, false);
+		w.raw(A_ACTIONS);
+		writeIDs(w, queue.actions);
+		w.raw(END_QUEUE);
+
+		w.raw(END_GTD_DATA);
+		w.flush();
+	}
+
+	/**
+	 * Writes list or project element, encoded bytes are reused from earlier store if folder did not change since.
+	 */
+	private void write(DataFileWriter w, FolderState ff, boolean project) throws IOException {
+		byte[] b= ff.fragment!=null ? ff.fragment.bytes : null;
+		if (b==null) {
+			if (ff.fragment==null) {
+				if (project) {
+					writeProject(w, ff);
+				} else {
+					writeList(w, ff);
+				}
+				encodedFragments++;
+				return;
+			}
+			ByteArrayOutputStream bout= new ByteArrayOutputStream(128+ff.actions.length*128);
+			DataFileWriter fw= new DataFileWriter(bout, Math.min(BUFFER_SIZE, 128+ff.actions.length*128));
+			if (project) {
+				writeProject(fw, ff);
+			} else {
+				writeList(fw, ff);
+			}
+			fw.flush();
+			b= bout.toByteArray();
+			ff.fragment.bytes=b;
+			encodedFragments++;
+		}
+		w.raw(b);
+	}
+
+	private static void writeList(DataFileWriter w, FolderState ff) throws IOException {
+		w.raw(LIST);
+		w.number(ff.id);
+		w.raw(A_NAME);
+		w.text(ff.name, false);
+		w.raw(A_TYPE);
+		w.text(ff.type.toString(), false);
+		w.raw(A_CLOSED);
+		w.raw(ff.closed ? TRUE : FALSE);
+		if (!ff.inBucket && ff.description!=null) {
+			w.raw(A_DESCRIPTION);
+			w.text(ff.description, true);
+		}
+		w.raw(CLOSE_LIST);
+
+		Action[] aa= ff.actions;
+		for (int j = 0; j < aa.length; j++) {
+			Action a = aa[j];
+			w.raw(ACTION);
+			w.number(a.getId());
+			w.raw(A_CREATED);
+			w.number(a.getCreatedTime());
+			w.raw(A_RESOLUTION);
+			w.raw(RESOLUTIONS[a.getResolution().ordinal()]);
+			if (a.getResolvedTime()!=Action.UNSET_DATE) {
+				w.raw(A_RESOLVED);
+				w.number(a.getResolvedTime());
+			}
+			String d= a.getDescription();
+			if (d!=null) {
+				w.raw(A_DESCRIPTION);
+				w.text(d, true);
+			}
+			if (a.getStartTime()!=Action.UNSET_DATE) {
+				w.raw(A_START);
+				w.number(a.getStartTime());
+			}
+			if (a.getRemindTime()!=Action.UNSET_DATE) {
+				w.raw(A_REMIND);
+				w.number(a.getRemindTime());
+			}
+			if (a.getDueTime()!=Action.UNSET_DATE) {
+				w.raw(A_DUE);
+				w.number(a.getDueTime());
+			}
+			if (a.getType()!=null) {
+				w.raw(A_TYPE);
+				w.text(a.getType().toString(), false);
+			}
+			if (a.getUrl()!=null) {
+				w.raw(A_URL);
+				w.text(a.getUrl().toString(), false);
+			}
+			if (a.isQueued()) {
+				w.raw(A_QUEUED);
+				w.raw(TRUE);
+			}
+			if (a.getProject()!=null) {
+				w.raw(A_PROJECT);
+				w.number(a.getProject());
+			}
+			if (a.getPriority()!=null) {
+				w.raw(A_PRIORITY);
+				w.text(a.getPriority().toString(), false);
+			}
+			w.raw(END_ACTION);
+		}
+		w.raw(END_LIST);
+	}
+
+	private static void writeProject(DataFileWriter w, FolderState ff) throws IOException {
+		w.raw(PROJECT);
+		w.number(ff.id);
+		w.raw(A_NAME);
+		w.text(ff.name, false);
+		w.raw(A_CLOSED);
+		w.raw(ff.closed ? TRUE : FALSE);
+		if (ff.description!=null) {
+			w.raw(A_DESCRIPTION);
+			w.text(ff.description, true);
+		}
+		w.raw(A_ACTIONS);
+		writeIDs(w, ff.actions);
+		w.raw(END_PROJECT);
+	}
+
+	/**
+	 * @return number of list and project elements, which were encoded by last store, others were reused
+	 */
+	public int getEncodedFragments() {
+		return encodedFragments;
+	}
+
+	private static void writeIDs(DataFileWriter w, Action[] aa) throws IOException {
+		for (int j = 0; j < aa.length; j++) {
+			if (j>0) {
+				w.raw(COMMA);
+			}
+			w.number(aa[j].getId());
+		}
+	}
+
+	/**
+	 * Writes snapshot in compact binary format. Output stream is flushed, but not closed.
+	 */
+	public void storeBinary(OutputStream out) throws IOException {
+		BinarySnapshot.store(this, out);
+	}
+
+}
@@ -0,0 +1,358 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Splits XML data file version 2.2 into chunks of actions, which are parsed in parallel
+ * into detached actions. Model then creates folders and adds actions to them in file order.
+ * <p>
+ * Pre-scan relies on data file as written by {@link GTDModel#store(java.io.OutputStream)}:
+ * UTF-8 encoding, and no comments or other markup within lists. Character '&lt;' is always
+ * escaped in attribute values, so each '&lt;' in file starts a tag. If file does not look
+ * as expected, {@link #scan(FileChannel, ExecutorService)} returns <code>null</code> and file is loaded as usual.
+ * </p>
+ *
+ * @author ikesan
+ *
+ */
+final class ParallelLoader {
+
+	/**
+	 * Number of actions parsed by one task.
+	 */
+	public static final int CHUNK_ACTIONS= 1000;
+
+	private static final Pattern PROLOG= Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']UTF-8[\"'][^>]*\\?>\\s*<gtd-data\\s[^>]*version\\s*=\\s*\"2\\.2\"", Pattern.CASE_INSENSITIVE);
+
+	private static final byte[] CHUNK_START= "<chunk>".getBytes();
+	private static final byte[] CHUNK_END= "</chunk>".getBytes();
+	private static final byte[] LIST_END= "</list>".getBytes();
+
+	private static final ThreadLocal<XMLInputFactory> FACTORY= new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			return XMLInputFactory.newInstance();
+		}
+	};
+
+	/**
+	 * Range of action elements in list, parsed into detached actions.
+	 */
+	static final class Chunk implements Callable<Chunk> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		Action[] actions;
+		Action.Resolution[] resolutions;
+		int size;
+
+		Chunk(FileChannel channel, long start, long end) {
+			this.channel=channel;
+			this.start=start;
+			this.end=end;
+		}
+
+		public Chunk call() throws Exception {
+			InputStream in= new SequenceInputStream(new SequenceInputStream(
+					new ByteArrayInputStream(CHUNK_START),
+					new ByteArrayInputStream(read(channel, start, end))),
+					new ByteArrayInputStream(CHUNK_END));
+			XMLStreamReader r= FACTORY.get().createXMLStreamReader(in);
+			try {
+				actions= new Action[CHUNK_ACTIONS];
+				resolutions= new Action.Resolution[CHUNK_ACTIONS];
+				r.nextTag();
+				r.nextTag();
+				while ("action".equals(r.getLocalName()) && r.getEventType()==XMLStreamReader.START_ELEMENT) {
+					if (size==actions.length) {
+						throw new XMLStreamException("More actions in chunk than scanned.");
+					}
+					actions[size]= GTDModel.readAction_2_2(r);
+					resolutions[size]= Action.Resolution.toResolution(r.getAttributeValue(null, "resolution"));
+					size++;
+					r.nextTag();
+					r.nextTag();
+				}
+			} finally {
+				r.close();
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * List element with its actions, split in chunks.
+	 */
+	static final class ListRecord {
+		final long start;
+		final long end;
+		final boolean empty;
+		final List<Future<Chunk>> chunks= new ArrayList<Future<Chunk>>();
+
+		ListRecord(long start, long end, boolean empty) {
+			this.start=start;
+			this.end=end;
+			this.empty=empty;
+		}
+	}
+
+	/**
+	 * Reads file position by position in buffered blocks.
+	 */
+	private static final class Scanner {
+		private final FileChannel channel;
+		private final long size;
+		private final byte[] buf= new byte[1<<20];
+		private long bufStart;
+		private int bufLength;
+
+		Scanner(FileChannel channel) throws IOException {
+			this.channel=channel;
+			this.size=channel.size();
+		}
+
+		private void fill(long p) throws IOException {
+			bufStart=p;
+			ByteBuffer b= ByteBuffer.wrap(buf);
+			while (b.hasRemaining() && p+b.position()<size) {
+				if (channel.read(b, p+b.position())<0) {
+					break;
+				}
+			}
+			bufLength=b.position();
+		}
+
+		/**
+		 * @return byte at position or -1 at end of file
+		 */
+		int get(long p) throws IOException {
+			if (p>=size) {
+				return -1;
+			}
+			if (p<bufStart || p>=bufStart+bufLength) {
+				fill(p);
+			}
+			return buf[(int)(p-bufStart)];
+		}
+
+		/**
+		 * Tests if bytes at position are same as text.
+		 */
+		boolean matches(long p, String s) throws IOException {
+			if (p+s.length()>bufStart+bufLength && p+s.length()<=size) {
+				fill(p);
+			}
+			for (int i = 0; i < s.length(); i++) {
+				if (get(p+i)!=s.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return position of first byte <code>c</code> at or after position or -1 if there is none
+		 */
+		long indexOf(int c, long p) throws IOException {
+			while (p<size) {
+				if (p<bufStart || p>=bufStart+bufLength) {
+					fill(p);
+				}
+				byte[] b= buf;
+				int n= bufLength;
+				for (int i = (int)(p-bufStart); i < n; i++) {
+					if (b[i]==c) {
+						return bufStart+i;
+					}
+				}
+				p= bufStart+n;
+			}
+			return -1;
+		}
+
+		/**
+		 * Tests if tag name at position is followed by end of name.
+		 */
+		boolean isTag(long p, String s) throws IOException {
+			if (!matches(p, s)) {
+				return false;
+			}
+			int c= get(p+s.length());
+			return c==' ' || c=='>' || c=='/' || c=='\t' || c=='\r' || c=='\n';
+		}
+	}
+
+	static byte[] read(FileChannel channel, long start, long end) throws IOException {
+		ByteBuffer b= ByteBuffer.allocate((int)(end-start));
+		while (b.hasRemaining()) {
+			if (channel.read(b, start+b.position())<0) {
+				throw new EOFException("Data file is truncated.");
+			}
+		}
+		return b.array();
+	}
+
+	private final FileChannel channel;
+	private final List<ListRecord> lists= new ArrayList<ListRecord>();
+	private long listsStart;
+	private long listsEnd;
+
+	private ParallelLoader(FileChannel channel) {
+		this.channel=channel;
+	}
+
+	/**
+	 * Finds lists and chunks of actions in file. Chunks are submitted for parsing 
+	 * as soon as they are found, so parsing runs while rest of file is scanned.
+	 * @return loader or <code>null</code> if file can not be loaded in parallel
+	 */
+	public static ParallelLoader scan(FileChannel channel, ExecutorService executor) throws IOException {
+		long size= channel.size();
+		if (size>Integer.MAX_VALUE) {
+			return null;
+		}
+		byte[] b= read(channel, 0, Math.min(size, 1024));
+		if (!PROLOG.matcher(new String(b, "ISO-8859-1")).find()) {
+			return null;
+		}
+
+		ParallelLoader l= new ParallelLoader(channel);
+		Scanner s= new Scanner(channel);
+
+		long p= s.indexOf('<', 0);
+		// header up to lists
+		while (true) {
+			if (p<0) {
+				return null;
+			}
+			if (s.isTag(p, "<lists")) {
+				long e= s.indexOf('>', p);
+				if (e<0 || s.get(e-1)=='/') {
+					return null;
+				}
+				l.listsStart= e+1;
+				p= s.indexOf('<', e);
+				break;
+			}
+			if (s.matches(p, "<!")) {
+				return null;
+			}
+			p= s.indexOf('<', p+1);
+		}
+		// lists
+		while (true) {
+			if (p<0) {
+				return null;
+			}
+			if (s.matches(p, "</lists>")) {
+				l.listsEnd= p;
+				break;
+			}
+			if (!s.isTag(p, "<list")) {
+				return null;
+			}
+			long e= s.indexOf('>', p);
+			if (e<0) {
+				return null;
+			}
+			if (s.get(e-1)=='/') {
+				l.lists.add(new ListRecord(p, e+1, true));
+				p= s.indexOf('<', e);
+				continue;
+			}
+			ListRecord lr= new ListRecord(p, e+1, false);
+			l.lists.add(lr);
+			long chunkStart= e+1;
+			int count=0;
+			p= s.indexOf('<', e);
+			while (true) {
+				if (p<0) {
+					return null;
+				}
+				if (s.isTag(p, "<action")) {
+					if (count==CHUNK_ACTIONS) {
+						lr.chunks.add(executor.submit(new Chunk(channel, chunkStart, p)));
+						chunkStart=p;
+						count=0;
+					}
+					count++;
+				} else if (s.matches(p, "</list>")) {
+					if (count>0) {
+						lr.chunks.add(executor.submit(new Chunk(channel, chunkStart, p)));
+					}
+					break;
+				} else if (!s.matches(p, "</action>")) {
+					return null;
+				}
+				p= s.indexOf('<', p+1);
+			}
+			p= s.indexOf('<', p+1);
+		}
+		return l;
+	}
+
+	/**
+	 * @return lists in file order
+	 */
+	public List<ListRecord> getLists() {
+		return lists;
+	}
+
+	/**
+	 * Creates reader of list start element, positioned at it.
+	 */
+	public XMLStreamReader readList(ListRecord lr) throws IOException, XMLStreamException {
+		InputStream in= new ByteArrayInputStream(read(channel, lr.start, lr.end));
+		if (!lr.empty) {
+			in= new SequenceInputStream(in, new ByteArrayInputStream(LIST_END));
+		}
+		XMLStreamReader r= FACTORY.get().createXMLStreamReader(in);
+		r.nextTag();
+		return r;
+	}
+
+	/**
+	 * Returns data file without list elements, with header, empty lists element, projects and queue.
+	 */
+	public InputStream readRest() throws IOException {
+		return new SequenceInputStream(
+				new ByteArrayInputStream(read(channel, 0, listsStart)),
+				new ByteArrayInputStream(read(channel, listsEnd, channel.size())));
+	}
+
+}
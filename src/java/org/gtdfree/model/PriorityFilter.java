@@ -19,12 +19,14 @@
 
 package org.gtdfree.model;
 
+import java.util.Arrays;
+
 /**
  * Filters acitions with certain priority level.
  * @author ikesan
  *
  */
-public final class PriorityFilter implements ActionFilter {
+public final class PriorityFilter implements IndexedActionFilter {
 
 	private Priority priority;
 	private boolean exactMatch;
@@ -46,6 +48,42 @@ public final class PriorityFilter implements ActionFilter {
 		return priority.ordinal() <= a.getPriority().ordinal();
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		return FilterPlan.select(this, f);
+	}
+	
+	/**
+	 * Returns actions from Priority folder, actions without priority can not be selected trough index.
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		if (priority==Priority.None) {
+			return null;
+		}
+		Folder f= m.getPriorityFolder();
+		Action[] aa= f.actions();
+		int c=0;
+		for (int i = 0; i < aa.length; i++) {
+			if (isAcceptable(f, aa[i])) {
+				aa[c++]=aa[i];
+			}
+		}
+		return c==aa.length ? aa : Arrays.copyOf(aa, c);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		return priority==Priority.None ? -1 : m.getPriorityFolder().size();
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof PriorityFilter) {
@@ -57,4 +95,14 @@ public final class PriorityFilter implements ActionFilter {
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return priority.ordinal()*2 + (exactMatch ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return "PriorityFilter{"+(exactMatch ? "" : ">=")+priority+"}";
+	}
+
 }
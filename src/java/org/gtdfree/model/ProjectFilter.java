@@ -24,7 +24,7 @@ package org.gtdfree.model;
  * @author ikesan
  *
  */
-public class ProjectFilter implements ActionFilter {
+public class ProjectFilter implements IndexedActionFilter {
 
 	private Integer project;
 	
@@ -45,16 +45,55 @@ public class ProjectFilter implements ActionFilter {
 		return project.equals(a.getProject());			
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		if (project!=null && f.getParent()!=null && f==f.getParent().getProject(project)) {
+			return f.actions();
+		}
+		return FilterPlan.select(this, f);
+	}
+	
+	/**
+	 * Returns actions from project's folder, actions without project can not be selected trough index.
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		Project p= project!=null ? m.getProject(project) : null;
+		return p!=null ? p.actions() : null;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		Project p= project!=null ? m.getProject(project) : null;
+		return p!=null ? p.size() : -1;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof ProjectFilter) {
 			ProjectFilter p= (ProjectFilter)obj;
 			
-			return p.project==project;
+			return project==null ? p.project==null : project.equals(p.project);
 			
 		}
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return project!=null ? project.hashCode() : -1;
+	}
+
+	@Override
+	public String toString() {
+		return "ProjectFilter{"+project+"}";
+	}
 
 }
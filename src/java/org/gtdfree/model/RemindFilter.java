@@ -24,7 +24,7 @@ package org.gtdfree.model;
  * @author ikesan
  *
  */
-public class RemindFilter implements ActionFilter {
+public class RemindFilter implements IndexedActionFilter {
 
 	private boolean past;
 	private long start;
@@ -47,11 +47,14 @@ public class RemindFilter implements ActionFilter {
 	 */
 	@Override
 	public boolean isAcceptable(Folder f, Action a) {
-		if (a==null || a.getRemind()==null) {
+		if (a==null) {
 			return false;
 		}
 		
-		long test= a.getRemind().getTime();
+		long test= a.getRemindTime();
+		if (test==Action.UNSET_DATE) {
+			return false;
+		}
 
 		if (past) {
 			return end>test;
@@ -62,4 +65,57 @@ public class RemindFilter implements ActionFilter {
 		
 	}
 
+	/**
+	 * Selects actions from remind index. For Tickler folder index order is folder order.
+	 * @see org.gtdfree.model.IndexedActionFilter#select(org.gtdfree.model.Folder)
+	 */
+	@Override
+	public Action[] select(Folder f) {
+		GTDModel m= f.getParent();
+		if (m!=null && f==m.getRemindFolder()) {
+			return candidates(m);
+		}
+		return FilterPlan.select(this, f);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#candidates(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public Action[] candidates(GTDModel m) {
+		if (past) {
+			return m.actionsRemindedBefore(end);
+		}
+		return m.actionsRemindedBetween(start, end);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gtdfree.model.IndexedActionFilter#estimate(org.gtdfree.model.GTDModel)
+	 */
+	@Override
+	public int estimate(GTDModel m) {
+		return m.countReminded(past ? Long.MIN_VALUE : start, end);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof RemindFilter) {
+			RemindFilter f= (RemindFilter)obj;
+			
+			return f.past==past && f.start==start && f.end==end;
+			
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(start ^ (start >>> 32))*31 + (int)(end ^ (end >>> 32)) + (past ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return "RemindFilter{"+(past ? "" : start)+".."+end+"}";
+	}
+
 }
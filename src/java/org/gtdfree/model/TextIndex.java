@@ -0,0 +1,292 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.gtdfree.model;
+
+import java.util.Arrays;
+
+/**
+ * Inverted index of action descriptions. Each description is split into overlapping
+ * lower case trigrams, for each trigram sorted list of action IDs is kept.
+ * Any description containing some text must contain all trigrams of that text,
+ * so intersection of their lists gives candidates for substring search.
+ *
+ * @author ikesan
+ *
+ */
+final class TextIndex {
+
+	/**
+	 * Shortest text, which can be resolved by index.
+	 */
+	public static final int GRAM= 3;
+
+	/**
+	 * Sorted set of action IDs.
+	 */
+	private static final class Postings {
+		int[] ids= new int[4];
+		int size;
+
+		void add(int id) {
+			// new actions have highest IDs, so this is usually append
+			if (size==0 || ids[size-1]<id) {
+				if (size==ids.length) {
+					ids= Arrays.copyOf(ids, size*2);
+				}
+				ids[size++]=id;
+				return;
+			}
+			int i= Arrays.binarySearch(ids, 0, size, id);
+			if (i>=0) {
+				return;
+			}
+			i= -i-1;
+			if (size==ids.length) {
+				ids= Arrays.copyOf(ids, size*2);
+			}
+			System.arraycopy(ids, i, ids, i+1, size-i);
+			ids[i]=id;
+			size++;
+		}
+
+		void remove(int id) {
+			int i= Arrays.binarySearch(ids, 0, size, id);
+			if (i<0) {
+				return;
+			}
+			System.arraycopy(ids, i+1, ids, i, size-i-1);
+			size--;
+		}
+
+		/**
+		 * Returns position of first ID not smaller than provided one, searching from position <code>from</code>.
+		 */
+		int seek(int from, int id) {
+			// gallop forward, then binary search in last step
+			int step=1;
+			int hi=from;
+			while (hi<size && ids[hi]<id) {
+				from=hi+1;
+				hi+=step;
+				step<<=1;
+			}
+			if (hi>size) {
+				hi=size;
+			}
+			int i= Arrays.binarySearch(ids, from, hi, id);
+			return i<0 ? -i-1 : i;
+		}
+	}
+
+	// open addressing hash table from trigram to postings, trigram keys are not boxed
+	private long[] keys= new long[1024];
+	private Postings[] values= new Postings[1024];
+	private int size;
+
+	private static int hash(long g) {
+		long h= g * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private Postings get(long g) {
+		int mask= values.length-1;
+		int i= hash(g) & mask;
+		Postings p;
+		while ((p=values[i])!=null) {
+			if (keys[i]==g) {
+				return p;
+			}
+			i= (i+1) & mask;
+		}
+		return null;
+	}
+
+	private Postings getOrCreate(long g) {
+		if ((size+1)*4 > values.length*3) {
+			resize(values.length*2);
+		}
+		int mask= values.length-1;
+		int i= hash(g) & mask;
+		Postings p;
+		while ((p=values[i])!=null) {
+			if (keys[i]==g) {
+				return p;
+			}
+			i= (i+1) & mask;
+		}
+		p= new Postings();
+		keys[i]=g;
+		values[i]=p;
+		size++;
+		return p;
+	}
+
+	private void resize(int capacity) {
+		long[] k= keys;
+		Postings[] v= values;
+		keys= new long[capacity];
+		values= new Postings[capacity];
+		int mask= capacity-1;
+		for (int j = 0; j < v.length; j++) {
+			if (v[j]!=null) {
+				int i= hash(k[j]) & mask;
+				while (values[i]!=null) {
+					i= (i+1) & mask;
+				}
+				keys[i]=k[j];
+				values[i]=v[j];
+			}
+		}
+	}
+
+	private static long gram(CharSequence s, int i) {
+		return ((long)Character.toLowerCase(s.charAt(i))<<32)
+			| ((long)Character.toLowerCase(s.charAt(i+1))<<16)
+			| Character.toLowerCase(s.charAt(i+2));
+	}
+
+	public void add(int id, String text) {
+		if (text==null) {
+			return;
+		}
+		for (int i = 0; i+GRAM <= text.length(); i++) {
+			getOrCreate(gram(text, i)).add(id);
+		}
+	}
+
+	public void remove(int id, String text) {
+		if (text==null) {
+			return;
+		}
+		for (int i = 0; i+GRAM <= text.length(); i++) {
+			// empty postings are kept, set of trigrams in use does not change much
+			Postings p= get(gram(text, i));
+			if (p!=null) {
+				p.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * Returns IDs of actions, which descriptions contain all trigrams of provided text,
+	 * sorted ascending. Candidates still must be checked against text.
+	 * @param text search text, at least {@link #GRAM} characters long
+	 * @return candidate IDs
+	 */
+	public int[] candidates(String text) {
+		int n= text.length()-GRAM+1;
+		Postings[] pp= new Postings[n];
+		for (int i = 0; i < n; i++) {
+			Postings p= get(gram(text, i));
+			if (p==null) {
+				return new int[0];
+			}
+			pp[i]=p;
+		}
+		// drive intersection by shortest list
+		int min=0;
+		for (int i = 1; i < n; i++) {
+			if (pp[i].size<pp[min].size) {
+				min=i;
+			}
+		}
+		Postings driver= pp[min];
+		// driver IDs are ascending, so each list is searched only forward from last position
+		int[] pos= new int[n];
+		int[] r= new int[driver.size];
+		int c=0;
+		outer: for (int k = 0; k < driver.size; k++) {
+			int id= driver.ids[k];
+			for (int i = 0; i < n; i++) {
+				if (pp[i]==driver) {
+					continue;
+				}
+				int j= pp[i].seek(pos[i], id);
+				pos[i]=j;
+				if (j==pp[i].size) {
+					break outer;
+				}
+				if (pp[i].ids[j]!=id) {
+					continue outer;
+				}
+			}
+			r[c++]=id;
+		}
+		return c==r.length ? r : Arrays.copyOf(r, c);
+	}
+
+	/**
+	 * Returns length of shortest ID list among trigrams of text, which is upper bound 
+	 * of number of candidates returned by {@link #candidates(String)}.
+	 * @param text search text, at least {@link #GRAM} characters long
+	 */
+	public int estimate(String text) {
+		int n= text.length()-GRAM+1;
+		int min= Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			Postings p= get(gram(text, i));
+			if (p==null) {
+				return 0;
+			}
+			if (p.size<min) {
+				min=p.size;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * @return number of distinct trigrams in index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Converts text to lower case character by character, same as index and {@link #containsIgnoreCase(String, String)} do.
+	 */
+	public static String toLowerCase(String text) {
+		char[] c= text.toCharArray();
+		for (int i = 0; i < c.length; i++) {
+			c[i]= Character.toLowerCase(c[i]);
+		}
+		return new String(c);
+	}
+
+	/**
+	 * Tests if text contains lower case criterion, when compared character by character in lower case.
+	 * Unlike <code>text.toLowerCase().contains(criterion)</code> does not create new string.
+	 */
+	public static boolean containsIgnoreCase(String text, String lowerCaseCriterion) {
+		int n= lowerCaseCriterion.length();
+		int max= text.length()-n;
+		for (int i = 0; i <= max; i++) {
+			int j=0;
+			while (j<n && Character.toLowerCase(text.charAt(i+j))==lowerCaseCriterion.charAt(j)) {
+				j++;
+			}
+			if (j==n) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
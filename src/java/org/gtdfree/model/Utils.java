@@ -19,6 +19,9 @@
 
 package org.gtdfree.model;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -47,4 +50,30 @@ public final class Utils {
 		return cal.getTimeInMillis();
 	}
 
+	/**
+	 * Parses link into URI, without resolving host name. Links which are not valid URI,
+	 * but are accepted by {@link URL} (for example with spaces), are escaped.
+	 * @param s the link
+	 * @return absolute URI
+	 * @throws URISyntaxException if link is not valid absolute URL
+	 */
+	public static URI toURI(String s) throws URISyntaxException {
+		URI u;
+		try {
+			u= new URI(s);
+		} catch (URISyntaxException e) {
+			URL url;
+			try {
+				url= new URL(s);
+			} catch (Exception ex) {
+				throw e;
+			}
+			u= new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
+		}
+		if (!u.isAbsolute()) {
+			throw new URISyntaxException(s, "Link is not absolute");
+		}
+		return u;
+	}
+
 }
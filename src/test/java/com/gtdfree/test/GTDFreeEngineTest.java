@@ -19,11 +19,17 @@
 
 package com.gtdfree.test;
 
+import java.io.File;
 import java.util.Properties;
 
 import junit.framework.TestCase;
 
+import org.gtdfree.ApplicationHelper;
 import org.gtdfree.GTDFreeEngine;
+import org.gtdfree.model.Action;
+import org.gtdfree.model.Folder;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.Folder.FolderType;
 
 /**
  * @author ikesan
@@ -39,6 +45,13 @@ public class GTDFreeEngineTest extends TestCase {
 	@Override
 	protected void setUp() throws Exception {
 
+		if (System.getProperty(ApplicationHelper.DATA_PROPERTY)==null) {
+			// keep engine away from user's data
+			File dir= File.createTempFile("gtd-free-engine", "");
+			dir.delete();
+			dir.mkdirs();
+			System.setProperty(ApplicationHelper.DATA_PROPERTY, dir.getAbsolutePath());
+		}
 		engine= new GTDFreeEngine();
 
 	}
@@ -54,4 +67,36 @@ public class GTDFreeEngineTest extends TestCase {
 		
 	}
 
+	public void testAutoSaveOffOn() throws Exception {
+		
+		if (!ApplicationHelper.getDataFolder().getName().startsWith("gtd-free-engine")) {
+			// data folder was set elsewhere, do not touch it
+			return;
+		}
+		
+		GTDModel m= engine.getGTDModel();
+		assertTrue(engine.isAutoSave());
+		
+		engine.setAutoSave(false);
+		Folder f= m.createFolder("AutoSaveOffOn", FolderType.ACTION);
+		Action a= m.createAction(f, "made while auto save was off");
+		engine.setAutoSave(true);
+		
+		// change log does not have the changes, data file must be written
+		long c= engine.getSaveCount();
+		engine.save();
+		assertEquals(c+1, engine.getSaveCount());
+		
+		assertTrue(engine.close(true));
+		
+		GTDFreeEngine e= new GTDFreeEngine();
+		GTDModel m2= e.getGTDModel();
+		Folder f2= m2.getFolder(f.getId());
+		assertNotNull(f2);
+		assertEquals("AutoSaveOffOn", f2.getName());
+		assertNotNull(m2.getAction(a.getId()));
+		assertEquals(a.getDescription(), m2.getAction(a.getId()).getDescription());
+		e.close(true);
+	}
+
 }
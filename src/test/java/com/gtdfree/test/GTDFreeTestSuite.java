@@ -35,5 +35,8 @@ public class GTDFreeTestSuite extends TestSuite {
 		addTestSuite(GTDFreeEngineTest.class);
 		addTestSuite(ModelTest.class);
 		addTestSuite(SaveLoadTest.class);
+		addTestSuite(SaveSchedulerTest.class);
+		addTestSuite(JournalModelTest.class);
+		addTestSuite(ReminderSchedulerTest.class);
 	}
 }
@@ -0,0 +1,447 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gtdfree.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.gtdfree.journal.Interval;
+import org.gtdfree.journal.JournalEntry;
+import org.gtdfree.journal.JournalModel;
+import org.gtdfree.journal.JournalStore;
+import org.gtdfree.journal.JournalTools;
+import org.gtdfree.model.Action;
+import org.gtdfree.model.Folder;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.Project;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * @author ikesan
+ *
+ */
+public class JournalModelTest extends TestCase {
+	
+	File dir;
+	GTDModel gtdModel;
+	
+	@Override
+	protected void setUp() throws Exception {
+		dir= File.createTempFile("gtd-free-journal", "");
+		dir.delete();
+		gtdModel= new GTDModel();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		File[] ff= dir.listFiles();
+		for (int i = 0; ff!=null && i < ff.length; i++) {
+			ff[i].delete();
+		}
+		dir.delete();
+	}
+	
+	private JournalModel open() throws Exception {
+		return new JournalModel(new JournalStore(dir, gtdModel));
+	}
+
+	public void testPersistence() throws Exception {
+		Folder f= gtdModel.createFolder("F", FolderType.ACTION);
+		Action a= gtdModel.createAction(f, "A");
+		
+		JournalModel m= open();
+		assertNull(m.getEntries(100));
+		JournalEntry e1= m.addEntry(100);
+		e1.setComment("First č");
+		e1.addInterval(new Interval(60, 120));
+		e1.addInterval(new Interval(180, 240));
+		e1.setInterval(0, new Interval(30, 120));
+		e1.setActions(Arrays.asList(a));
+		JournalEntry e2= m.addEntry(100);
+		e2.setChecked(true);
+		JournalEntry e3= m.addEntry(101);
+		e3.setComment("Other day");
+		assertEquals(e1.getId()+1, e2.getId());
+		m.close();
+		
+		m= open();
+		assertFalse(m.isResident(100));
+		JournalEntry[] ee= m.getEntries(100);
+		assertTrue(m.isResident(100));
+		assertFalse(m.isResident(101));
+		assertEquals(2, ee.length);
+		assertEquals(e1.getId(), ee[0].getId());
+		assertEquals(100, ee[0].getDay());
+		assertEquals("First č", ee[0].getComment());
+		assertEquals(2, ee[0].getIntervalCount());
+		assertEquals(30, ee[0].getInterval(0).getStart());
+		assertEquals(240, ee[0].getInterval(1).getEnd());
+		assertEquals(Arrays.asList(a), ee[0].getActions());
+		assertTrue(ee[1].isChecked());
+		assertNull(ee[1].getComment());
+		
+		// new entry IDs continue after stored ones
+		JournalEntry e4= m.addEntry(102);
+		assertTrue(e4.getId()>e3.getId());
+		
+		// entry moved to other day
+		ee[1].setDay(101);
+		assertEquals(1, m.getEntries(100).length);
+		assertEquals(2, m.getEntries(101).length);
+		m.close();
+		
+		m= open();
+		assertEquals(1, m.getEntries(100).length);
+		assertEquals(2, m.getEntries(101).length);
+		assertEquals("Other day", m.getEntries(101)[0].getComment());
+		m.close();
+	}
+	
+	public void testResidentDays() throws Exception {
+		JournalModel m= open();
+		m.setMaxResidentDays(3);
+		for (int day = 0; day < 10; day++) {
+			m.addEntry(day).setComment("Day "+day);
+		}
+		assertFalse(m.isResident(0));
+		assertTrue(m.isResident(9));
+		
+		// evicted day is loaded again
+		assertEquals("Day 0", m.getEntries(0)[0].getComment());
+		assertTrue(m.isResident(0));
+		assertFalse(m.isResident(7));
+		m.close();
+	}
+	
+	public void testCompaction() throws Exception {
+		JournalModel m= open();
+		JournalEntry e= m.addEntry(5);
+		for (int i = 0; i < 100; i++) {
+			e.setComment("Comment "+i);
+		}
+		m.close();
+		JournalStore s= new JournalStore(dir, gtdModel);
+		File f= s.getSegmentFile(5);
+		long length= f.length();
+		
+		// interrupted append
+		RandomAccessFile raf= new RandomAccessFile(f, "rw");
+		raf.seek(length);
+		raf.writeInt(1000);
+		raf.write(new byte[10]);
+		raf.close();
+		
+		assertEquals("Comment 99", s.load(5).get(0).getComment());
+		assertTrue(f.length()<length/10);
+		assertEquals("Comment 99", s.load(5).get(0).getComment());
+		s.close();
+	}
+
+	public void testAppendAfterTornTail() throws Exception {
+		JournalModel m= open();
+		JournalEntry e1= m.addEntry(5);
+		e1.setComment("First");
+		m.addEntry(5).setComment("Second");
+		m.close();
+		
+		JournalStore s= new JournalStore(dir, gtdModel);
+		File f= s.getSegmentFile(5);
+		RandomAccessFile raf= new RandomAccessFile(f, "rw");
+		raf.seek(raf.length());
+		raf.writeInt(1000);
+		raf.write(new byte[3]);
+		raf.close();
+		
+		// segment, which was not read, gets record after crash
+		s.remove(5, e1.getId());
+		s.close();
+		
+		s= new JournalStore(dir, gtdModel);
+		List<JournalEntry> l= s.load(5);
+		assertEquals(1, l.size());
+		assertEquals("Second", l.get(0).getComment());
+		s.close();
+	}
+
+	public void testCompactionRecovery() throws Exception {
+		JournalModel m= open();
+		m.addEntry(5).setComment("First");
+		m.addEntry(5).setComment("Second");
+		m.addEntry(6).setComment("Other day");
+		m.close();
+		
+		// crash after old segment was deleted, before rewritten one replaced it
+		JournalStore s= new JournalStore(dir, gtdModel);
+		File f= s.getSegmentFile(5);
+		File tmp= new File(dir, f.getName()+JournalStore.TEMP_SUFFIX);
+		assertTrue(f.renameTo(tmp));
+		s.close();
+		
+		s= new JournalStore(dir, gtdModel);
+		List<JournalEntry> l= s.load(5);
+		assertEquals(2, l.size());
+		assertEquals("First", l.get(0).getComment());
+		assertEquals("Second", l.get(1).getComment());
+		assertTrue(f.exists());
+		assertFalse(tmp.exists());
+		
+		// segment left only as temporary file is listed too
+		assertTrue(f.renameTo(tmp));
+		assertEquals(2, s.days().length);
+		assertTrue(f.exists());
+		s.close();
+	}
+
+	public void testEntryIDs() throws Exception {
+		JournalModel m= open();
+		int last=0;
+		for (int i = 0; i < 100; i++) {
+			last= m.addEntry(i%3).getId();
+		}
+		m.close();
+		File id= new File(dir, JournalStore.ID_FILE_NAME);
+		assertEquals(4, id.length());
+		assertFalse(new File(dir, JournalStore.ID_FILE_NAME+JournalStore.TEMP_SUFFIX).exists());
+		
+		// IDs are not given again after restart
+		m= open();
+		int next= m.addEntry(0).getId();
+		assertTrue(next>last);
+		m.close();
+		
+		// nor when ID file is lost
+		assertTrue(id.delete());
+		m= open();
+		assertTrue(m.addEntry(1).getId()>next);
+		m.close();
+	}
+
+	public void testRollups() throws Exception {
+		Project p= (Project)gtdModel.createFolder("P", FolderType.PROJECT);
+		Folder f= gtdModel.createFolder("F", FolderType.ACTION);
+		Action a1= gtdModel.createAction(f, "A1");
+		Action a2= gtdModel.createAction(f, "A2");
+		a1.setProject(p.getId());
+		
+		long monday= JournalTools.toDay(new GregorianCalendar(2009, Calendar.MARCH, 2).getTimeInMillis()+JournalTools.MILLIS_IN_HOUR*12);
+		
+		JournalModel m= open();
+		// in memory and stored model give same results, stored one builds index from store
+		for (int k = 0; k < 2; k++) {
+			if (k==0) {
+				JournalEntry e= m.addEntry(monday);
+				e.addInterval(new Interval(0, 60));
+				e.setActions(Arrays.asList(a1));
+				e= m.addEntry(monday+1);
+				e.addInterval(new Interval(0, 30));
+				e.addInterval(new Interval(60, 75));
+				e.setActions(Arrays.asList(a1, a2));
+				e= m.addEntry(monday+40);
+				e.addInterval(new Interval(0, 10));
+			} else {
+				m.close();
+				m= open();
+			}
+			
+			assertEquals(60, m.getDayMinutes(monday));
+			assertEquals(45, m.getDayMinutes(monday+1));
+			assertEquals(105, m.getMinutes(monday, monday+2));
+			assertEquals(115, m.getMinutes(0, Long.MAX_VALUE));
+			assertEquals(60, m.getMinutes(monday, monday+1));
+			assertEquals(0, m.getMinutes(monday+2, monday+40));
+			assertEquals(105, m.getMonthMinutes(monday+10));
+			assertEquals(10, m.getMonthMinutes(monday+40));
+			assertEquals(105, m.getActionMinutes(a1, 0, Long.MAX_VALUE));
+			assertEquals(45, m.getActionMinutes(a2, 0, Long.MAX_VALUE));
+			assertEquals(105, m.getProjectMinutes(p, monday, monday+7));
+			assertTrue(Arrays.equals(new long[]{monday, monday+1, monday+40}, m.getDays(0, Long.MAX_VALUE)));
+		}
+		
+		// index follows changes
+		JournalEntry e= m.getEntries(monday)[0];
+		e.setInterval(0, new Interval(0, 120));
+		assertEquals(120, m.getDayMinutes(monday));
+		e.removeInterval(e.getInterval(0));
+		assertEquals(0, m.getDayMinutes(monday));
+		m.getEntries(monday+1)[0].setDay(monday+2);
+		assertEquals(0, m.getDayMinutes(monday+1));
+		assertEquals(45, m.getDayMinutes(monday+2));
+		assertEquals(45, m.getWeekMinutes(monday+3));
+		assertEquals(45, m.getActionMinutes(a2, 0, Long.MAX_VALUE));
+		m.getEntries(monday+2)[0].setActions(Arrays.asList(a2));
+		assertEquals(0, m.getProjectMinutes(p, 0, Long.MAX_VALUE));
+		m.close();
+	}
+	
+	public void testActionTotals() throws Exception {
+		Project p1= (Project)gtdModel.createFolder("P1", FolderType.PROJECT);
+		Project p2= (Project)gtdModel.createFolder("P2", FolderType.PROJECT);
+		Folder f= gtdModel.createFolder("F", FolderType.ACTION);
+		Action a1= gtdModel.createAction(f, "A1");
+		Action a2= gtdModel.createAction(f, "A2");
+		a1.setProject(p1.getId());
+		
+		JournalModel m= open();
+		m.setGTDModel(gtdModel);
+		JournalEntry e1= m.addEntry(10);
+		e1.addInterval(new Interval(0, 30));
+		e1.setActions(Arrays.asList(a1));
+		JournalEntry e2= m.addEntry(20);
+		e2.addInterval(new Interval(60, 80));
+		e2.setActions(Arrays.asList(a1, a2));
+		m.close();
+		
+		m= open();
+		m.setGTDModel(gtdModel);
+		assertEquals(50, m.getActionTotalMinutes(a1));
+		assertEquals(20, m.getActionTotalMinutes(a2));
+		assertEquals(50, m.getProjectTotalMinutes(p1));
+		assertEquals(0, m.getProjectTotalMinutes(p2));
+		JournalEntry[] ee= m.getEntries(a1);
+		assertEquals(2, ee.length);
+		assertEquals(e1.getId(), ee[0].getId());
+		assertEquals(e2.getId(), ee[1].getId());
+		assertEquals(1, m.getEntries(a2).length);
+		
+		// project totals follow actions
+		a2.setProject(p2.getId());
+		assertEquals(20, m.getProjectTotalMinutes(p2));
+		a1.setProject(p2.getId());
+		assertEquals(0, m.getProjectTotalMinutes(p1));
+		assertEquals(70, m.getProjectTotalMinutes(p2));
+		
+		// and entries
+		m.getEntries(20)[0].setActions(Arrays.asList(a2));
+		assertEquals(30, m.getActionTotalMinutes(a1));
+		assertEquals(50, m.getProjectTotalMinutes(p2));
+		assertEquals(1, m.getEntries(a1).length);
+		m.getEntries(10)[0].addInterval(new Interval(100, 110));
+		assertEquals(40, m.getActionTotalMinutes(a1));
+		m.close();
+	}
+	
+	public void testBuildIndexLater() throws Exception {
+		final Project p1= (Project)gtdModel.createFolder("P1", FolderType.PROJECT);
+		Folder f= gtdModel.createFolder("F", FolderType.ACTION);
+		final Action a1= gtdModel.createAction(f, "A1");
+		a1.setProject(p1.getId());
+		
+		JournalModel m= open();
+		JournalEntry e1= m.addEntry(10);
+		e1.addInterval(new Interval(0, 30));
+		e1.setActions(Arrays.asList(a1));
+		m.close();
+		
+		final JournalModel m2= open();
+		m2.setGTDModel(gtdModel);
+		final long[] total= new long[]{-1,-1};
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				assertFalse(m2.isIndexReady());
+				m2.buildIndexLater(new Runnable() {
+					public void run() {
+						total[0]= m2.getActionTotalMinutes(a1);
+					}
+				});
+				// changed while index is built in background
+				m2.getEntries(10)[0].addInterval(new Interval(60, 70));
+			}
+		});
+		for (int i = 0; i < 100 && !m2.isIndexReady(); i++) {
+			Thread.sleep(20);
+		}
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				total[1]= m2.getProjectTotalMinutes(p1);
+			}
+		});
+		assertTrue(m2.isIndexReady());
+		assertEquals(40, total[0]);
+		assertEquals(40, total[1]);
+		m2.close();
+	}
+	
+	public void testWeeks() {
+		long day= JournalTools.today();
+		long first= JournalTools.firstDayOfWeek(day);
+		assertTrue(first<=day && day-first<7);
+		assertEquals(first, JournalTools.firstDayOfWeek(first+6));
+		long month= JournalTools.firstDayOfMonth(day);
+		long next= JournalTools.firstDayOfNextMonth(day);
+		assertTrue(next-month>=28 && next-month<=31);
+		assertEquals(next, JournalTools.firstDayOfMonth(next));
+		assertEquals(month, JournalTools.firstDayOfMonth(next-1));
+	}
+	
+	public void testIntervals() {
+		JournalEntry e= new JournalEntry(1);
+		assertEquals(0, e.addInterval(new Interval(600, 660)));
+		assertEquals(0, e.addInterval(new Interval(480, 540)));
+		assertEquals(2, e.addInterval(new Interval(720, 700)));
+		assertEquals(700, e.getIntervalStart(2));
+		assertEquals(720, e.getIntervalEnd(2));
+		
+		// touching intervals stay apart
+		assertEquals(1, e.addInterval(new Interval(540, 560)));
+		assertEquals(4, e.getIntervalCount());
+		
+		assertTrue(e.isTracked(480));
+		assertTrue(e.isTracked(545));
+		assertFalse(e.isTracked(560));
+		assertFalse(e.isTracked(660));
+		assertFalse(e.isTracked(0));
+		assertFalse(e.isTracked(1000));
+		assertEquals(60+20+60+20, e.getDuration());
+		
+		// merges everything from 540 to 700
+		assertEquals(1, e.addInterval(new Interval(550, 705)));
+		assertEquals(2, e.getIntervalCount());
+		assertEquals(new Interval(480, 540), e.getInterval(0));
+		assertEquals(new Interval(540, 720), e.getInterval(1));
+		
+		// moved interval keeps order
+		e.setInterval(0, new Interval(800, 900));
+		assertEquals(new Interval(540, 720), e.getInterval(0));
+		assertEquals(new Interval(800, 900), e.getInterval(1));
+		e.removeInterval(new Interval(540, 720));
+		assertEquals(1, e.getIntervalCount());
+		assertEquals(100, e.getDuration());
+		
+		// removal takes turned around interval as add does, unknown one is ignored
+		e.addInterval(new Interval(1000, 1100));
+		e.removeInterval(new Interval(900, 800));
+		assertEquals(1, e.getIntervalCount());
+		e.removeInterval(new Interval(1000, 1050));
+		assertEquals(1, e.getIntervalCount());
+		
+		// null removes interval at index
+		e.setInterval(0, null);
+		assertEquals(0, e.getIntervalCount());
+	}
+
+}
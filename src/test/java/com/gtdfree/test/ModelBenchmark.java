@@ -0,0 +1,579 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gtdfree.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.gtdfree.ApplicationHelper;
+
+import org.gtdfree.journal.JournalEntry;
+import org.gtdfree.journal.JournalModel;
+import org.gtdfree.model.Action;
+import org.gtdfree.model.DescriptionFilter;
+import org.gtdfree.model.Folder;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.GTDModelAdapter;
+import org.gtdfree.model.Priority;
+import org.gtdfree.model.Project;
+import org.gtdfree.model.Action.Resolution;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * Simple timing harness for model operations, it is not part of test suite.
+ * Run with <code>java com.gtdfree.test.ModelBenchmark [name]</code>, without name all benchmarks are run.
+ * @author ikesan
+ *
+ */
+public class ModelBenchmark {
+
+	private static final int[] SIZES= {1000, 10000, 100000, 1000000};
+	private static final int ACTIONS_PER_FOLDER= 1000;
+
+	public static void main(String[] args) {
+		String name= args.length>0 ? args[0] : null;
+
+		if (name==null || "lookup".equals(name)) {
+			benchmarkLookup();
+		}
+		if (name==null || "reminders".equals(name)) {
+			benchmarkReminders();
+		}
+		if (name==null || "allocation".equals(name)) {
+			benchmarkAllocation();
+		}
+		if (name==null || "footprint".equals(name)) {
+			benchmarkFootprint();
+		}
+		if (name==null || "search".equals(name)) {
+			benchmarkSearch();
+		}
+		if (name==null || "snapshot".equals(name)) {
+			benchmarkSnapshot();
+		}
+		if (name==null || "mapped".equals(name)) {
+			benchmarkMapped();
+		}
+		if (name==null || "parallel".equals(name)) {
+			benchmarkParallel();
+		}
+		if (name==null || "emitter".equals(name)) {
+			benchmarkEmitter();
+		}
+	}
+
+	static GTDModel createModel(int size) {
+		GTDModel m= new GTDModel();
+		Folder f= null;
+		for (int i = 0; i < size; i++) {
+			if (i%ACTIONS_PER_FOLDER==0) {
+				f= m.createFolder("F"+i, FolderType.ACTION);
+			}
+			m.createAction(f, "Action "+i);
+		}
+		return m;
+	}
+
+	/**
+	 * Measures <code>GTDModel.getAction(int)</code>, time per lookup should not depend on model size.
+	 */
+	static void benchmarkLookup() {
+		System.out.println("lookup: ns per GTDModel.getAction(int)");
+		for (int size : SIZES) {
+			GTDModel m= createModel(size);
+			Random r= new Random(size);
+			int lookups= 1000000;
+			int found=0;
+			// warm up
+			for (int i = 0; i < lookups; i++) {
+				if (m.getAction(r.nextInt(size))!=null) found++;
+			}
+			long t= System.nanoTime();
+			for (int i = 0; i < lookups; i++) {
+				Action a= m.getAction(r.nextInt(size));
+				if (a!=null) found++;
+			}
+			t= System.nanoTime()-t;
+			System.out.println("  actions= "+size+" ns/lookup= "+(t/lookups)+" found= "+found);
+		}
+	}
+
+	/**
+	 * Sets reminder on 100k actions one by one, each of them is inserted in sorted Tickler folder.
+	 */
+	static void benchmarkReminders() {
+		int size= 100000;
+		GTDModel m= createModel(size);
+		Random r= new Random(size);
+		long now= System.currentTimeMillis();
+
+		Action[] aa= new Action[size];
+		int j=0;
+		for (Folder f : m) {
+			if (!f.isMeta()) {
+				for (Action a : f) {
+					aa[j++]=a;
+				}
+			}
+		}
+
+		long t= System.nanoTime();
+		for (int i = 0; i < j; i++) {
+			aa[i].setRemind(new Date(now+r.nextInt(1000000000)));
+		}
+		t= System.nanoTime()-t;
+		System.out.println("reminders: added "+m.getRemindFolder().size()+" reminders in "+(t/1000000)+" ms");
+
+		t= System.nanoTime();
+		for (int i = 0; i < 10000; i++) {
+			aa[r.nextInt(j)].setRemind(new Date(now+r.nextInt(1000000000)));
+		}
+		t= System.nanoTime()-t;
+		System.out.println("reminders: 10000 reminder changes in "+(t/1000000)+" ms");
+	}
+
+	/**
+	 * Returns bytes allocated so far by current thread, or -1 if JVM does not support measuring.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean b= ManagementFactory.getThreadMXBean();
+		if (b instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)b).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void reportAllocation(String name, Runnable r, int count) {
+		// warm up
+		r.run();
+		long b= allocatedBytes();
+		if (b<0) {
+			System.out.println("allocation: not supported by this JVM");
+			return;
+		}
+		r.run();
+		b= allocatedBytes()-b;
+		System.out.println("  "+name+" bytes/mutation= "+(b/count));
+	}
+
+	/**
+	 * Measures bytes allocated per model mutation, with one model listener registered.
+	 */
+	static void benchmarkAllocation() {
+		System.out.println("allocation: bytes allocated per mutation");
+		final int count= 100000;
+		final GTDModel m= createModel(ACTIONS_PER_FOLDER);
+		m.addGTDModelListener(new GTDModelAdapter());
+		final Folder f= m.getFolder(m.getLastActionID()>0 ? m.getAction(1).getFolder().getId() : 0);
+		final Action a= f.get(0);
+		final String[] desc= {"Description A", "Description B"};
+
+		reportAllocation("setDescription", new Runnable() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					a.setDescription(desc[i&1]);
+				}
+			}
+		}, count);
+
+		reportAllocation("setPriority", new Runnable() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					a.setPriority((i&1)==0 ? Priority.High : Priority.Low);
+				}
+			}
+		}, count);
+
+		reportAllocation("setQueued", new Runnable() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					a.setQueued((i&1)==0);
+				}
+			}
+		}, count);
+
+		final JournalModel jm= new JournalModel();
+		final JournalEntry je= jm.addEntry(0);
+		final String[] comment= {"Comment A", "Comment B"};
+
+		reportAllocation("JournalEntry.setComment", new Runnable() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					je.setComment(comment[i&1]);
+				}
+			}
+		}, count);
+	}
+
+	private static long usedHeap() {
+		Runtime r= Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return r.totalMemory()-r.freeMemory();
+	}
+
+	/**
+	 * Measures retained heap per action for 1M actions with all dates set, 
+	 * description string is shared and not counted. Run with enough heap, for example -Xmx1g.
+	 */
+	static void benchmarkFootprint() {
+		int size= 1000000;
+		String desc= "Action";
+		long now= System.currentTimeMillis();
+		Action[] aa= new Action[size];
+
+		long m= usedHeap();
+		for (int i = 0; i < size; i++) {
+			Action a= new Action(i, new Date(now+i), null, desc);
+			a.setStart(new Date(now+i));
+			a.setRemind(new Date(now+i));
+			a.setDue(new Date(now+i));
+			a.setPriority(Priority.High);
+			a.setQueued(true);
+			a.setResolution(Resolution.RESOLVED);
+			aa[i]=a;
+		}
+		m= usedHeap()-m;
+		System.out.println("footprint: "+size+" actions, bytes/action= "+(m/size)+" "+aa[size-1]);
+	}
+
+	/**
+	 * Compares description search trough full-text index with testing each action, on 500k actions.
+	 */
+	static void benchmarkSearch() {
+		int size= 500000;
+		String[] words= {"call","email","meeting","review","budget","report","plan","buy","fix","write","team","client","draft","invoice","schedule"};
+		Random r= new Random(size);
+		GTDModel m= new GTDModel();
+		Folder f= null;
+		for (int i = 0; i < size; i++) {
+			if (i%ACTIONS_PER_FOLDER==0) {
+				f= m.createFolder("F"+i, FolderType.ACTION);
+			}
+			m.createAction(f, words[r.nextInt(words.length)]+" "+words[r.nextInt(words.length)]+" "+words[r.nextInt(words.length)]+" #"+r.nextInt(size));
+		}
+		String[] queries= {"Invoice", "#4242", "meeting plan", "#12345"};
+
+		long t= System.nanoTime();
+		m.actionsContaining(queries[0], false);
+		t= System.nanoTime()-t;
+		System.out.println("search: index created in "+(t/1000000)+" ms");
+
+		for (String q : queries) {
+			DescriptionFilter df= new DescriptionFilter(q, false);
+			int found=0;
+			t= System.nanoTime();
+			for (Folder ff : m) {
+				if (!ff.isMeta()) {
+					for (Action a : ff) {
+						if (df.isAcceptable(ff, a)) {
+							found++;
+						}
+					}
+				}
+			}
+			long scan= System.nanoTime()-t;
+			// warm up
+			for (int i = 0; i < 10; i++) {
+				m.actionsContaining(q, false);
+			}
+			int indexed=0;
+			t= System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				indexed= m.actionsContaining(q, false).length;
+			}
+			t= (System.nanoTime()-t)/10;
+			System.out.println("  '"+q+"' found= "+found+"/"+indexed+" scan ms= "+(scan/1000000)+" index ms= "+(t/100000/10.0));
+		}
+	}
+
+	/**
+	 * Compares store and load of XML and binary data file, at 10k, 100k and 1M actions. 
+	 * Actions have dates, priority and every tenth a project, as typical data. Run with -Xmx2g.
+	 */
+	static void benchmarkSnapshot() {
+		System.out.println("snapshot: XML vs binary data file");
+		int[] sizes= {10000, 100000, 1000000};
+		try {
+			for (int size : sizes) {
+				GTDModel m= createModel(size);
+				Project p= (Project)m.createFolder("Project", FolderType.PROJECT);
+				Random r= new Random(size);
+				long now= System.currentTimeMillis();
+				for (Folder f : m.folders()) {
+					if (f.isMeta()) {
+						continue;
+					}
+					for (int i = 0; i < f.size(); i++) {
+						Action a= f.get(i);
+						a.setPriority(Priority.values()[r.nextInt(4)]);
+						if (r.nextInt(3)==0) a.setDueTime(now+r.nextInt(1000000000));
+						if (r.nextInt(10)==0) a.setProject(p.getId());
+					}
+				}
+
+				ByteArrayOutputStream xml= new ByteArrayOutputStream();
+				ByteArrayOutputStream bin= new ByteArrayOutputStream();
+				// warm up
+				m.store(new ByteArrayOutputStream());
+				m.storeBinary(new ByteArrayOutputStream());
+
+				long tx= System.nanoTime();
+				m.store(xml);
+				tx= System.nanoTime()-tx;
+				long tb= System.nanoTime();
+				m.storeBinary(bin);
+				tb= System.nanoTime()-tb;
+
+				new GTDModel().load(new ByteArrayInputStream(xml.toByteArray()));
+				new GTDModel().load(new ByteArrayInputStream(bin.toByteArray()));
+
+				long lx= System.nanoTime();
+				new GTDModel().load(new ByteArrayInputStream(xml.toByteArray()));
+				lx= System.nanoTime()-lx;
+				long lb= System.nanoTime();
+				new GTDModel().load(new ByteArrayInputStream(bin.toByteArray()));
+				lb= System.nanoTime()-lb;
+
+				System.out.println("  actions= "+size+" XML bytes= "+xml.size()+" store ms= "+(tx/1000000)+" load ms= "+(lx/1000000)
+						+"; binary bytes= "+bin.size()+" store ms= "+(tb/1000000)+" load ms= "+(lb/1000000));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Compares loading of 1M actions binary data file trough stream and trough memory mapping, 
+	 * where only descriptions of open actions are accessed, as by GUI on startup. 
+	 * 90% of actions are resolved, with unique descriptions. Run with -Xmx2g.
+	 */
+	static void benchmarkMapped() {
+		int size= 1000000;
+		File file= null;
+		try {
+			file= File.createTempFile("gtd-free-benchmark", ".bin");
+			GTDModel m= new GTDModel();
+			Folder f= null;
+			for (int i = 0; i < size; i++) {
+				if (i%ACTIONS_PER_FOLDER==0) {
+					f= m.createFolder("F"+i, FolderType.ACTION);
+				}
+				Action a= m.createAction(f, "Archived action number "+i+" with some longer description, as usual for real data");
+				if (i%10!=0) {
+					a.setResolution(Resolution.RESOLVED);
+				}
+			}
+			m.storeBinary(file);
+			m=null;
+
+			for (int k = 0; k < 3; k++) {
+				long h= usedHeap();
+				long t= System.nanoTime();
+				GTDModel ms= new GTDModel();
+				ms.load(file);
+				int n= openDescriptions(ms);
+				t= System.nanoTime()-t;
+				h= usedHeap()-h;
+				System.out.println("mapped: stream load ms= "+(t/1000000)+" heap MB= "+(h>>20)+" open= "+n);
+				ms=null;
+
+				h= usedHeap();
+				t= System.nanoTime();
+				GTDModel mm= new GTDModel();
+				mm.loadMapped(file);
+				n= openDescriptions(mm);
+				t= System.nanoTime()-t;
+				h= usedHeap()-h;
+				System.out.println("mapped: mapped load ms= "+(t/1000000)+" heap MB= "+(h>>20)+" open= "+n);
+				mm=null;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (file!=null) {
+				file.delete();
+			}
+		}
+	}
+
+	private static int openDescriptions(GTDModel m) {
+		int n=0;
+		for (Folder f : m) {
+			if (!f.isMeta()) {
+				for (Action a : f) {
+					if (a.isOpen() && a.getDescription()!=null) {
+						n++;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Compares serial and parallel loading of XML data file with 1M actions, with increasing number of threads.
+	 * Run with -Xmx3g.
+	 */
+	static void benchmarkParallel() {
+		int size= 1000000;
+		File file= null;
+		try {
+			file= File.createTempFile("gtd-free-benchmark", ".xml");
+			GTDModel m= createModel(size);
+			m.store(file);
+			m=null;
+			System.out.println("parallel: data file MB= "+(file.length()>>20)+", processors= "+Runtime.getRuntime().availableProcessors());
+
+			for (int k = 0; k < 2; k++) {
+				long t= System.nanoTime();
+				FileInputStream in= new FileInputStream(file);
+				new GTDModel().load(in);
+				in.close();
+				t= System.nanoTime()-t;
+				System.out.println("  serial ms= "+(t/1000000));
+				for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads*=2) {
+					t= System.nanoTime();
+					new GTDModel().loadParallel(file, threads);
+					t= System.nanoTime()-t;
+					System.out.println("  threads= "+threads+" ms= "+(t/1000000));
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (file!=null) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Compares writing of XML data file by model with writing trough StAX, as data file was written before.
+	 * All lists are changed before each store, so no encoded list is reused.
+	 */
+	static void benchmarkEmitter() {
+		System.out.println("emitter: XML data file trough StAX vs model writer");
+		File file= null;
+		try {
+			file= File.createTempFile("gtd-free-emitter", ".xml");
+			for (int size : new int[]{10000, 100000, 1000000}) {
+				GTDModel m= createModel(size);
+				Random r= new Random(size);
+				for (Folder f : m.folders()) {
+					for (int i = 0; !f.isMeta() && i < f.size(); i++) {
+						Action a= f.get(i);
+						a.setPriority(Priority.values()[r.nextInt(4)]);
+						if (i%5==0) a.setDescription(a.getDescription()+"\nsecond line & \"quoted\" <text>");
+						if (i%7==0) a.setDescription(a.getDescription()+" \u010d\u0161\u017e");
+					}
+				}
+				long best[]= {Long.MAX_VALUE, Long.MAX_VALUE};
+				for (int k = 0; k < 5; k++) {
+					for (Folder f : m.folders()) {
+						if (!f.isMeta() && f.size()>0) {
+							f.get(0).setResolution(k%2==0 ? Resolution.STALLED : Resolution.OPEN);
+						}
+					}
+					long t= System.nanoTime();
+					OutputStream out= new BufferedOutputStream(new FileOutputStream(file));
+					storeStAX(m, out);
+					out.close();
+					best[0]= Math.min(best[0], System.nanoTime()-t);
+					long sx= file.length();
+					
+					t= System.nanoTime();
+					m.store(file);
+					best[1]= Math.min(best[1], System.nanoTime()-t);
+					if (k==0) {
+						System.out.println("  actions= "+size+" StAX bytes= "+sx+" writer bytes= "+file.length());
+					}
+				}
+				System.out.println("  actions= "+size+" StAX ms= "+(best[0]/1000000)+" writer ms= "+(best[1]/1000000));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (file!=null) {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Writes lists of data file as it was written trough StAX, with descriptions escaped into new strings.
+	 */
+	private static void storeStAX(GTDModel m, OutputStream out) throws XMLStreamException {
+		XMLStreamWriter w= XMLOutputFactory.newInstance().createXMLStreamWriter(out,"UTF-8");
+		w.writeStartDocument("UTF-8","1.0");
+		w.writeStartElement("gtd-data");
+		w.writeAttribute("version", "2.2");
+		w.writeAttribute("modified", ApplicationHelper.formatLongISO(new Date()));
+		w.writeAttribute("lastActionID",Integer.toString(m.getLastActionID()));
+		w.writeStartElement("lists");
+		for (Folder f : m.folders()) {
+			if (f.isMeta()) {
+				continue;
+			}
+			w.writeCharacters("  ");
+			w.writeStartElement("list");
+			w.writeAttribute("id", String.valueOf(f.getId()));
+			w.writeAttribute("name", f.getName());
+			w.writeAttribute("type", f.getType().toString());
+			w.writeAttribute("closed", Boolean.toString(f.isClosed()));
+			w.writeCharacters("\n");
+			for (Action a : f) {
+				w.writeCharacters("    ");
+				w.writeStartElement("action");
+				w.writeAttribute("id", Integer.toString(a.getId()));
+				w.writeAttribute("created", Long.toString(a.getCreatedTime()));
+				w.writeAttribute("resolution", a.getResolution().toString());
+				if (a.getDescription()!=null) {
+					w.writeAttribute("description", ApplicationHelper.escapeControls(a.getDescription()));
+				}
+				if (a.getPriority()!=null) w.writeAttribute("priority", a.getPriority().toString());
+				w.writeEndElement();
+				w.writeCharacters("\n");
+			}
+			w.writeCharacters("  ");
+			w.writeEndElement();
+			w.writeCharacters("\n");
+		}
+		w.writeEndElement();
+		w.writeEndElement();
+		w.writeEndDocument();
+		w.flush();
+		w.close();
+	}
+
+}
@@ -19,25 +19,57 @@
 
 package com.gtdfree.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URISyntaxException;
+import java.net.URLStreamHandlerFactory;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.swing.SwingUtilities;
+
 import junit.framework.TestCase;
 
 import org.gtdfree.model.Action;
+import org.gtdfree.model.ChangeLog;
 import org.gtdfree.model.ActionEvent;
+import org.gtdfree.model.ActionFilter;
+import org.gtdfree.model.ActionView;
+import org.gtdfree.model.ActionViewListener;
+import org.gtdfree.model.ChangeSetEvent;
+import org.gtdfree.model.ChangeSetListener;
 import org.gtdfree.model.ConsistencyException;
+import org.gtdfree.model.DescriptionFilter;
+import org.gtdfree.model.FilterList;
+import org.gtdfree.model.FilterPlan;
 import org.gtdfree.model.Folder;
 import org.gtdfree.model.FolderEvent;
 import org.gtdfree.model.GTDModel;
 import org.gtdfree.model.GTDModelListener;
+import org.gtdfree.model.ModelEventDispatcher;
+import org.gtdfree.model.ModelSnapshot;
 import org.gtdfree.model.Priority;
+import org.gtdfree.model.PriorityFilter;
 import org.gtdfree.model.Project;
+import org.gtdfree.model.ProjectFilter;
+import org.gtdfree.model.RemindFilter;
+import org.gtdfree.model.Utils;
+import org.gtdfree.model.Action.ActionType;
 import org.gtdfree.model.Action.Resolution;
 import org.gtdfree.model.Folder.FolderType;
+import org.gtdfree.model.ModelEventDispatcher.Delivery;
 
 /**
  * @author ikesan
@@ -145,7 +177,7 @@ public class ModelTest extends TestCase {
 		assertEquals(a3, gtdModel.getQueue().get(1));
 		assertEquals(a4, gtdModel.getQueue().get(2));
 		
-		URL url= new URL("http://gtd-free.sourceforge.net/");
+		URI url= new URI("http://gtd-free.sourceforge.net/");
 		a1.setUrl(url);
 		
 		assertNotNull(a1.getUrl());
@@ -224,6 +256,392 @@ public class ModelTest extends TestCase {
 		checkConsistency(gtdModel);
 	}
 
+	public void testDateIndexes() throws Exception {
+		
+		Action a1= f1.get(0);
+		Action a2= f1.get(1);
+		Action a3= f1.get(2);
+		
+		a1.setRemindTime(3000);
+		a2.setRemindTime(1000);
+		a3.setRemindTime(2000);
+		
+		assertArrayEquals(new Action[]{a2,a3,a1}, gtdModel.actionsRemindedBetween(0, 5000));
+		assertArrayEquals(new Action[]{a2,a3}, gtdModel.actionsRemindedBetween(1000, 3000));
+		assertArrayEquals(new Action[]{a2}, gtdModel.actionsRemindedBefore(2000));
+		
+		a2.setRemindTime(4000);
+		assertArrayEquals(new Action[]{a3,a1,a2}, gtdModel.actionsRemindedBetween(0, 5000));
+		
+		a3.setRemindTime(Action.UNSET_DATE);
+		assertArrayEquals(new Action[]{a1,a2}, gtdModel.actionsRemindedBetween(0, 5000));
+		
+		// filter on Tickler uses index and gives same result as scanning
+		RemindFilter rf= new RemindFilter(0, 3500);
+		Folder r= gtdModel.getRemindFolder();
+		assertArrayEquals(new Action[]{a1}, rf.select(r));
+		for (Action a : r) {
+			assertEquals(a==a1, rf.isAcceptable(r, a));
+		}
+		assertArrayEquals(new Action[]{a1}, rf.select(f1));
+		assertEquals(1, rf.estimate(gtdModel));
+		
+		// estimate is exact for small ranges, large ones give upper bound without walking them
+		GTDModel big= new GTDModel();
+		Folder bf= big.createFolder("Big", FolderType.ACTION);
+		for (int i = 0; i < 2000; i++) {
+			big.createAction(bf, "R"+i).setRemindTime(i);
+		}
+		assertEquals(10, new RemindFilter(0, 10).estimate(big));
+		assertEquals(1000, new RemindFilter(500, 1500).estimate(big));
+		assertEquals(2000, new RemindFilter(0, 1900).estimate(big));
+		
+		a1.setDueTime(1000);
+		a2.setDueTime(5000);
+		a3.setStartTime(2000);
+		assertArrayEquals(new Action[]{a1}, gtdModel.overdue(2000));
+		assertArrayEquals(new Action[]{a1,a2}, gtdModel.actionsDueBetween(0, 6000));
+		assertArrayEquals(new Action[]{a3}, gtdModel.actionsStartingBetween(0, 6000));
+		
+		a1.setResolution(Resolution.RESOLVED);
+		assertEquals(0, gtdModel.overdue(2000).length);
+		
+		a2.setResolution(Resolution.DELETED);
+		gtdModel.purgeDeletedActions();
+		assertArrayEquals(new Action[]{a1}, gtdModel.actionsRemindedBetween(0, 5000));
+		assertArrayEquals(new Action[]{a1}, gtdModel.actionsDueBetween(0, 6000));
+		
+		GTDModel m= new GTDModel();
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		gtdModel.store(out);
+		m.load(new ByteArrayInputStream(out.toByteArray()));
+		assertArrayEquals(new Action[]{m.getAction(a1.getId())}, m.actionsRemindedBetween(0, 5000));
+		assertArrayEquals(new Action[]{m.getAction(a3.getId())}, m.actionsStartingBetween(0, 6000));
+		
+		checkConsistency(gtdModel);
+	}
+	
+	public void testDescriptionIndex() {
+		
+		Folder f= gtdModel.createFolder("Search", FolderType.ACTION);
+		Action a1= gtdModel.createAction(f, "Call Bob about Meeting");
+		Action a2= gtdModel.createAction(f, "Prepare meeting notes");
+		Action a3= gtdModel.createAction(f, "Buy milk");
+		
+		assertArrayEquals(new Action[]{a1,a2}, gtdModel.actionsContaining("MEETING", false));
+		assertArrayEquals(new Action[]{a2}, gtdModel.actionsContaining("meeting", true));
+		assertArrayEquals(new Action[]{a3}, gtdModel.actionsContaining("ilk", false));
+		assertArrayEquals(new Action[]{a1}, gtdModel.actionsContaining("bo", false));
+		assertEquals(0, gtdModel.actionsContaining("meetings", false).length);
+		
+		// index follows changes after it has been created
+		a3.setDescription("Meeting with milkman");
+		assertArrayEquals(new Action[]{a1,a2,a3}, gtdModel.actionsContaining("meeting", false));
+		assertEquals(0, gtdModel.actionsContaining("buy", false).length);
+		
+		Action a6= gtdModel.createAction(f, "Last meeting");
+		assertArrayEquals(new Action[]{a1,a2,a3,a6}, gtdModel.actionsContaining("meeting", false));
+		gtdModel.createAction(f, "Buy bread");
+		
+		a2.setResolution(Resolution.DELETED);
+		gtdModel.purgeDeletedActions();
+		assertArrayEquals(new Action[]{a1,a3,a6}, gtdModel.actionsContaining("meeting", false));
+		
+		// new actions are added on top, filter selects from index in folder order and agrees with testing each action
+		gtdModel.moveAction(a6, f1);
+		gtdModel.moveAction(a6, f);
+		DescriptionFilter df= new DescriptionFilter("MEET", false);
+		assertArrayEquals(new Action[]{a6,a3,a1}, df.select(f));
+		for (Action a : f) {
+			assertEquals(a==a1 || a==a3 || a==a6, df.isAcceptable(f, a));
+		}
+		assertNull(new DescriptionFilter("me", false).select(f));
+		
+		checkConsistency(gtdModel);
+	}
+	
+	public void testFilterPlan() {
+		
+		Folder f= gtdModel.createFolder("Plan", FolderType.ACTION);
+		for (int i = 0; i < 200; i++) {
+			Action a= gtdModel.createAction(f, (i%50==0 ? "Invoice " : "Task ")+i);
+			if (i%2==0) {
+				a.setProject(p1.getId());
+			}
+			if (i%10==0) {
+				a.setPriority(Priority.High);
+			}
+		}
+		
+		FilterList l= new FilterList();
+		l.add(new ProjectFilter(p1.getId()));
+		l.add(new PriorityFilter(Priority.Low, false));
+		l.add(new DescriptionFilter("invoice", false));
+		
+		// four invoices are most selective, project has 100 actions and priority 20
+		FilterPlan plan= gtdModel.plan(l);
+		assertEquals(new DescriptionFilter("INVOICE", false), plan.getDriver());
+		assertEquals(2, plan.getResidual().length);
+		assertTrue(plan.getResidual()[0] instanceof ProjectFilter);
+		
+		FilterList l2= new FilterList();
+		l2.add(new ProjectFilter(p1.getId()));
+		l2.add(new PriorityFilter(Priority.Low, false));
+		l2.add(new DescriptionFilter("invoice", false));
+		assertSame(plan, gtdModel.plan(l2));
+		
+		Action[] r= l2.select(f);
+		int count=0;
+		for (Action a : f) {
+			if (l.isAcceptable(f, a)) {
+				assertEquals(a, r[count++]);
+			}
+		}
+		assertEquals(count, r.length);
+		assertEquals(4, count);
+		assertEquals(1, plan.getExecutions());
+		assertEquals(0, plan.getScans());
+		assertEquals(4, plan.getExamined());
+		assertTrue(plan.explain(), plan.explain().startsWith("driver= DescriptionFilter{invoice} estimate= 4; residual= [ProjectFilter{"));
+		
+		// folder smaller than candidates is scanned
+		FilterList l3= new FilterList();
+		l3.add(new PriorityFilter(Priority.High, true));
+		l3.add(new DescriptionFilter("task", false));
+		FilterPlan plan3= gtdModel.plan(l3);
+		assertTrue(plan3.getDriver() instanceof PriorityFilter);
+		assertEquals(0, l3.select(f1).length);
+		assertEquals(1, plan3.getScans());
+		assertEquals(16, l3.select(f).length);
+		assertEquals(1, plan3.getScans());
+		
+		// without index backed filter plan scans
+		FilterList l4= new FilterList();
+		l4.add(new DescriptionFilter("ta", false));
+		assertNull(gtdModel.plan(l4).getDriver());
+		assertEquals(196, l4.select(f).length);
+		
+		checkConsistency(gtdModel);
+	}
+	
+	public void testViews() {
+		
+		Folder f= gtdModel.createFolder("Views", FolderType.ACTION);
+		for (int i = 0; i < 100; i++) {
+			Action a= gtdModel.createAction(f, (i%10==0 ? "Invoice " : "Task ")+i);
+			if (i%2==0) {
+				a.setProject(p1.getId());
+			}
+		}
+		
+		FilterList l= new FilterList();
+		l.add(new ProjectFilter(p1.getId()));
+		l.add(new DescriptionFilter("invoice", false));
+		ActionView v= gtdModel.createView("Project invoices", l);
+		ActionView high= gtdModel.createView("High", new PriorityFilter(Priority.High, true));
+		assertSame(v, gtdModel.getView("Project invoices"));
+		assertEquals(2, gtdModel.getViews().length);
+		
+		// filled from description index candidates
+		assertEquals(10, v.size());
+		assertEquals(10, v.getEvaluations());
+		assertEquals(0, high.size());
+		
+		final int[] events= new int[3];
+		v.addActionViewListener(new ActionViewListener() {
+			public void actionAdded(ActionView view, Action a) {
+				events[0]++;
+			}
+			public void actionRemoved(ActionView view, Action a) {
+				events[1]++;
+			}
+			public void actionModified(ActionView view, ActionEvent e) {
+				events[2]++;
+			}
+			public void viewReloaded(ActionView view) {
+				//
+			}
+		});
+		
+		// each change is tested once
+		Action a= gtdModel.createAction(f, "Invoice new");
+		assertEquals(11, v.getEvaluations());
+		assertFalse(v.contains(a));
+		a.setProject(p1.getId());
+		assertTrue(v.contains(a));
+		assertEquals(12, v.getEvaluations());
+		a.setPriority(Priority.High);
+		assertEquals(11, v.size());
+		assertEquals(1, high.size());
+		assertEquals(1, events[0]);
+		assertEquals(1, events[2]);
+		
+		Action first= v.actions()[0];
+		first.setDescription("Paid");
+		assertFalse(v.contains(first));
+		assertEquals(1, events[1]);
+		
+		// moved action stays, removed one goes
+		gtdModel.moveAction(a, f1);
+		assertTrue(v.contains(a));
+		a.setResolution(Resolution.DELETED);
+		gtdModel.purgeDeletedActions();
+		assertFalse(v.contains(a));
+		assertEquals(0, high.size());
+		assertEquals(9, v.size());
+		
+		// same actions as filter selects, ordered by ID
+		Action[] aa= v.actions();
+		int count=0;
+		for (Action c : f) {
+			if (l.isAcceptable(f, c)) {
+				assertTrue(v.contains(c));
+				count++;
+			}
+		}
+		assertEquals(count, aa.length);
+		for (int i = 1; i < aa.length; i++) {
+			assertTrue(aa[i-1].getId()<aa[i].getId());
+		}
+		
+		// filter, which depends on folder, follows folder changes
+		ActionView open= gtdModel.createView("Open folders", new ActionFilter() {
+			public boolean isAcceptable(Folder ff, Action c) {
+				return !ff.isClosed();
+			}
+		});
+		assertTrue(open.contains(aa[0]));
+		f.setClosed(true);
+		assertFalse(open.contains(aa[0]));
+		f.setClosed(false);
+		assertTrue(open.contains(aa[0]));
+		gtdModel.removeView(open);
+		
+		gtdModel.removeView(high);
+		assertEquals(1, gtdModel.getViews().length);
+		Action b= gtdModel.createAction(f, "Invoice other");
+		b.setProject(p1.getId());
+		b.setPriority(Priority.High);
+		assertEquals(0, high.size());
+		assertEquals(10, v.size());
+	}
+	
+	public void testChangeLog() throws Exception {
+		
+		File data= new File(testDir,"test-changelog.xml");
+		File log= new File(testDir,"test-changelog.log");
+		
+		try {
+			gtdModel.store(data);
+			ChangeLog cl= new ChangeLog(gtdModel, log);
+			assertEquals(0, cl.replay());
+			gtdModel.addGTDModelListener(cl);
+			
+			Folder f= gtdModel.createFolder("Logged", FolderType.ACTION);
+			Action a1= gtdModel.createAction(f, "Logged 1");
+			Action a2= gtdModel.createAction(f, "Logged 2");
+			Action a3= gtdModel.createAction(f, "Logged 3");
+			a1.setDescription("Logged 1 changed");
+			a1.setPriority(Priority.High);
+			a2.setRemindTime(1000);
+			a2.setQueued(true);
+			f1.get(0).setQueued(true);
+			gtdModel.getQueue().moveDown(a2);
+			a3.setProject(p1.getId());
+			a3.setResolution(Resolution.RESOLVED);
+			f.moveDown(a3);
+			gtdModel.moveAction(f1.get(1), f);
+			f1.get(0).setResolution(Resolution.DELETED);
+			gtdModel.purgeDeletedActions();
+			p1.setDescription("Logged project");
+			cl.sync();
+			
+			long size= log.length();
+			assertEquals(size, cl.getSize());
+			assertFalse(cl.isCompactionDue());
+			cl.setMaxSize(size-1);
+			assertTrue(cl.isCompactionDue());
+			
+			// torn record at end of log is ignored and cut off
+			FileOutputStream out= new FileOutputStream(log, true);
+			out.write(new byte[]{0,0,0,100,1,2,3});
+			out.close();
+			
+			GTDModel m= new GTDModel();
+			m.load(data);
+			ChangeLog cl2= new ChangeLog(m, log);
+			assertEquals(cl.getRecordCount(), cl2.replay());
+			cl2.close();
+			assertEquals(size, log.length());
+			
+			checkConsistency(m);
+			assertContentEquals(gtdModel, m);
+			assertEquals(gtdModel.getLastActionID(), m.getLastActionID());
+			assertEquals("Logged project", m.getProject(p1.getId()).getDescription());
+			Action r3= m.getAction(a3.getId());
+			assertEquals(a3.getResolvedTime(), r3.getResolvedTime());
+			assertEquals(Arrays.asList(gtdModel.getQueue().actions()).toString(), Arrays.asList(m.getQueue().actions()).toString());
+			
+			// after new snapshot old log is not applied
+			gtdModel.store(data);
+			m= new GTDModel();
+			m.load(data);
+			assertEquals(0, new ChangeLog(m, log).replay());
+			assertEquals(12, log.length());
+			
+		} finally {
+			data.delete();
+			log.delete();
+		}
+	}
+	
+	public void testChangeLogReset() throws Exception {
+		
+		File data= new File(testDir,"test-changelog-reset.xml");
+		File log= new File(testDir,"test-changelog-reset.log");
+		
+		try {
+			gtdModel.store(data);
+			ChangeLog cl= new ChangeLog(gtdModel, log);
+			assertEquals(0, cl.replay());
+			gtdModel.addGTDModelListener(cl);
+			
+			Action a= gtdModel.createAction(f1, "Before snapshot");
+			cl.sync();
+			
+			ModelSnapshot s= gtdModel.snapshot();
+			long mark= cl.mark();
+			
+			// written while snapshot is stored
+			a.setDescription("After snapshot");
+			cl.sync();
+			assertEquals(2, cl.getRecordCount());
+			
+			FileOutputStream out= new FileOutputStream(data);
+			s.store(out);
+			out.close();
+			gtdModel.snapshotStored(s);
+			cl.reset(mark);
+			assertEquals(1, cl.getRecordCount());
+			
+			GTDModel m= new GTDModel();
+			m.load(data);
+			assertEquals("Before snapshot", m.getAction(a.getId()).getDescription());
+			ChangeLog cl2= new ChangeLog(m, log);
+			assertEquals(1, cl2.replay());
+			cl2.close();
+			assertEquals("After snapshot", m.getAction(a.getId()).getDescription());
+			
+		} finally {
+			data.delete();
+			log.delete();
+		}
+	}
+	
+	private static void assertArrayEquals(Action[] expected, Action[] actual) {
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+	}
+
 	public void testPriorityBuildIn() {
 		
 		TestModelListener ml= new TestModelListener();
@@ -338,6 +756,101 @@ public class ModelTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Resolver for http links, which always times out.
+	 */
+	static class TimeoutHandler extends URLStreamHandler {
+		static final long TIMEOUT= 1000;
+		int lookups;
+		@Override
+		protected URLConnection openConnection(URL u) throws IOException {
+			throw new IOException("Network is not available.");
+		}
+		@Override
+		protected synchronized InetAddress getHostAddress(URL u) {
+			lookups++;
+			try {
+				Thread.sleep(TIMEOUT);
+			} catch (InterruptedException e) {
+				//
+			}
+			return null;
+		}
+	}
+
+	private static TimeoutHandler timeoutHandler;
+
+	private static synchronized TimeoutHandler installTimeoutHandler() {
+		if (timeoutHandler==null) {
+			timeoutHandler= new TimeoutHandler();
+			URL.setURLStreamHandlerFactory(new URLStreamHandlerFactory() {
+				public URLStreamHandler createURLStreamHandler(String protocol) {
+					return "http".equals(protocol) ? timeoutHandler : null;
+				}
+			});
+		}
+		timeoutHandler.lookups=0;
+		return timeoutHandler;
+	}
+
+	public void testImportUrlsWithoutLookup() throws Exception {
+		
+		TimeoutHandler h= installTimeoutHandler();
+		
+		GTDModel m= new GTDModel();
+		Folder f= m.createFolder("Links", FolderType.REFERENCE);
+		for (int i = 0; i < 10000; i++) {
+			m.createAction(f, "Link "+i).setUrl(new URI("http://host"+i+".invalid/page?id="+i));
+		}
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		m.store(out);
+		
+		long t= System.currentTimeMillis();
+		
+		GTDModel m2= new GTDModel();
+		m2.importFile(new ByteArrayInputStream(out.toByteArray()));
+		m2.importData(m);
+		
+		// setting links again compares them with existing ones
+		for (Folder ff : m2) {
+			if (!ff.isMeta()) {
+				for (Action a : ff) {
+					a.setUrl(new URI(a.getUrl().toString()));
+					a.copy(a);
+				}
+			}
+		}
+		
+		t= System.currentTimeMillis()-t;
+		
+		assertEquals(0, h.lookups);
+		// single blocking lookup per link would take hours, bound only guards against stray ones
+		assertTrue("Import took "+t+" ms.", t<10*TimeoutHandler.TIMEOUT);
+		Folder links= findFolder(m2, "Links");
+		assertEquals(20000, links.size());
+		for (Action a : links) {
+			assertEquals("http://host"+a.getDescription().substring(5)+".invalid/page?id="+a.getDescription().substring(5), a.getUrl().toString());
+		}
+		
+		// links accepted by URL but not by URI are escaped
+		assertEquals("http://host.invalid/my%20page", Utils.toURI("http://host.invalid/my page").toString());
+		try {
+			Utils.toURI("host.invalid/page");
+			fail("Relative link is not valid.");
+		} catch (URISyntaxException e) {
+			//
+		}
+	}
+	
+	private Folder findFolder(GTDModel m, String name) {
+		for (Folder f : m) {
+			if (name.equals(f.getName())) {
+				return f;
+			}
+		}
+		return null;
+	}
+
 	public void testLoad() {
 		File f=null;
 		try {
@@ -476,6 +989,196 @@ public class ModelTest extends TestCase {
 		}
 	}
 
+	public void testBinarySaveLoad() throws Exception {
+		File fx= new File(testDir,"gtd-free-data-b.xml");
+		File fb= new File(testDir,"gtd-free-data-b.bin");
+
+		try {
+			f1.get(0).setPriority(Priority.High);
+			f1.get(0).setRemindTime(1000);
+			f1.get(1).setProject(p1.getId());
+			f1.get(1).setQueued(true);
+			p1.setGoal("Goal");
+			
+			gtdModel.store(fx);
+			gtdModel.storeBinary(fb);
+			assertEquals(gtdModel.getSnapshotTime(), new GTDModel.DataHeader(fb).getModified().getTime());
+			assertTrue(fb.length()<fx.length());
+		
+			GTDModel mx= new GTDModel();
+			mx.load(fx);
+			GTDModel mb= new GTDModel();
+			FileInputStream in= new FileInputStream(fb);
+			GTDModel.DataHeader dh= mb.load(in);
+			in.close();
+			assertEquals(gtdModel.getSnapshotTime(), mb.getSnapshotTime());
+			assertEquals(dh.getModified().getTime(), mb.getSnapshotTime());
+			
+			checkConsistency(mb);
+			assertEquals(BAD_DESC, mb.getFolder(f1.getId()).get(3).getDescription());
+			assertContentEquals(mx,mb);
+			assertContentEquals(gtdModel,mb);
+			assertEquals(gtdModel.getLastActionID(), mb.getLastActionID());
+			assertEquals("Goal", mb.getProject(p1.getId()).getGoal());
+			assertEquals(Arrays.asList(gtdModel.getQueue().actions()).toString(), Arrays.asList(mb.getQueue().actions()).toString());
+			Action a= gtdModel.getFolder(f1.getId()).get(0);
+			assertEquals(a.getCreatedTime(), mb.getAction(a.getId()).getCreatedTime());
+			
+			// binary written from binary loaded model is same as original
+			File fb2= new File(testDir,"gtd-free-data-b2.bin");
+			try {
+				mb.storeBinary(fb2);
+				GTDModel m2= new GTDModel();
+				m2.load(fb2);
+				assertContentEquals(mb,m2);
+			} finally {
+				fb2.delete();
+			}
+
+			// corrupted data is rejected
+			RandomAccessFile raf= new RandomAccessFile(fb, "rw");
+			raf.seek(fb.length()/2);
+			int b= raf.read();
+			raf.seek(fb.length()/2);
+			raf.write(b^0xFF);
+			raf.close();
+			try {
+				new GTDModel().load(fb);
+				fail("Corrupted binary data loaded.");
+			} catch (IOException e) {
+				// expected
+			}
+		
+		} finally {
+			fx.delete();
+			fb.delete();
+		}
+	}
+
+	public void testMappedLoad() throws Exception {
+		File fb= new File(testDir,"gtd-free-data-m.bin");
+
+		try {
+			gtdModel.storeBinary(fb);
+		
+			GTDModel m= new GTDModel();
+			GTDModel.DataHeader dh= m.loadMapped(fb);
+			assertEquals(fb, dh.getFile());
+			assertEquals(gtdModel.getSnapshotTime(), m.getSnapshotTime());
+			
+			checkConsistency(m);
+			assertContentEquals(gtdModel,m);
+			assertEquals(BAD_DESC, m.getFolder(f1.getId()).get(3).getDescription());
+			assertEquals(gtdModel.actionsContaining("nbZ#u45g", true).length, m.actionsContaining("nbZ#u45g", true).length);
+			
+			// file is overwritten, descriptions not read yet must be kept
+			GTDModel m2= new GTDModel();
+			m2.loadMapped(fb);
+			m2.getFolder(f1.getId()).get(0).setDescription("Changed");
+			m2.storeBinary(fb);
+			assertEquals(BAD_DESC, m2.getFolder(f1.getId()).get(3).getDescription());
+			
+			GTDModel m3= new GTDModel();
+			m3.loadMapped(fb);
+			assertEquals("Changed", m3.getFolder(f1.getId()).get(0).getDescription());
+			assertContentEquals(m2,m3);
+			
+			try {
+				File fx= new File(testDir,"gtd-free-data-m.xml");
+				try {
+					gtdModel.store(fx);
+					new GTDModel().loadMapped(fx);
+					fail("XML data file loaded as binary.");
+				} finally {
+					fx.delete();
+				}
+			} catch (IOException e) {
+				// expected
+			}
+			
+		} finally {
+			fb.delete();
+		}
+	}
+
+	public void testParallelLoad() throws Exception {
+		File f= new File(testDir,"gtd-free-data-p.xml");
+
+		try {
+			// more than one chunk of actions in single list
+			Folder big= gtdModel.createFolder("Big", FolderType.ACTION);
+			for (int i = 0; i < 2500; i++) {
+				Action a= gtdModel.createAction(big, "Big "+i);
+				if (i%7==0) a.setProject(p1.getId());
+				if (i%11==0) a.setQueued(true);
+				if (i%13==0) a.setResolution(Resolution.RESOLVED);
+			}
+			gtdModel.createFolder("Empty", FolderType.ACTION);
+			gtdModel.store(f);
+		
+			GTDModel m1= new GTDModel();
+			m1.load(f);
+			GTDModel m2= new GTDModel();
+			GTDModel.DataHeader dh= m2.loadParallel(f, 4);
+			assertNotNull(dh);
+			assertEquals("2.2", dh.getVersion());
+			assertEquals(m1.getSnapshotTime(), m2.getSnapshotTime());
+			
+			checkConsistency(m2);
+			assertContentEquals(m1,m2);
+			assertContentEquals(gtdModel,m2);
+			assertEquals(gtdModel.getLastActionID(), m2.getLastActionID());
+			assertEquals(BAD_DESC, m2.getFolder(f1.getId()).get(3).getDescription());
+			assertEquals(Arrays.asList(m1.getQueue().actions()).toString(), Arrays.asList(m2.getQueue().actions()).toString());
+			assertEquals(Arrays.asList(m1.getProject(p1.getId()).actions()).toString(), Arrays.asList(m2.getProject(p1.getId()).actions()).toString());
+			assertEquals(m1.getResolvedFolder().size(), m2.getResolvedFolder().size());
+			
+			// older versions are not loaded in parallel
+			assertNull(new GTDModel().loadParallel(new File(testDir,"gtd-free-data_2.0.xml"), 4));
+		
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testSnapshot() throws Exception {
+		ByteArrayOutputStream before= new ByteArrayOutputStream();
+		gtdModel.store(before);
+		GTDModel m0= new GTDModel();
+		m0.load(new ByteArrayInputStream(before.toByteArray()));
+
+		ModelSnapshot s= gtdModel.snapshot();
+		int count=0;
+		for (Folder f : gtdModel) {
+			if (!f.isMeta()) {
+				count+=f.size();
+			}
+		}
+		assertEquals(count, s.getActionCount());
+		
+		// changes after snapshot are not written
+		String desc= gtdModel.getFolder(f1.getId()).get(0).getDescription();
+		gtdModel.getFolder(f1.getId()).get(0).setDescription("Changed after snapshot");
+		gtdModel.getFolder(f1.getId()).get(1).setResolution(Resolution.DELETED);
+		gtdModel.createAction(f1, "Created after snapshot");
+		gtdModel.renameFolder(f1, "Renamed");
+		
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		s.store(out);
+		GTDModel m= new GTDModel();
+		m.load(new ByteArrayInputStream(out.toByteArray()));
+		checkConsistency(m);
+		assertEquals(s.getModified(), m.getSnapshotTime());
+		assertEquals(desc, m.getFolder(f1.getId()).get(0).getDescription());
+		assertContentEquals(m0,m);
+		
+		out= new ByteArrayOutputStream();
+		s.storeBinary(out);
+		m= new GTDModel();
+		m.load(new ByteArrayInputStream(out.toByteArray()));
+		assertContentEquals(m0,m);
+	}
+
 	public void test21vs20() {
 		File f= new File(testDir,"gtd-free-data_2.0.xml");
 		File f1= new File(testDir,"test.xml");
@@ -507,6 +1210,93 @@ public class ModelTest extends TestCase {
 		}
 	}
 
+	public void testFragmentReuse() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			Folder f= gtdModel.createFolder("L"+i, FolderType.ACTION);
+			gtdModel.createAction(f, "A"+i).setProject(p1.getId());
+			gtdModel.createAction(f, "B"+i);
+		}
+		ModelSnapshot s= gtdModel.snapshot();
+		s.store(new ByteArrayOutputStream());
+		int all= s.getEncodedFragments();
+		assertTrue(all>100);
+		
+		// nothing changed
+		s= gtdModel.snapshot();
+		s.store(new ByteArrayOutputStream());
+		assertEquals(0, s.getEncodedFragments());
+		
+		// one list changed
+		Folder f= gtdModel.getFolder(gtdModel.actionsContaining("B50", true)[0].getFolder().getId());
+		f.get(0).setDescription("B50 <changed> & \"escaped\"");
+		s= gtdModel.snapshot();
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		s.store(out);
+		assertEquals(1, s.getEncodedFragments());
+		
+		// action in project changed
+		gtdModel.actionsContaining("A70", true)[0].setDescription("A70 changed");
+		s= gtdModel.snapshot();
+		out= new ByteArrayOutputStream();
+		s.store(out);
+		assertEquals(2, s.getEncodedFragments());
+		
+		// spliced output is same as fully encoded one
+		GTDModel m= new GTDModel();
+		m.load(new ByteArrayInputStream(out.toByteArray()));
+		checkConsistency(m);
+		assertContentEquals(gtdModel, m);
+		assertEquals("B50 <changed> & \"escaped\"", m.getFolder(f.getId()).get(0).getDescription());
+		s= m.snapshot();
+		ByteArrayOutputStream out2= new ByteArrayOutputStream();
+		s.store(out2);
+		assertEquals(all, s.getEncodedFragments());
+		String modified= "modified=\"[^\"]*\"";
+		assertEquals(out.toString("UTF-8").replaceFirst(modified, ""), out2.toString("UTF-8").replaceFirst(modified, ""));
+	}
+
+	public void testWriterEscaping() throws Exception {
+		String[] texts= {
+				"",
+				"plain text",
+				"line\nbreak\ttab\rreturn\bback\ffeed\\slash\\n",
+				"\u0000\u0001\u001f\u007f\u0085\u009f controls",
+				"<tag attr=\"value\" other='x'>&amp; &</tag>",
+				"\u010d\u0161\u017e \u20ac \u4e2d\u6587 \ud83d\ude00 pair",
+				"\ud83d\ude00",
+				BAD_DESC,
+		};
+		Folder f= gtdModel.createFolder("Name & <\"special\"> \u010d", FolderType.ACTION);
+		f.setDescription("Folder\ndescription & \"more\"");
+		for (String t : texts) {
+			gtdModel.createAction(f, t);
+		}
+		Action big= gtdModel.createAction(f, null);
+		StringBuilder sb= new StringBuilder();
+		for (int i = 0; sb.length() < 200000; i++) {
+			sb.append(texts[i%texts.length]);
+		}
+		big.setDescription(sb.toString());
+		big.setDueTime(Long.MAX_VALUE-1);
+		big.setStartTime(-1234567);
+		
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		gtdModel.store(out);
+		GTDModel m= new GTDModel();
+		m.load(new ByteArrayInputStream(out.toByteArray()));
+		checkConsistency(m);
+		assertContentEquals(gtdModel, m);
+		
+		Folder mf= m.getFolder(f.getId());
+		assertEquals(f.getName(), mf.getName());
+		assertEquals(f.getDescription(), mf.getDescription());
+		for (int i = 0; i < f.size(); i++) {
+			assertEquals(f.get(i).getDescription(), mf.get(i).getDescription());
+		}
+		assertEquals(Long.MAX_VALUE-1, mf.get(0).getDueTime());
+		assertEquals(-1234567, mf.get(0).getStartTime());
+	}
+
 	private void assertContentEquals(GTDModel m1, GTDModel m2) {
 		assertEquals(m1.size(), m2.size());
 		assertEquals(m1.projects().length,m2.projects().length);
@@ -557,6 +1347,310 @@ public class ModelTest extends TestCase {
 		}
 	}
 	
+	public void testTicklerOrder() {
+
+		Folder t= gtdModel.getRemindFolder();
+		long now= System.currentTimeMillis();
+
+		f1.get(0).setRemind(new Date(now+3000));
+		f1.get(1).setRemind(new Date(now+1000));
+		f1.get(2).setRemind(new Date(now+4000));
+		f1.get(3).setRemind(new Date(now+2000));
+
+		assertEquals(4, t.size());
+		assertSortedByRemind(t);
+		assertSame(f1.get(1), t.get(0));
+
+		f1.get(1).setRemind(new Date(now+5000));
+
+		assertEquals(4, t.size());
+		assertSortedByRemind(t);
+		assertSame(f1.get(1), t.get(3));
+
+		f1.get(2).setRemind(null);
+
+		assertEquals(3, t.size());
+		assertFalse(t.contains(f1.get(2)));
+		assertSortedByRemind(t);
+
+		f1.get(0).setPriority(Priority.Low);
+		f1.get(3).setPriority(Priority.High);
+		f1.get(0).setPriority(Priority.Medium);
+
+		Folder p= gtdModel.getPriorityFolder();
+		assertEquals(2, p.size());
+		assertSame(f1.get(3), p.get(0));
+		assertSame(f1.get(0), p.get(1));
+
+		f1.get(0).setPriority(Priority.High);
+		f1.get(3).setPriority(Priority.Low);
+
+		assertSame(f1.get(0), p.get(0));
+		assertSame(f1.get(3), p.get(1));
+
+		checkConsistency(gtdModel);
+	}
+
+	private void assertSortedByRemind(Folder f) {
+		for (int i = 1; i < f.size(); i++) {
+			assertTrue(f.get(i-1).getRemind().compareTo(f.get(i).getRemind())<=0);
+		}
+	}
+
+	class TestChangeSetListener extends TestModelListener implements ChangeSetListener {
+		int commits;
+		ChangeSetEvent changeSet;
+		public void changeSetCommitted(ChangeSetEvent e) {
+			commits++;
+			changeSet=e;
+		}
+	}
+
+	public void testBatch() {
+
+		final TestChangeSetListener csl= new TestChangeSetListener();
+		TestModelListener ml= new TestModelListener();
+		gtdModel.addGTDModelListener(csl);
+		gtdModel.addGTDModelListener(ml);
+
+		final Folder t= gtdModel.getRemindFolder();
+		final long now= System.currentTimeMillis();
+
+		gtdModel.batch(new Runnable() {
+			public void run() {
+				assertTrue(gtdModel.isBatch());
+				for (int i = 0; i < f1.size(); i++) {
+					f1.get(i).setRemind(new Date(now+(i%2==0 ? i : -i)*1000));
+				}
+				assertEquals(f1.size(), t.size());
+				// nested batch is committed with outer one
+				gtdModel.beginBatch();
+				f1.get(0).setResolution(Resolution.RESOLVED);
+				gtdModel.commitBatch();
+				assertEquals(0, csl.commits);
+			}
+		});
+
+		assertFalse(gtdModel.isBatch());
+		assertNotNull(ml.actionModified);
+		assertNull(csl.actionModified);
+		assertNull(csl.actionAdded);
+		assertEquals(1, csl.commits);
+		assertFalse(csl.changeSet.isRecycled());
+		assertTrue(csl.changeSet.contains(f1));
+		assertTrue(csl.changeSet.contains(t));
+		assertTrue(csl.changeSet.contains(gtdModel.getResolvedFolder()));
+		assertEquals(f1.size(), csl.changeSet.getActions().length);
+		assertSortedByRemind(t);
+
+		gtdModel.batch(new Runnable() {
+			public void run() {
+				//
+			}
+		});
+		assertEquals(1, csl.commits);
+
+		try {
+			gtdModel.commitBatch();
+			fail("Batch was not started.");
+		} catch (IllegalStateException e) {
+			//
+		}
+
+		checkConsistency(gtdModel);
+	}
+
+	class CountingModelListener extends TestModelListener {
+		int modified;
+		int removed;
+		@Override
+		public void elementModified(ActionEvent a) {
+			super.elementModified(a);
+			modified++;
+		}
+		@Override
+		public void elementRemoved(FolderEvent a) {
+			super.elementRemoved(a);
+			removed++;
+		}
+	}
+
+	public void testAsyncDispatch() {
+
+		CountingModelListener l= new CountingModelListener();
+		gtdModel.addGTDModelListener(l, Delivery.WORKER);
+		ModelEventDispatcher d= gtdModel.getEventDispatcher();
+		d.setWindow(10000);
+
+		Action a= f1.get(0);
+		a.setDescription("D1");
+		a.setDescription("D2");
+		a.setDescription("D3");
+
+		assertEquals(0, l.modified);
+		assertEquals(1, d.getQueueDepth());
+		assertEquals(2, d.getCoalescedCount(l));
+
+		gtdModel.flushEvents();
+
+		assertEquals(1, l.modified);
+		assertEquals("A5", l.actionModified.getOldValue());
+		assertEquals("D3", l.actionModified.getNewValue());
+		assertEquals(0, d.getQueueDepth());
+		assertEquals(1, d.getDeliveredCount(l));
+		assertTrue(d.getAverageLatency(l)>0);
+
+		// structural change in between is not merged over
+		a.setDescription("D4");
+		gtdModel.moveAction(a, gtdModel.getInBucketFolder());
+		a.setDescription("D5");
+		gtdModel.flushEvents();
+
+		assertEquals(3, l.modified);
+		assertEquals(1, l.removed);
+		assertEquals("D5", l.actionModified.getNewValue());
+
+		// change reverted within window is not delivered
+		a.setDescription("D6");
+		a.setDescription("D5");
+		gtdModel.flushEvents();
+		assertEquals(3, l.modified);
+		
+		// reverted to equal value, not same object
+		a.setDescription("D6");
+		a.setDescription(new String("D5"));
+		a.setDue(new Date(1000));
+		gtdModel.flushEvents();
+		assertEquals(4, l.modified);
+		a.setDue(new Date(2000));
+		a.setDue(new Date(1000));
+		gtdModel.flushEvents();
+		assertEquals(4, l.modified);
+
+		gtdModel.removeGTDModelListener(l);
+		a.setDescription("D7");
+		gtdModel.flushEvents();
+		assertEquals(4, l.modified);
+		assertEquals(-1, d.getDeliveredCount(l));
+
+		d.stop();
+	}
+
+	public void testStructuralDispatch() throws Exception {
+		
+		final TestModelListener l= new TestModelListener();
+		gtdModel.addGTDModelListener(l, Delivery.EDT);
+		final ModelEventDispatcher d= gtdModel.getEventDispatcher();
+		d.setWindow(10000);
+		
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				f1.get(0).setDescription("Queued");
+				assertNull(l.actionModified);
+				
+				// folder is known to listener as soon as it is created, with events queued before it
+				Folder f= gtdModel.createFolder("Structural", FolderType.ACTION);
+				assertSame(f, l.folderAdded);
+				assertEquals("Queued", l.actionModified.getNewValue());
+				
+				f.rename("Renamed");
+				assertSame(f, l.folderModified.getFolder());
+			}
+		});
+		
+		d.stop();
+	}
+
+	public void testActionFields() {
+
+		Action a= f1.get(0);
+
+		assertEquals(Action.UNSET_DATE, a.getRemindTime());
+		assertNull(a.getRemind());
+		assertNull(a.getResolved());
+		assertEquals(a.getCreated().getTime(), a.getCreatedTime());
+
+		a.setRemindTime(1000);
+		assertEquals(new Date(1000), a.getRemind());
+		assertTrue(gtdModel.getRemindFolder().contains(a));
+		a.setRemind(null);
+		assertEquals(Action.UNSET_DATE, a.getRemindTime());
+		assertFalse(gtdModel.getRemindFolder().contains(a));
+
+		// enum fields share bitfield, each must keep its own value
+		a.setType(ActionType.Watch);
+		a.setPriority(Priority.High);
+		a.setQueued(true);
+		a.setResolution(Resolution.STALLED);
+		assertEquals(ActionType.Watch, a.getType());
+		assertEquals(Priority.High, a.getPriority());
+		assertTrue(a.isQueued());
+		assertEquals(Resolution.STALLED, a.getResolution());
+		assertTrue(a.getResolvedTime()!=Action.UNSET_DATE);
+
+		a.setType(null);
+		a.setPriority(null);
+		a.setQueued(false);
+		a.setResolution(Resolution.OPEN);
+		assertNull(a.getType());
+		assertNull(a.getPriority());
+		assertFalse(a.isQueued());
+		assertTrue(a.isOpen());
+		assertEquals(Action.UNSET_DATE, a.getResolvedTime());
+	}
+
+	public void testGetAction() {
+
+		for (Action a : f1) {
+			assertSame(a, gtdModel.getAction(a.getId()));
+		}
+		assertNull(gtdModel.getAction(gtdModel.getLastActionID()+1));
+
+		Folder f2= gtdModel.createFolder("F2", FolderType.ACTION);
+		Action a1= f1.get(0);
+
+		gtdModel.moveAction(a1, f2);
+
+		assertSame(a1, gtdModel.getAction(a1.getId()));
+		assertTrue(f2.contains(a1));
+		assertFalse(f1.contains(a1));
+		assertEquals(0, f2.indexOf(a1));
+		assertEquals(-1, f1.indexOf(a1));
+
+		a1.setResolution(Resolution.DELETED);
+		gtdModel.purgeDeletedActions();
+
+		assertNull(gtdModel.getAction(a1.getId()));
+		assertSame(f1.get(0), gtdModel.getAction(f1.get(0).getId()));
+
+		File f= new File(testDir,"test.xml");
+		try {
+			gtdModel.store(f);
+
+			GTDModel m= new GTDModel();
+			m.load(f);
+
+			for (Action a : f1) {
+				assertEquals(a.getDescription(), m.getAction(a.getId()).getDescription());
+			}
+			assertNull(m.getAction(a1.getId()));
+
+			m.importData(gtdModel);
+
+			Action a= m.getAction(m.getLastActionID());
+			assertNotNull(a);
+			assertSame(a, a.getFolder().getActionByID(a.getId()));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			f.delete();
+		}
+
+		checkConsistency(gtdModel);
+	}
+
 	public void testMove() {
 		try {
 			
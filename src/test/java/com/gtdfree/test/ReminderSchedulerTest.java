@@ -0,0 +1,142 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gtdfree.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.gtdfree.ReminderEvent;
+import org.gtdfree.ReminderListener;
+import org.gtdfree.ReminderScheduler;
+import org.gtdfree.model.Action;
+import org.gtdfree.model.Folder;
+import org.gtdfree.model.GTDModel;
+import org.gtdfree.model.Folder.FolderType;
+
+/**
+ * @author ikesan
+ *
+ */
+public class ReminderSchedulerTest extends TestCase {
+	
+	GTDModel model;
+	Folder f;
+	ReminderScheduler s;
+	List<ReminderEvent> events= new ArrayList<ReminderEvent>();
+	volatile boolean offEDT;
+	
+	@Override
+	protected void setUp() throws Exception {
+		model= new GTDModel();
+		f= model.createFolder("F", FolderType.ACTION);
+	}
+	
+	private void start() {
+		s= new ReminderScheduler(model);
+		model.addGTDModelListener(s);
+		s.addReminderListener(new ReminderListener() {
+			public void reminderDue(ReminderEvent e) {
+				if (!SwingUtilities.isEventDispatchThread()) {
+					offEDT=true;
+				}
+				synchronized (events) {
+					events.add(e);
+				}
+			}
+		});
+		s.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		if (s!=null) {
+			s.stopReminders();
+			s.join(1000);
+		}
+	}
+	
+	private int count() {
+		synchronized (events) {
+			return events.size();
+		}
+	}
+
+	public void testFire() throws Exception {
+		long now= System.currentTimeMillis();
+		Action past= model.createAction(f, "Past");
+		past.setRemindTime(now-1000);
+		Action a1= model.createAction(f, "A1");
+		a1.setRemindTime(now+100000);
+		
+		start();
+		assertEquals(1, s.getPendingCount());
+		assertEquals(now+100000, s.getNextReminderTime());
+		
+		Action a2= model.createAction(f, "A2");
+		a2.setDueTime(now+300);
+		a1.setRemindTime(now+200);
+		Action a3= model.createAction(f, "A3");
+		a3.setRemindTime(now+600);
+		a3.setRemindTime(Action.UNSET_DATE);
+		Action a4= model.createAction(f, "A4");
+		a4.setRemindTime(now+600);
+		a4.setResolution(Action.Resolution.RESOLVED);
+		
+		assertEquals(3, s.getPendingCount());
+		assertEquals(now+200, s.getNextReminderTime());
+		
+		Thread.sleep(1000);
+		assertEquals(2, count());
+		assertSame(a1, events.get(0).getAction());
+		assertEquals(Action.REMIND_PROPERTY_NAME, events.get(0).getProperty());
+		assertEquals(now+200, events.get(0).getTime());
+		assertSame(a2, events.get(1).getAction());
+		assertEquals(Action.DUE_PROPERTY_NAME, events.get(1).getProperty());
+		assertEquals(0, s.getPendingCount());
+		assertEquals(Action.UNSET_DATE, s.getNextReminderTime());
+		
+		// changed to past fires immediately
+		past.setRemindTime(now-500);
+		Thread.sleep(200);
+		assertEquals(3, count());
+		assertSame(past, events.get(2).getAction());
+		assertFalse(offEDT);
+	}
+	
+	public void testReschedule() throws Exception {
+		long now= System.currentTimeMillis();
+		start();
+		Action a= model.createAction(f, "A");
+		for (int i = 0; i < 10000; i++) {
+			a.setRemindTime(now+100000+i);
+		}
+		assertEquals(1, s.getPendingCount());
+		assertEquals(now+100000+9999, s.getNextReminderTime());
+		a.setRemindTime(now+100);
+		Thread.sleep(500);
+		assertEquals(1, count());
+		assertEquals(now+100, events.get(0).getTime());
+	}
+
+}
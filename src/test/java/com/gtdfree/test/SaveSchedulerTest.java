@@ -0,0 +1,118 @@
+/*
+ *    Copyright (C) 2008 Igor Kriznar
+ *    
+ *    This file is part of GTD-Free.
+ *    
+ *    GTD-Free is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *    
+ *    GTD-Free is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *    
+ *    You should have received a copy of the GNU General Public License
+ *    along with GTD-Free.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gtdfree.test;
+
+import junit.framework.TestCase;
+
+import org.gtdfree.SaveScheduler;
+
+/**
+ * @author ikesan
+ *
+ */
+public class SaveSchedulerTest extends TestCase {
+	
+	static class CountingScheduler extends SaveScheduler {
+		int saves;
+		long sleep;
+		CountingScheduler() {
+			super("Test autosave");
+		}
+		@Override
+		protected void doSave() throws Exception {
+			synchronized (this) {
+				saves++;
+			}
+			if (sleep>0) {
+				Thread.sleep(sleep);
+			}
+		}
+		synchronized int getSaves() {
+			return saves;
+		}
+	}
+	
+	CountingScheduler s;
+	
+	@Override
+	protected void setUp() throws Exception {
+		s= new CountingScheduler();
+		s.setQuietPeriod(100);
+		s.setMaxStaleness(10000);
+		s.setMinInterval(0);
+		s.setSaveBudget(10000);
+		s.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		s.stopSave();
+		s.join(1000);
+	}
+
+	public void testDebounce() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			s.changed();
+			Thread.sleep(10);
+		}
+		assertEquals(0, s.getSaves());
+		assertEquals(10, s.getPendingChanges());
+		
+		Thread.sleep(500);
+		assertEquals(1, s.getSaves());
+		assertEquals(0, s.getPendingChanges());
+		assertEquals(1, s.getSaveCount());
+		assertTrue(s.getLastSaveTime()>0);
+	}
+	
+	public void testMaxStaleness() throws Exception {
+		s.setMaxStaleness(200);
+		long end= System.currentTimeMillis()+1000;
+		while (System.currentTimeMillis()<end) {
+			// changes never stop for quiet period
+			s.changed();
+			Thread.sleep(20);
+		}
+		assertTrue(s.getSaves()>=2);
+	}
+
+	public void testMinIntervalAndBackoff() throws Exception {
+		s.setQuietPeriod(0);
+		s.setMinInterval(300);
+		s.setSaveBudget(20);
+		s.sleep=50;
+		
+		s.changed();
+		Thread.sleep(150);
+		assertEquals(1, s.getSaves());
+		assertEquals(2, s.getBackoff());
+		assertTrue(s.getLastSaveDuration()>=50);
+		
+		s.changed();
+		Thread.sleep(300);
+		// interval is stretched after slow save
+		assertEquals(1, s.getSaves());
+		assertEquals(1, s.getPendingChanges());
+		
+		Thread.sleep(600);
+		assertEquals(2, s.getSaves());
+	}
+
+}